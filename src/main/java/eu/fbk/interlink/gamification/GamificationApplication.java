@@ -4,10 +4,12 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.data.mongodb.repository.config.EnableMongoRepositories;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @ComponentScan(basePackages = { "eu.fbk.interlink", "eu.trentorise.game" })
 @EnableMongoRepositories("eu.fbk.interlink.gamification.repository")
 @SpringBootApplication
+@EnableScheduling
 public class GamificationApplication {
 
 	public static void main(String[] args) {
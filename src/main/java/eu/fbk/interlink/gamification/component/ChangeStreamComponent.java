@@ -0,0 +1,194 @@
+package eu.fbk.interlink.gamification.component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.bson.BsonDocument;
+import org.bson.BsonObjectId;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
+
+/**
+ * Watches the collections backing the local caches with Mongo change streams
+ * and publishes a {@link CollectionChangedEvent} for every change, so that
+ * every node evicts the entries changed by the others. The position of each
+ * stream is stored, after a restart the streams resume from there. Change
+ * streams need a replica set, a single node one is enough.
+ */
+@Component
+public class ChangeStreamComponent {
+
+	private static final Logger logger = LoggerFactory.getLogger(ChangeStreamComponent.class);
+
+	private static final String TOKEN_COLLECTION = "changeStreamTokens";
+
+	/**
+	 * ChangeStreamHistoryLost and ChangeStreamFatalError, the stored position
+	 * is no longer in the oplog
+	 */
+	private static final int HISTORY_LOST = 286;
+	private static final int FATAL_ERROR = 280;
+
+	private static final long RETRY_MS = 5000;
+
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
+	@Autowired
+	private ApplicationEventPublisher publisher;
+
+	@Value("${game.change-streams.enabled:false}")
+	private boolean enabled;
+
+	@Value("${game.change-streams.collections:games,templates,playerState,game}")
+	private List<String> collections;
+
+	@Value("${game.change-streams.node-id:${HOSTNAME:local}}")
+	private String nodeId;
+
+	@Value("${game.change-streams.token-interval-ms:1000}")
+	private long tokenIntervalMs;
+
+	private volatile boolean running;
+
+	private final List<Thread> watchers = new ArrayList<Thread>();
+
+	@EventListener(ApplicationReadyEvent.class)
+	public synchronized void start() {
+		if (!enabled || running) {
+			return;
+		}
+		running = true;
+		for (String collection : collections) {
+			Thread watcher = new Thread(() -> watch(collection), "change-stream-" + collection);
+			watcher.setDaemon(true);
+			watcher.start();
+			watchers.add(watcher);
+		}
+		logger.info("watching changes of {} as node {}", collections, nodeId);
+	}
+
+	@PreDestroy
+	public synchronized void stop() {
+		running = false;
+		watchers.forEach(Thread::interrupt);
+		watchers.clear();
+	}
+
+	private void watch(String collection) {
+		while (running) {
+			BsonDocument token = readToken(collection);
+			try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = open(collection, token)) {
+				long lastSave = System.currentTimeMillis();
+				while (running) {
+					ChangeStreamDocument<Document> change = cursor.tryNext();
+					if (change != null) {
+						publish(collection, change);
+					}
+					BsonDocument position = cursor.getResumeToken();
+					if (position != null && !position.equals(token)
+							&& (change == null || System.currentTimeMillis() - lastSave >= tokenIntervalMs)) {
+						saveToken(collection, position);
+						token = position;
+						lastSave = System.currentTimeMillis();
+					}
+				}
+			} catch (MongoCommandException e) {
+				if (e.getErrorCode() == HISTORY_LOST || e.getErrorCode() == FATAL_ERROR) {
+					logger.warn("changes of {} lost, restarting from now", collection);
+					deleteToken(collection);
+					publisher.publishEvent(new CollectionChangedEvent(collection, null));
+				} else {
+					retryLater(collection, e);
+				}
+			} catch (RuntimeException e) {
+				retryLater(collection, e);
+			}
+		}
+	}
+
+	private MongoChangeStreamCursor<ChangeStreamDocument<Document>> open(String collection, BsonDocument token) {
+		MongoCollection<Document> coll = mongoTemplate.getCollection(collection);
+		return (token != null ? coll.watch().resumeAfter(token) : coll.watch())
+				.maxAwaitTime(1, TimeUnit.SECONDS).cursor();
+	}
+
+	private void publish(String collection, ChangeStreamDocument<Document> change) {
+		OperationType type = change.getOperationType();
+		BsonDocument key = change.getDocumentKey();
+		if (type == OperationType.INVALIDATE || type == OperationType.DROP || type == OperationType.RENAME
+				|| type == OperationType.DROP_DATABASE || key == null) {
+			publisher.publishEvent(new CollectionChangedEvent(collection, null));
+		} else {
+			publisher.publishEvent(new CollectionChangedEvent(collection, toId(key.get("_id"))));
+		}
+	}
+
+	private static String toId(BsonValue id) {
+		if (id == null) {
+			return null;
+		}
+		if (id.isString()) {
+			return id.asString().getValue();
+		}
+		if (id.isObjectId()) {
+			return ((BsonObjectId) id).getValue().toHexString();
+		}
+		return id.toString();
+	}
+
+	private void retryLater(String collection, RuntimeException e) {
+		if (!running) {
+			return;
+		}
+		logger.warn("change stream of {} failed, retrying in {} ms: {}", collection, RETRY_MS, e.getMessage());
+		// changes may be missed until the stream is open again
+		publisher.publishEvent(new CollectionChangedEvent(collection, null));
+		try {
+			Thread.sleep(RETRY_MS);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			running = false;
+		}
+	}
+
+	private String tokenId(String collection) {
+		return nodeId + "/" + collection;
+	}
+
+	private BsonDocument readToken(String collection) {
+		BsonDocument stored = mongoTemplate.getCollection(TOKEN_COLLECTION).withDocumentClass(BsonDocument.class)
+				.find(Filters.eq("_id", tokenId(collection))).first();
+		return stored != null && stored.isDocument("token") ? stored.getDocument("token") : null;
+	}
+
+	private void saveToken(String collection, BsonDocument token) {
+		mongoTemplate.getCollection(TOKEN_COLLECTION).replaceOne(Filters.eq("_id", tokenId(collection)),
+				new Document("_id", tokenId(collection)).append("token", token), new ReplaceOptions().upsert(true));
+	}
+
+	private void deleteToken(String collection) {
+		mongoTemplate.getCollection(TOKEN_COLLECTION).deleteOne(Filters.eq("_id", tokenId(collection)));
+	}
+
+}
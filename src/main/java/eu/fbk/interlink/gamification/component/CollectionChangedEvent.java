@@ -0,0 +1,35 @@
+package eu.fbk.interlink.gamification.component;
+
+/**
+ * A document of a collection has been changed, possibly by another node.
+ * A null id means that any document of the collection may have changed, e.g.
+ * after the collection has been dropped or changes have been lost.
+ */
+public class CollectionChangedEvent {
+
+	private final String collection;
+	private final String id;
+
+	public CollectionChangedEvent(String collection, String id) {
+		this.collection = collection;
+		this.id = id;
+	}
+
+	public String getCollection() {
+		return collection;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public boolean isWholeCollection() {
+		return id == null;
+	}
+
+	@Override
+	public String toString() {
+		return "{collection='" + this.collection + "', id='" + this.id + "'}";
+	}
+
+}
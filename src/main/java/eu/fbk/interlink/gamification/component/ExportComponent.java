@@ -0,0 +1,226 @@
+package eu.fbk.interlink.gamification.component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+
+import eu.fbk.interlink.gamification.domain.LeaderboardEntry;
+import eu.fbk.interlink.gamification.domain.LeaderboardWindow;
+import eu.fbk.interlink.gamification.repository.InterLinkerRepository;
+import eu.fbk.interlink.gamification.util.InvalidRequestException;
+import eu.trentorise.game.repo.StatePersistence;
+
+/**
+ * Writes leaderboards and player scores as NDJSON or CSV straight from a Mongo
+ * cursor, one row at a time, so that whole games are exported in constant
+ * memory.
+ */
+@Component
+public class ExportComponent {
+
+	public enum Format {
+		NDJSON("application/x-ndjson", "ndjson"), CSV("text/csv", "csv");
+
+		private final String mediaType;
+		private final String extension;
+
+		private Format(String mediaType, String extension) {
+			this.mediaType = mediaType;
+			this.extension = extension;
+		}
+
+		public String getMediaType() {
+			return mediaType;
+		}
+
+		public String getExtension() {
+			return extension;
+		}
+
+		/**
+		 * @param format ndjson or csv
+		 * @throws InvalidRequestException if the format is not supported
+		 */
+		public static Format parse(String format) {
+			for (Format f : values()) {
+				if (f.extension.equalsIgnoreCase(format)) {
+					return f;
+				}
+			}
+			throw new InvalidRequestException("Export format " + format + " is not supported, use ndjson or csv");
+		}
+	}
+
+	private static final String[] LEADERBOARD_COLUMNS = { "rank", "playerId", "score" };
+
+	private static final String[] PLAYER_COLUMNS = { "playerId" };
+
+	private static final String[] SCORE_COLUMNS = { "playerId", "pointConcept", "period", "periodKey", "score" };
+
+	private final ObjectMapper mapper = new ObjectMapper().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
+	@Autowired
+	private InterLinkerRepository interlinkRepo;
+
+	@Value("${game.export.batch-size:500}")
+	private int batchSize;
+
+	/**
+	 * Write the leaderboard of a window, best first
+	 * 
+	 * @param gameId core game id
+	 * @param window
+	 * @param format
+	 * @param out    not closed
+	 * @throws IOException
+	 */
+	public void writeLeaderboard(String gameId, LeaderboardWindow window, Format format, OutputStream out)
+			throws IOException {
+		try (RowWriter rows = new RowWriter(format, out, LEADERBOARD_COLUMNS)) {
+			long[] rank = { 0 };
+			interlinkRepo.forEachScore(gameId, window, batchSize,
+					score -> rows.writeUnchecked(++rank[0], score.getPlayerId(), score.getScore()));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Write the ids of the players of a game, sorted
+	 * 
+	 * @param gameId core game id
+	 * @param format
+	 * @param out    not closed
+	 * @throws IOException
+	 */
+	public void writePlayers(String gameId, Format format, OutputStream out) throws IOException {
+		try (RowWriter rows = new RowWriter(format, out, PLAYER_COLUMNS)) {
+			interlinkRepo.forEachPlayer(gameId, batchSize, playerId -> rows.writeUnchecked(playerId));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Write the scores of the players of a game, one row for each player, point
+	 * concept and period instance. The global score has period and periodKey
+	 * global.
+	 * 
+	 * @param gameId       core game id
+	 * @param pointConcept only the scores of this point concept, or null
+	 * @param period       only the scores of this period, or null
+	 * @param out          not closed
+	 * @throws IOException
+	 */
+	public void writeScores(String gameId, String pointConcept, String period, Format format, OutputStream out)
+			throws IOException {
+		String concepts = pointConcept != null ? "concepts.PointConcept." + pointConcept : "concepts.PointConcept";
+		try (RowWriter rows = new RowWriter(format, out, SCORE_COLUMNS);
+				MongoCursor<Document> cursor = this.mongoTemplate
+						.getCollection(this.mongoTemplate.getCollectionName(StatePersistence.class))
+						.find(Filters.eq("gameId", gameId)).projection(Projections.include("playerId", concepts))
+						.sort(Sorts.ascending("playerId")).batchSize(batchSize).cursor()) {
+			while (cursor.hasNext()) {
+				for (LeaderboardEntry score : LeaderboardComponent.scores(gameId, cursor.next(), true)) {
+					if (period == null || period.equals(score.getPeriod())) {
+						rows.write(score.getPlayerId(), score.getPointConcept(), score.getPeriod(),
+								score.getPeriodKey(), score.getScore());
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Rows as JSON objects separated by new lines, or as CSV lines with a
+	 * header
+	 */
+	private class RowWriter implements AutoCloseable {
+
+		private final String[] columns;
+		private final Writer csv;
+		private final SequenceWriter ndjson;
+
+		private RowWriter(Format format, OutputStream out, String[] columns) throws IOException {
+			this.columns = columns;
+			if (format == Format.CSV) {
+				this.csv = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+				this.ndjson = null;
+				write((Object[]) columns);
+			} else {
+				this.csv = null;
+				this.ndjson = mapper.writer().withRootValueSeparator("\n").writeValues(out);
+			}
+		}
+
+		private void write(Object... values) throws IOException {
+			if (ndjson != null) {
+				Map<String, Object> row = new LinkedHashMap<String, Object>();
+				for (int i = 0; i < columns.length; i++) {
+					row.put(columns[i], values[i]);
+				}
+				ndjson.write(row);
+				return;
+			}
+			for (int i = 0; i < values.length; i++) {
+				if (i > 0) {
+					csv.write(',');
+				}
+				csv.write(escape(values[i]));
+			}
+			csv.write("\r\n");
+		}
+
+		private void writeUnchecked(Object... values) {
+			try {
+				write(values);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (ndjson != null) {
+				ndjson.flush();
+				ndjson.close();
+			} else {
+				csv.flush();
+			}
+		}
+	}
+
+	private static String escape(Object value) {
+		if (value == null) {
+			return "";
+		}
+		String s = value.toString();
+		if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) {
+			return s;
+		}
+		return '"' + s.replace("\"", "\"\"") + '"';
+	}
+
+}
@@ -1,52 +1,467 @@
 package eu.fbk.interlink.gamification.component;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
 
+import javax.annotation.PostConstruct;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Component;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
 import eu.fbk.interlink.gamification.domain.InterlinkGame;
+import eu.fbk.interlink.gamification.domain.InterlinkPlayer;
 import eu.fbk.interlink.gamification.repository.GameRepository;
+import eu.fbk.interlink.gamification.util.ControllerUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 
 @Component
 public class GameComponent {
 
+	private static final Logger logger = LoggerFactory.getLogger(GameComponent.class);
+
+	private static final long MAX_BACKOFF_MS = 1000;
+
 	@Autowired
 	private GameRepository gameRepository;
 
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
+	@Autowired
+	private TaskStorageComponent taskStorage;
+
+	@Value("${game.mutation.max-attempts:5}")
+	private int maxAttempts;
+
+	@Value("${game.mutation.backoff-ms:20}")
+	private long backoffMs;
+
+	private final Counter conflicts = Metrics.counter("interlink.game.mutation.conflicts");
+
+	private final Counter exhausted = Metrics.counter("interlink.game.mutation.exhausted");
+
+	@Value("${game.cache.max-size:1000}")
+	private long cacheMaxSize;
+
+	@Value("${game.cache.ttl-seconds:60}")
+	private long cacheTtlSeconds;
+
+	/**
+	 * Games by id, only games found are cached. Cached games are shared between
+	 * requests and must not be changed, mutations work on a fresh copy.
+	 */
+	private Cache<String, InterlinkGame> gamesById;
+
+	/**
+	 * Game ids by process id and name, checked against the cached game
+	 */
+	private Cache<String, String> gameIdsByName;
+
+	@PostConstruct
+	public void initCache() {
+		this.gamesById = Caffeine.newBuilder().maximumSize(cacheMaxSize)
+				.expireAfterWrite(Duration.ofSeconds(cacheTtlSeconds)).recordStats().build();
+		this.gameIdsByName = Caffeine.newBuilder().maximumSize(cacheMaxSize)
+				.expireAfterWrite(Duration.ofSeconds(cacheTtlSeconds)).recordStats().build();
+		CaffeineCacheMetrics.monitor(Metrics.globalRegistry, this.gamesById, "interlink.games.byId");
+		CaffeineCacheMetrics.monitor(Metrics.globalRegistry, this.gameIdsByName, "interlink.games.byName");
+	}
+
+	/**
+	 * Games saved before the introduction of the version field have no version,
+	 * Spring Data would treat them as new documents and try to insert them again.
+	 */
+	@PostConstruct
+	public void initVersions() {
+		long updated = this.mongoTemplate.updateMulti(new Query(Criteria.where("version").exists(false)),
+				new Update().set("version", 0L), InterlinkGame.class).getModifiedCount();
+		if (updated > 0) {
+			logger.info("initialized version of {} games", updated);
+		}
+	}
+
 	public List<InterlinkGame> findAll() {
-		return (List<InterlinkGame>) this.gameRepository.findAll();
+		return attach((List<InterlinkGame>) this.gameRepository.findAll());
 
 	}
 
+	/**
+	 * The game is loaded inside the cache, so that an eviction arriving while it
+	 * is read is not overwritten by the copy read
+	 */
 	public Optional<InterlinkGame> findById(String id) {
-		return this.gameRepository.findById(id);
-
+		return Optional.ofNullable(this.gamesById.get(id, key -> loadGame(key).orElse(null)));
 	}
 
 	public List<InterlinkGame> findByTags(List<String> tagList) {
-		return this.gameRepository.findByTagList(tagList);
+		return attach(this.gameRepository.findByTagList(tagList));
 
 	}
 
 	public List<InterlinkGame> findByProcessId(String processId) {
-		return this.gameRepository.findByProcessId(processId);
+		return attach(this.gameRepository.findByProcessId(processId));
+	}
+
+	/**
+	 * Version of a game, read from the cached game or from the version field
+	 * only
+	 * 
+	 * @param id
+	 * @return the version, empty if the game is not present
+	 */
+	public Optional<Long> findVersion(String id) {
+		InterlinkGame game = this.gamesById.getIfPresent(id);
+		if (game == null) {
+			Query query = new Query(Criteria.where("_id").is(id));
+			query.fields().include("version");
+			game = this.mongoTemplate.findOne(query, InterlinkGame.class);
+		}
+		return game != null ? Optional.ofNullable(game.getVersion()) : Optional.empty();
+	}
+
+	/**
+	 * Core game ids of the games of a process, the games are not loaded
+	 * 
+	 * @param processId
+	 * @return processId-name of each game
+	 */
+	public List<String> findCoreGameIdsByProcessId(String processId) {
+		return coreGameIds(new Query(Criteria.where("processId").is(processId)));
+	}
+
+	/**
+	 * Core game ids of the games with a tag, the games are not loaded
+	 * 
+	 * @param tag
+	 * @return processId-name of each game
+	 */
+	public List<String> findCoreGameIdsByTag(String tag) {
+		return coreGameIds(new Query(Criteria.where("tagList").is(tag)));
+	}
+
+	private List<String> coreGameIds(Query query) {
+		query.fields().include("processId").include("name");
+		List<String> ids = new ArrayList<String>();
+		for (InterlinkGame game : this.mongoTemplate.find(query, InterlinkGame.class)) {
+			ids.add(ControllerUtils.getGameId(game.getProcessId(), game.getName()));
+		}
+		return ids;
 	}
 
 	public InterlinkGame saveOrUpdateGame(InterlinkGame game) {
-		return this.gameRepository.save(game);
+		try {
+			if (this.taskStorage.isEnabled()) {
+				return this.taskStorage.save(game);
+			}
+			return this.gameRepository.save(game);
+		} finally {
+			evict(game.getId());
+		}
 
 	}
 
 	public void deleteGameById(String id) {
 		this.gameRepository.deleteById(id);
+		if (this.taskStorage.isEnabled()) {
+			this.taskStorage.deleteTasks(id);
+		}
+		evict(id);
 
 	}
 
 	public Optional<InterlinkGame> findByProcessIdAndName(String processId, String name) {
-		return this.gameRepository.findByProcessIdAndName(processId, name);
+		String key = processId + '\u0000' + name;
+		String id = this.gameIdsByName.getIfPresent(key);
+		if (id != null) {
+			// the game may have been renamed or deleted in the meantime
+			Optional<InterlinkGame> game = findById(id).filter(
+					g -> Objects.equals(g.getProcessId(), processId) && Objects.equals(g.getName(), name));
+			if (game.isPresent()) {
+				return game;
+			}
+			this.gameIdsByName.invalidate(key);
+		}
+		Optional<String> found = this.gameRepository.findByProcessIdAndName(processId, name)
+				.map(InterlinkGame::getId);
+		found.ifPresent(gameId -> this.gameIdsByName.put(key, gameId));
+		// the game is cached by id only when loaded through the cache
+		return found.flatMap(this::findById)
+				.filter(g -> Objects.equals(g.getProcessId(), processId) && Objects.equals(g.getName(), name));
+
+	}
+
+	/**
+	 * Drop a game from the cache
+	 * 
+	 * @param id
+	 */
+	public void evict(String id) {
+		if (id != null) {
+			this.gamesById.invalidate(id);
+		}
+	}
+
+	/**
+	 * Evict games changed by other nodes. Task documents are not watched, every
+	 * task write also updates the version of the game document.
+	 */
+	@EventListener
+	public void onCollectionChanged(CollectionChangedEvent event) {
+		if (!this.mongoTemplate.getCollectionName(InterlinkGame.class).equals(event.getCollection())) {
+			return;
+		}
+		if (event.isWholeCollection()) {
+			this.gamesById.invalidateAll();
+			this.gameIdsByName.invalidateAll();
+		} else {
+			evict(event.getId());
+		}
+	}
+
+	private Optional<InterlinkGame> loadGame(String id) {
+		return this.gameRepository.findById(id).map(this::attach);
+	}
+
+	/**
+	 * When tasks are stored in their own collection, games are read without
+	 * tasks and the tasks are read on first access.
+	 */
+	private InterlinkGame attach(InterlinkGame game) {
+		return this.taskStorage.isEnabled() ? this.taskStorage.attach(game) : game;
+	}
+
+	private List<InterlinkGame> attach(List<InterlinkGame> games) {
+		games.forEach(this::attach);
+		return games;
+	}
+
+	/**
+	 * Apply a mutation to the current state of a game and save it. The game is
+	 * saved with an optimistic version check, when another writer changed the
+	 * game in the meantime the game is read again and the mutation is applied
+	 * again after a jittered backoff, up to a bounded number of attempts.
+	 * 
+	 * @param gameId
+	 * @param mutation receives the game, empty if not present
+	 * @return the value of the mutation result
+	 * @throws OptimisticLockingFailureException if every attempt conflicted
+	 */
+	@SuppressWarnings("unchecked")
+	public <R> R mutateGame(String gameId, GameMutation<R> mutation) {
+		GameMutationResult<R> result = (GameMutationResult<R>) applyMutations(gameId,
+				Collections.singletonList(mutation)).get(0);
+		if (result.getError() != null) {
+			throw result.getError();
+		}
+		result.getAfterCommit().forEach(Runnable::run);
+		return result.getValue();
+	}
+
+	/**
+	 * Apply a batch of mutations, in order, to a single copy of the game and save
+	 * it once. Conflicts are handled as in {@link #mutateGame}, the whole batch
+	 * is applied again on a fresh copy. A mutation that throws gets a failed
+	 * result and the others are applied again on a fresh copy, so that none of
+	 * its changes is saved. After-commit actions of the results are not run, it
+	 * is up to the caller.
+	 * 
+	 * @param gameId
+	 * @param mutations
+	 * @return the results, in the same order of the mutations
+	 * @throws OptimisticLockingFailureException if every attempt conflicted
+	 */
+	public List<GameMutationResult<?>> applyMutations(String gameId, List<? extends GameMutation<?>> mutations) {
+		Map<Integer, GameMutationResult<?>> failed = new HashMap<Integer, GameMutationResult<?>>();
+		int attempt = 1;
+		while (true) {
+			Optional<InterlinkGame> game = loadGame(gameId);
+			List<GameMutationResult<?>> results = new ArrayList<GameMutationResult<?>>(mutations.size());
+			boolean changed = false;
+			boolean discarded = false;
+			for (int i = 0; i < mutations.size() && !discarded; i++) {
+				GameMutationResult<?> result = failed.get(i);
+				if (result == null) {
+					try {
+						result = mutations.get(i).apply(game);
+						changed |= result.isChanged();
+					} catch (RuntimeException e) {
+						// the copy may hold part of its changes, the others are applied
+						// again on a fresh copy
+						failed.put(i, GameMutationResult.failed(e));
+						discarded = true;
+					}
+				}
+				results.add(result);
+			}
+			if (discarded) {
+				continue;
+			}
+			if (changed) {
+				try {
+					saveOrUpdateGame(game.get());
+				} catch (OptimisticLockingFailureException e) {
+					conflicts.increment();
+					if (attempt >= maxAttempts) {
+						exhausted.increment();
+						logger.warn("game {} still conflicting after {} attempts", gameId, attempt);
+						throw e;
+					}
+					backoff(attempt++, e);
+					continue;
+				}
+			}
+			return results;
+		}
+	}
+
+	private void backoff(int attempt, OptimisticLockingFailureException conflict) {
+		long bound = Math.min(MAX_BACKOFF_MS, backoffMs << Math.min(attempt - 1, 16));
+		try {
+			Thread.sleep(ThreadLocalRandom.current().nextLong(bound + 1));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw conflict;
+		}
+	}
+
+	/**
+	 * Add a player to a task with a single in-place update. The update matches
+	 * only if the game is active, the task is present and not completed and the
+	 * player is not already inside the task.
+	 * 
+	 * @param gameId
+	 * @param taskId
+	 * @param player
+	 * @return the updated game, empty if one of the preconditions failed
+	 */
+	public Optional<InterlinkGame> addPlayerToTask(String gameId, String taskId, InterlinkPlayer player) {
+		if (this.taskStorage.isEnabled()) {
+			return storedTaskUpdate(gameId, this.taskStorage.addPlayer(gameId, null, taskId, player));
+		}
+		Query query = activeGame(gameId).addCriteria(Criteria.where("taskList").elemMatch(
+				Criteria.where("id").is(taskId).and("completed").is(false).and("playerList.id").ne(player.getId())));
+		Update update = new Update().push("taskList.$.playerList", player).inc("version", 1);
+		return findAndModify(query, update);
+	}
+
+	/**
+	 * Remove a player from a task with a single in-place update. The update
+	 * matches only if the game is active, the task is present and not completed
+	 * and the player is inside the task.
+	 * 
+	 * @param gameId
+	 * @param taskId
+	 * @param player
+	 * @return the updated game, empty if one of the preconditions failed
+	 */
+	public Optional<InterlinkGame> removePlayerFromTask(String gameId, String taskId, InterlinkPlayer player) {
+		if (this.taskStorage.isEnabled()) {
+			return storedTaskUpdate(gameId, this.taskStorage.removePlayer(gameId, null, taskId, player));
+		}
+		Query query = activeGame(gameId).addCriteria(Criteria.where("taskList").elemMatch(
+				Criteria.where("id").is(taskId).and("completed").is(false).and("playerList.id").is(player.getId())));
+		Update update = new Update().pull("taskList.$.playerList", new Document("_id", player.getId()))
+				.inc("version", 1);
+		return findAndModify(query, update);
+	}
+
+	/**
+	 * Add a player to a subtask with a single in-place update. The update
+	 * matches only if the game is active, the task and the subtask are present,
+	 * the subtask is not completed and the player is not already inside it.
+	 * 
+	 * @param gameId
+	 * @param taskId
+	 * @param subtaskId
+	 * @param player
+	 * @return the updated game, empty if one of the preconditions failed
+	 */
+	public Optional<InterlinkGame> addPlayerToSubtask(String gameId, String taskId, String subtaskId,
+			InterlinkPlayer player) {
+		if (this.taskStorage.isEnabled()) {
+			return storedTaskUpdate(gameId, this.taskStorage.addPlayer(gameId, taskId, subtaskId, player));
+		}
+		Query query = activeGame(gameId).addCriteria(Criteria.where("taskList")
+				.elemMatch(Criteria.where("id").is(taskId).and("subtaskList").elemMatch(Criteria.where("id")
+						.is(subtaskId).and("completed").is(false).and("playerList.id").ne(player.getId()))));
+		Update update = new Update().push("taskList.$[task].subtaskList.$[subtask].playerList", player)
+				.inc("version", 1)
+				.filterArray(Criteria.where("task._id").is(taskId))
+				.filterArray(Criteria.where("subtask._id").is(subtaskId));
+		return findAndModify(query, update);
+	}
+
+	/**
+	 * Remove a player from a subtask with a single in-place update. The update
+	 * matches only if the game is active, the task and the subtask are present,
+	 * the subtask is not completed and the player is inside it.
+	 * 
+	 * @param gameId
+	 * @param taskId
+	 * @param subtaskId
+	 * @param player
+	 * @return the updated game, empty if one of the preconditions failed
+	 */
+	public Optional<InterlinkGame> removePlayerFromSubtask(String gameId, String taskId, String subtaskId,
+			InterlinkPlayer player) {
+		if (this.taskStorage.isEnabled()) {
+			return storedTaskUpdate(gameId, this.taskStorage.removePlayer(gameId, taskId, subtaskId, player));
+		}
+		Query query = activeGame(gameId).addCriteria(Criteria.where("taskList")
+				.elemMatch(Criteria.where("id").is(taskId).and("subtaskList").elemMatch(Criteria.where("id")
+						.is(subtaskId).and("completed").is(false).and("playerList.id").is(player.getId()))));
+		Update update = new Update()
+				.pull("taskList.$[task].subtaskList.$[subtask].playerList", new Document("_id", player.getId()))
+				.inc("version", 1)
+				.filterArray(Criteria.where("task._id").is(taskId))
+				.filterArray(Criteria.where("subtask._id").is(subtaskId));
+		return findAndModify(query, update);
+	}
+
+	private Optional<InterlinkGame> storedTaskUpdate(String gameId, boolean updated) {
+		if (!updated) {
+			return Optional.empty();
+		}
+		evict(gameId);
+		return loadGame(gameId);
+	}
+
+	private Query activeGame(String gameId) {
+		return new Query(Criteria.where("id").is(gameId).and("active").is(true));
+	}
 
+	/**
+	 * In-place updates increase the game version, so that concurrent
+	 * {@link #mutateGame} calls working on an older copy conflict and retry.
+	 */
+	private Optional<InterlinkGame> findAndModify(Query query, Update update) {
+		Optional<InterlinkGame> game = Optional.ofNullable(this.mongoTemplate.findAndModify(query, update,
+				FindAndModifyOptions.options().returnNew(true), InterlinkGame.class));
+		game.ifPresent(g -> evict(g.getId()));
+		return game;
 	}
 
 }
@@ -0,0 +1,26 @@
+package eu.fbk.interlink.gamification.component;
+
+/**
+ * A game and all the player states of it have been removed.
+ */
+public class GameDeletedEvent {
+
+	private final String gameId;
+
+	public GameDeletedEvent(String gameId) {
+		this.gameId = gameId;
+	}
+
+	/**
+	 * @return the core game id, processId-name
+	 */
+	public String getGameId() {
+		return gameId;
+	}
+
+	@Override
+	public String toString() {
+		return "{gameId='" + this.gameId + "'}";
+	}
+
+}
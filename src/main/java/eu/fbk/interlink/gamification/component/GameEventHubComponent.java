@@ -0,0 +1,357 @@
+package eu.fbk.interlink.gamification.component;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import eu.fbk.interlink.gamification.domain.LeaderboardEntry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Fan out of the task and score changes of a game to the clients subscribed
+ * with server-sent events. Every subscriber has a bounded buffer drained by a
+ * small shared executor, so idle connections hold no thread; a subscriber
+ * whose buffer is full, or whose send does not complete within the send
+ * timeout, is too slow and is disconnected, the client reconnects and reads
+ * the current state again. A periodic comment keeps idle connections open
+ * through proxies.
+ * 
+ * Only the changes made on this node are pushed: with several nodes the
+ * clients of a game must be routed to the same node, e.g. with a sticky
+ * load balancer on the game id.
+ */
+@Component
+public class GameEventHubComponent {
+
+	private static final Logger logger = LoggerFactory.getLogger(GameEventHubComponent.class);
+
+	public static final String TASK = "task";
+	public static final String SCORE = "score";
+	public static final String PLAYER = "player";
+
+	@Autowired
+	private LeaderboardComponent leaderboard;
+
+	@Value("${game.events.threads:2}")
+	private int threads;
+
+	@Value("${game.events.buffer-size:64}")
+	private int bufferSize;
+
+	@Value("${game.events.max-subscribers:10000}")
+	private int maxSubscribers;
+
+	@Value("${game.events.timeout-ms:1800000}")
+	private long timeout;
+
+	/**
+	 * time a send to a client may block before the client is disconnected
+	 */
+	@Value("${game.events.send-timeout-ms:10000}")
+	private long sendTimeout;
+
+	private final ConcurrentHashMap<String, Set<Subscriber>> subscribers = new ConcurrentHashMap<String, Set<Subscriber>>();
+
+	/**
+	 * subscribers disconnected while blocked in a send not returned yet
+	 */
+	private final Set<Subscriber> blocked = ConcurrentHashMap.newKeySet();
+
+	private final AtomicInteger count = Metrics.gauge("interlink.game.events.subscribers", new AtomicInteger());
+
+	private final Counter dropped = Metrics.counter("interlink.game.events.dropped");
+
+	private ThreadPoolExecutor executor;
+
+	@PostConstruct
+	public void init() {
+		AtomicInteger threadCount = new AtomicInteger();
+		executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(), r -> {
+					Thread t = new Thread(r, "game-events-" + threadCount.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				});
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdown();
+		subscribers.values().forEach(game -> game.forEach(subscriber -> subscriber.emitter.complete()));
+	}
+
+	/**
+	 * Subscribe to the changes of a game
+	 * 
+	 * @param gameId core game id
+	 * @return the emitter to return from the request, empty when too many
+	 *         clients are subscribed
+	 */
+	public Optional<SseEmitter> subscribe(String gameId) {
+		if (count.incrementAndGet() > maxSubscribers) {
+			count.decrementAndGet();
+			return Optional.empty();
+		}
+		Subscriber subscriber = new Subscriber(gameId, new SseEmitter(timeout), bufferSize);
+		subscriber.emitter.onCompletion(() -> remove(subscriber));
+		subscriber.emitter.onTimeout(() -> remove(subscriber));
+		subscriber.emitter.onError(e -> remove(subscriber));
+		// added in the same step that checks the set, so a concurrent removal of
+		// the last subscriber cannot drop it
+		subscribers.compute(gameId, (id, game) -> {
+			if (subscriber.removed.get()) {
+				return game;
+			}
+			Set<Subscriber> updated = game != null ? game : ConcurrentHashMap.<Subscriber>newKeySet();
+			updated.add(subscriber);
+			return updated;
+		});
+		return Optional.of(subscriber.emitter);
+	}
+
+	@EventListener
+	public void onTaskChanged(TaskChangedEvent event) {
+		Map<String, Object> data = new LinkedHashMap<String, Object>();
+		data.put("action", event.getAction());
+		data.put("taskId", event.getTaskId());
+		if (event.getSubtaskId() != null) {
+			data.put("subtaskId", event.getSubtaskId());
+		}
+		if (event.getPlayerId() != null) {
+			data.put("playerId", event.getPlayerId());
+		}
+		publish(event.getGameId(), TASK, data);
+	}
+
+	/**
+	 * Only the global score is pushed, the period instances change together
+	 * with it
+	 */
+	@EventListener
+	public void onScoreChanged(LeaderboardScoreChangedEvent event) {
+		if (!LeaderboardEntry.GLOBAL.equals(event.getPeriod())) {
+			return;
+		}
+		double oldScore = event.getOldScore() != null ? event.getOldScore() : 0;
+		double newScore = event.getNewScore() != null ? event.getNewScore() : 0;
+		Map<String, Object> data = new LinkedHashMap<String, Object>();
+		data.put("playerId", event.getPlayerId());
+		data.put("pointConcept", event.getPointConcept());
+		data.put("score", newScore);
+		data.put("delta", newScore - oldScore);
+		publish(event.getGameId(), SCORE, data);
+	}
+
+	/**
+	 * Without the materialized leaderboard the scores are not diffed, the
+	 * clients are told which player to read again
+	 */
+	@EventListener
+	public void onPlayerStateChanged(PlayerStateChangedEvent event) {
+		if (leaderboard.isEnabled()) {
+			return;
+		}
+		Map<String, Object> data = new LinkedHashMap<String, Object>();
+		data.put("playerId", event.getPlayerId());
+		publish(event.getGameId(), PLAYER, data);
+	}
+
+	/**
+	 * The subscribers of a removed game have nothing left to receive
+	 */
+	@EventListener
+	public void onGameDeleted(GameDeletedEvent event) {
+		Set<Subscriber> game = subscribers.get(event.getGameId());
+		if (game != null) {
+			game.forEach(this::close);
+		}
+	}
+
+	@Scheduled(fixedDelayString = "${game.events.heartbeat-ms:20000}")
+	public void heartbeat() {
+		subscribers.values().forEach(game -> game.forEach(subscriber -> offer(subscriber, Message.HEARTBEAT)));
+	}
+
+	/**
+	 * Disconnect the subscribers blocked in a send for longer than the send
+	 * timeout, and start a thread for each of them, so that the other
+	 * subscribers are still served while the blocked sends fail
+	 */
+	@Scheduled(fixedDelayString = "${game.events.send-timeout-ms:10000}")
+	public void checkSends() {
+		long expired = System.currentTimeMillis() - sendTimeout;
+		for (Set<Subscriber> game : subscribers.values()) {
+			for (Subscriber subscriber : game) {
+				synchronized (subscriber) {
+					if (subscriber.sender != null && subscriber.sendingSince < expired) {
+						logger.info("Disconnecting blocked subscriber of game {}", subscriber.gameId);
+						dropped.increment();
+						remove(subscriber);
+						blocked.add(subscriber);
+						subscriber.sender.interrupt();
+					}
+				}
+			}
+		}
+		// a send not returned after the interrupt fails within the write timeout
+		// of the connector
+		int size = threads + Math.min(blocked.size(), threads * 3);
+		if (size > executor.getMaximumPoolSize()) {
+			executor.setMaximumPoolSize(size);
+			executor.setCorePoolSize(size);
+		} else if (size < executor.getCorePoolSize()) {
+			executor.setCorePoolSize(size);
+			executor.setMaximumPoolSize(size);
+		}
+	}
+
+	private void publish(String gameId, String name, Object data) {
+		Set<Subscriber> game = subscribers.get(gameId);
+		if (game == null) {
+			return;
+		}
+		Message message = new Message(name, data);
+		game.forEach(subscriber -> offer(subscriber, message));
+	}
+
+	private void offer(Subscriber subscriber, Message message) {
+		if (subscriber.removed.get()) {
+			return;
+		}
+		if (!subscriber.queue.offer(message)) {
+			logger.info("Disconnecting slow subscriber of game {}", subscriber.gameId);
+			dropped.increment();
+			close(subscriber);
+			return;
+		}
+		schedule(subscriber);
+	}
+
+	/**
+	 * Complete the emitter on the executor, the caller must not wait for a
+	 * send in progress
+	 */
+	private void close(Subscriber subscriber) {
+		remove(subscriber);
+		subscriber.queue.clear();
+		schedule(subscriber);
+	}
+
+	private void schedule(Subscriber subscriber) {
+		if (subscriber.scheduled.compareAndSet(false, true)) {
+			executor.execute(() -> drain(subscriber));
+		}
+	}
+
+	private void drain(Subscriber subscriber) {
+		Message message;
+		int sent = 0;
+		try {
+			// at most a buffer at a time, the other subscribers are served meanwhile
+			while (!subscriber.removed.get() && sent++ < bufferSize
+					&& (message = subscriber.queue.poll()) != null) {
+				synchronized (subscriber) {
+					subscriber.sendingSince = System.currentTimeMillis();
+					subscriber.sender = Thread.currentThread();
+				}
+				try {
+					if (message.name == null) {
+						subscriber.emitter.send(SseEmitter.event().comment(""));
+					} else {
+						subscriber.emitter.send(SseEmitter.event().name(message.name).data(message.data,
+								MediaType.APPLICATION_JSON));
+					}
+				} finally {
+					synchronized (subscriber) {
+						subscriber.sender = null;
+					}
+					blocked.remove(subscriber);
+					// an interrupt of the check comes only during the send
+					Thread.interrupted();
+				}
+			}
+			if (subscriber.removed.get()) {
+				subscriber.emitter.complete();
+			}
+		} catch (IOException | IllegalStateException e) {
+			// the client went away or the emitter is already completed
+			remove(subscriber);
+			subscriber.queue.clear();
+		} finally {
+			subscriber.scheduled.set(false);
+		}
+		if (!subscriber.removed.get() && !subscriber.queue.isEmpty()) {
+			schedule(subscriber);
+		}
+	}
+
+	private void remove(Subscriber subscriber) {
+		if (!subscriber.removed.compareAndSet(false, true)) {
+			return;
+		}
+		count.decrementAndGet();
+		subscribers.compute(subscriber.gameId, (id, game) -> {
+			if (game == null) {
+				return null;
+			}
+			game.remove(subscriber);
+			return game.isEmpty() ? null : game;
+		});
+	}
+
+	private static class Subscriber {
+		private final String gameId;
+		private final SseEmitter emitter;
+		private final Queue<Message> queue;
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+		private final AtomicBoolean removed = new AtomicBoolean();
+		/**
+		 * thread blocked in a send started at sendingSince, null when idle
+		 */
+		private Thread sender;
+		private long sendingSince;
+
+		private Subscriber(String gameId, SseEmitter emitter, int bufferSize) {
+			this.gameId = gameId;
+			this.emitter = emitter;
+			this.queue = new ArrayBlockingQueue<Message>(bufferSize);
+		}
+	}
+
+	private static class Message {
+		private static final Message HEARTBEAT = new Message(null, null);
+
+		private final String name;
+		private final Object data;
+
+		private Message(String name, Object data) {
+			this.name = name;
+			this.data = data;
+		}
+	}
+
+}
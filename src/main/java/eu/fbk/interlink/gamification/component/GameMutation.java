@@ -0,0 +1,23 @@
+package eu.fbk.interlink.gamification.component;
+
+import java.util.Optional;
+
+import eu.fbk.interlink.gamification.domain.InterlinkGame;
+
+/**
+ * A change applied to the in-memory state of a game. A mutation may be applied
+ * more than once when a write conflict occurs, so it must only change the game
+ * and register any other side effect as an after-commit action of its result.
+ *
+ * @param <R> type of the value returned to the caller
+ */
+@FunctionalInterface
+public interface GameMutation<R> {
+
+	/**
+	 * @param game the game, empty if not present
+	 * @return the mutation result
+	 */
+	GameMutationResult<R> apply(Optional<InterlinkGame> game);
+
+}
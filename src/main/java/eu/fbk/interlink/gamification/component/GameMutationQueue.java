@@ -0,0 +1,255 @@
+package eu.fbk.interlink.gamification.component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import eu.fbk.interlink.gamification.domain.InterlinkGame;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Single writer mailbox per game. Mutations submitted for the same game are
+ * queued and applied in order by one worker to a single copy of the game, which
+ * is saved once for each drained batch. Mailboxes of different games are
+ * drained in parallel on a bounded executor. The after-commit actions, e.g.
+ * engine calls, run in order per game on a separate executor, so that a slow
+ * action does not hold up the next mutations of the game.
+ */
+@Component
+public class GameMutationQueue {
+
+	private static final Logger logger = LoggerFactory.getLogger(GameMutationQueue.class);
+
+	@Autowired
+	private GameComponent gameComponent;
+
+	@Value("${game.mutation.queue.threads:4}")
+	private int threads;
+
+	@Value("${game.mutation.queue.max-batch:100}")
+	private int maxBatch;
+
+	@Value("${game.mutation.queue.after-commit-threads:4}")
+	private int afterCommitThreads;
+
+	@Value("${game.mutation.queue.timeout-ms:30000}")
+	private long timeout;
+
+	private final ConcurrentHashMap<String, Mailbox> mailboxes = new ConcurrentHashMap<String, Mailbox>();
+
+	/**
+	 * Last after-commit actions queued for each game
+	 */
+	private final ConcurrentHashMap<String, CompletableFuture<Void>> afterCommitTails = new ConcurrentHashMap<String, CompletableFuture<Void>>();
+
+	private final DistributionSummary batchSize = Metrics.summary("interlink.game.mutation.batch.size");
+
+	private ExecutorService executor;
+
+	private ExecutorService afterCommitExecutor;
+
+	@PostConstruct
+	public void init() {
+		AtomicInteger count = new AtomicInteger();
+		executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(), r -> {
+					Thread t = new Thread(r, "game-mutation-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				});
+		AtomicInteger afterCommitCount = new AtomicInteger();
+		afterCommitExecutor = new ThreadPoolExecutor(afterCommitThreads, afterCommitThreads, 0L,
+				TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+					Thread t = new Thread(r, "game-mutation-commit-" + afterCommitCount.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				});
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdown();
+		afterCommitExecutor.shutdown();
+	}
+
+	/**
+	 * Queue a mutation for a game and wait for it to be applied and saved, and
+	 * for its after-commit actions to run.
+	 * 
+	 * @param gameId
+	 * @param mutation
+	 * @return the value of the mutation result
+	 * @throws GameMutationTimeoutException if not completed in time
+	 */
+	@SuppressWarnings("unchecked")
+	public <R> R submit(String gameId, GameMutation<R> mutation) {
+		PendingMutation<R> pending = new PendingMutation<R>(mutation);
+		Mailbox mailbox = mailboxes.compute(gameId, (id, current) -> {
+			Mailbox target = current != null ? current : new Mailbox(id);
+			target.queue.add(pending);
+			return target;
+		});
+		schedule(mailbox);
+		try {
+			return (R) pending.future.get(timeout, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			throw new GameMutationTimeoutException(gameId, timeout);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new GameMutationTimeoutException(gameId, timeout);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * Wait for the after-commit actions already queued for a game to run,
+	 * whatever their outcome
+	 * 
+	 * @param gameId
+	 * @throws GameMutationTimeoutException if not completed in time
+	 */
+	public void awaitAfterCommit(String gameId) {
+		CompletableFuture<Void> tail = afterCommitTails.get(gameId);
+		if (tail == null) {
+			return;
+		}
+		try {
+			tail.handle((done, e) -> null).get(timeout, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException | ExecutionException e) {
+			throw new GameMutationTimeoutException(gameId, timeout);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new GameMutationTimeoutException(gameId, timeout);
+		}
+	}
+
+	private void schedule(Mailbox mailbox) {
+		if (mailbox.scheduled.compareAndSet(false, true)) {
+			executor.execute(() -> drain(mailbox));
+		}
+	}
+
+	/**
+	 * Apply one batch, then give the worker back to the executor so that a hot
+	 * game cannot starve the others.
+	 */
+	private void drain(Mailbox mailbox) {
+		List<PendingMutation<?>> batch = new ArrayList<PendingMutation<?>>();
+		PendingMutation<?> next;
+		while (batch.size() < maxBatch && (next = mailbox.queue.poll()) != null) {
+			batch.add(next);
+		}
+		if (!batch.isEmpty()) {
+			apply(mailbox.gameId, batch);
+		}
+		if (!mailbox.queue.isEmpty()) {
+			executor.execute(() -> drain(mailbox));
+			return;
+		}
+		mailbox.scheduled.set(false);
+		mailboxes.computeIfPresent(mailbox.gameId,
+				(id, current) -> current.queue.isEmpty() && !current.scheduled.get() ? null : current);
+		// a mutation queued before the mailbox was released
+		if (!mailbox.queue.isEmpty()) {
+			schedule(mailbox);
+		}
+	}
+
+	private void apply(String gameId, List<PendingMutation<?>> batch) {
+		batchSize.record(batch.size());
+		List<GameMutationResult<?>> results;
+		try {
+			results = gameComponent.applyMutations(gameId, batch);
+		} catch (RuntimeException e) {
+			logger.warn("batch of {} mutations on game {} failed: {}", batch.size(), gameId, e.getMessage());
+			batch.forEach(pending -> pending.future.completeExceptionally(e));
+			return;
+		}
+		for (int i = 0; i < batch.size(); i++) {
+			PendingMutation<?> pending = batch.get(i);
+			GameMutationResult<?> result = results.get(i);
+			if (result.getError() != null) {
+				pending.future.completeExceptionally(result.getError());
+				continue;
+			}
+			if (result.getAfterCommit().isEmpty()) {
+				pending.future.complete(result.getValue());
+			} else {
+				afterCommit(gameId, result.getAfterCommit()).whenComplete((done, e) -> {
+					if (e != null) {
+						pending.future.completeExceptionally(e.getCause() != null ? e.getCause() : e);
+					} else {
+						pending.future.complete(result.getValue());
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Chain the actions after the ones already queued for the game, whatever
+	 * their outcome
+	 */
+	private CompletableFuture<Void> afterCommit(String gameId, List<Runnable> actions) {
+		CompletableFuture<Void> next = afterCommitTails.compute(gameId,
+				(id, tail) -> (tail != null ? tail.handle((done, e) -> null) : CompletableFuture.completedFuture(null))
+						.thenRunAsync(() -> actions.forEach(Runnable::run), afterCommitExecutor));
+		next.whenComplete((done, e) -> afterCommitTails.remove(gameId, next));
+		return next;
+	}
+
+	private static class Mailbox {
+		private final String gameId;
+		private final Queue<PendingMutation<?>> queue = new ConcurrentLinkedQueue<PendingMutation<?>>();
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+
+		private Mailbox(String gameId) {
+			this.gameId = gameId;
+		}
+	}
+
+	/**
+	 * A queued mutation. A failing mutation does not abort the batch, its error
+	 * is reported to its caller only.
+	 */
+	private static class PendingMutation<R> implements GameMutation<R> {
+		private final GameMutation<R> mutation;
+		private final CompletableFuture<Object> future = new CompletableFuture<Object>();
+
+		private PendingMutation(GameMutation<R> mutation) {
+			this.mutation = mutation;
+		}
+
+		@Override
+		public GameMutationResult<R> apply(Optional<InterlinkGame> game) {
+			return mutation.apply(game);
+		}
+	}
+
+}
@@ -0,0 +1,90 @@
+package eu.fbk.interlink.gamification.component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of a {@link GameMutation} applied to a game. It carries the value
+ * returned to the caller, whether the game has been changed and must be
+ * persisted and the actions to run once the change has been committed.
+ *
+ * @param <R> type of the value returned to the caller
+ */
+public class GameMutationResult<R> {
+
+	private final R value;
+	private final boolean changed;
+	private final List<Runnable> afterCommit = new ArrayList<Runnable>();
+	private RuntimeException error;
+
+	private GameMutationResult(R value, boolean changed) {
+		this.value = value;
+		this.changed = changed;
+	}
+
+	/**
+	 * The game has been changed and must be saved
+	 * 
+	 * @param value
+	 * @return result
+	 */
+	public static <R> GameMutationResult<R> changed(R value) {
+		return new GameMutationResult<R>(value, true);
+	}
+
+	/**
+	 * The game has not been changed, nothing to save
+	 * 
+	 * @param value
+	 * @return result
+	 */
+	public static <R> GameMutationResult<R> unchanged(R value) {
+		return new GameMutationResult<R>(value, false);
+	}
+
+	/**
+	 * The mutation threw, the other mutations of the batch are applied again on
+	 * a fresh copy of the game, without its changes
+	 * 
+	 * @param error
+	 * @return result
+	 */
+	public static <R> GameMutationResult<R> failed(RuntimeException error) {
+		GameMutationResult<R> result = new GameMutationResult<R>(null, false);
+		result.error = error;
+		return result;
+	}
+
+	/**
+	 * Register an action to run after the game has been saved. Actions with side
+	 * effects outside the game document (e.g. player points) must be registered
+	 * here, a mutation may be applied more than once when a write conflict occurs.
+	 * 
+	 * @param action
+	 * @return this result
+	 */
+	public GameMutationResult<R> afterCommit(Runnable action) {
+		this.afterCommit.add(action);
+		return this;
+	}
+
+	public R getValue() {
+		return value;
+	}
+
+	public boolean isChanged() {
+		return changed;
+	}
+
+	public List<Runnable> getAfterCommit() {
+		return afterCommit;
+	}
+
+	/**
+	 * @return the exception thrown by the mutation, null if applied
+	 */
+	public RuntimeException getError() {
+		return error;
+	}
+
+}
@@ -0,0 +1,15 @@
+package eu.fbk.interlink.gamification.component;
+
+/**
+ * A queued game mutation has not been completed in time. It may still be
+ * applied later.
+ */
+public class GameMutationTimeoutException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public GameMutationTimeoutException(String gameId, long timeoutMs) {
+		super("Mutation of game " + gameId + " not completed in " + timeoutMs + " ms");
+	}
+
+}
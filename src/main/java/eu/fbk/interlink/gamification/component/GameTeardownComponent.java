@@ -0,0 +1,264 @@
+package eu.fbk.interlink.gamification.component;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import eu.fbk.interlink.gamification.domain.GameTeardown;
+import eu.fbk.interlink.gamification.domain.InterlinkGame;
+import eu.fbk.interlink.gamification.domain.LeaderboardEntry;
+import eu.fbk.interlink.gamification.domain.LeaderboardRollupEntry;
+import eu.fbk.interlink.gamification.domain.LeaderboardRollupScope;
+import eu.fbk.interlink.gamification.domain.LeaderboardSnapshot;
+import eu.fbk.interlink.gamification.domain.LeaderboardSnapshotEntry;
+import eu.fbk.interlink.gamification.repository.InterLinkerRepository;
+import eu.fbk.interlink.gamification.util.ControllerUtils;
+import eu.trentorise.game.repo.ChallengeConceptPersistence;
+import eu.trentorise.game.repo.NotificationPersistence;
+import eu.trentorise.game.repo.StatePersistence;
+
+/**
+ * Removes a game in background. The game is suspended at once, then the data
+ * of the core game is removed with one delete per collection, the game itself
+ * and last the player states, once no action can write them again. A
+ * teardown is run by the node holding its lease; teardowns of a node that
+ * stopped are taken over once the lease expired, every step can be repeated.
+ */
+@Component
+public class GameTeardownComponent {
+
+	private static final Logger logger = LoggerFactory.getLogger(GameTeardownComponent.class);
+
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
+	@Autowired
+	private GameComponent gameComponent;
+
+	@Autowired
+	private GameMutationQueue mutationQueue;
+
+	@Autowired
+	private InterLinkerRepository interlinkRepo;
+
+	@Autowired
+	private ApplicationEventPublisher publisher;
+
+	/**
+	 * time after which a teardown not renewed by its node is taken over
+	 */
+	@Value("${game.teardown.lease-seconds:600}")
+	private long leaseSeconds;
+
+	/**
+	 * time the status of a completed teardown can be polled before it is
+	 * removed
+	 */
+	@Value("${game.teardown.retention-minutes:60}")
+	private long retentionMinutes;
+
+	private final String node = UUID.randomUUID().toString();
+
+	private ExecutorService executor;
+
+	@PostConstruct
+	public void init() {
+		executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+			Thread t = new Thread(r, "game-teardown");
+			t.setDaemon(true);
+			return t;
+		});
+		MongoPersistentEntityIndexResolver resolver = new MongoPersistentEntityIndexResolver(
+				this.mongoTemplate.getConverter().getMappingContext());
+		IndexOperations indexOps = this.mongoTemplate.indexOps(GameTeardown.class);
+		resolver.resolveIndexFor(GameTeardown.class).forEach(indexOps::ensureIndex);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * Take over the teardowns left by a node that stopped or restarted
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	@Scheduled(initialDelayString = "${game.teardown.resume-ms:60000}", fixedDelayString = "${game.teardown.resume-ms:60000}")
+	public void resume() {
+		GameTeardown teardown;
+		while ((teardown = claim()) != null) {
+			logger.info("resuming teardown of game {}", teardown.getId());
+			GameTeardown claimed = teardown;
+			executor.execute(() -> run(claimed));
+		}
+	}
+
+	/**
+	 * @param gameId
+	 * @return status of the last teardown of the game
+	 */
+	public Optional<GameTeardown> find(String gameId) {
+		return Optional.ofNullable(this.mongoTemplate.findById(gameId, GameTeardown.class));
+	}
+
+	/**
+	 * Suspend the game and queue the removal of it, unless already running
+	 * 
+	 * @param game
+	 * @return status of the teardown
+	 */
+	public GameTeardown start(InterlinkGame game) {
+		GameTeardown teardown = new GameTeardown();
+		teardown.setId(game.getId());
+		teardown.setCoreGameId(ControllerUtils.getGameId(game.getProcessId(), game.getName()));
+		teardown.setStatus(GameTeardown.Status.DELETING);
+		teardown.setCreatedAt(new Date());
+		teardown.setOwner(node);
+		teardown.setClaimedAt(teardown.getCreatedAt());
+		try {
+			this.mongoTemplate.insert(teardown);
+		} catch (DuplicateKeyException e) {
+			// a failed teardown, or a game created again with the same id, starts over
+			Query restartable = new Query(Criteria.where("_id").is(game.getId()).and("status")
+					.ne(GameTeardown.Status.DELETING));
+			Update update = new Update().set("coreGameId", teardown.getCoreGameId())
+					.set("status", GameTeardown.Status.DELETING).set("players", 0L)
+					.set("createdAt", teardown.getCreatedAt()).set("owner", node)
+					.set("claimedAt", teardown.getCreatedAt()).unset("error").unset("completedAt")
+					.unset("expireAt");
+			GameTeardown restarted = this.mongoTemplate.findAndModify(restartable, update,
+					FindAndModifyOptions.options().returnNew(true), GameTeardown.class);
+			if (restarted == null) {
+				return find(game.getId()).orElse(teardown);
+			}
+			teardown = restarted;
+		}
+
+		suspend(game.getId());
+		GameTeardown queued = teardown;
+		executor.execute(() -> run(queued));
+		return teardown;
+	}
+
+	/**
+	 * @return a teardown not owned or whose lease expired, now owned by this
+	 *         node, null if none
+	 */
+	private GameTeardown claim() {
+		Date now = new Date();
+		Query pending = new Query(Criteria.where("status").is(GameTeardown.Status.DELETING)
+				.orOperator(Criteria.where("owner").is(null),
+						Criteria.where("claimedAt").lt(new Date(now.getTime() - leaseSeconds * 1000))));
+		return this.mongoTemplate.findAndModify(pending, new Update().set("owner", node).set("claimedAt", now),
+				FindAndModifyOptions.options().returnNew(true), GameTeardown.class);
+	}
+
+	/**
+	 * @return false if the teardown has been taken over by another node
+	 */
+	private boolean renew(GameTeardown teardown) {
+		if (update(teardown.getId(), new Update().set("claimedAt", new Date()))) {
+			return true;
+		}
+		logger.info("teardown of game {} taken over by another node", teardown.getId());
+		return false;
+	}
+
+	/**
+	 * Suspend the game after the mutations already queued
+	 */
+	private void suspend(String gameId) {
+		mutationQueue.submit(gameId, saved -> {
+			if (!saved.isPresent() || !saved.get().isActive()) {
+				return GameMutationResult.unchanged(null);
+			}
+			saved.get().setActive(false);
+			return GameMutationResult.changed(null);
+		});
+	}
+
+	private void run(GameTeardown teardown) {
+		String gameId = teardown.getCoreGameId();
+		Query byGame = new Query(Criteria.where("gameId").is(gameId));
+		try {
+			if (!renew(teardown)) {
+				return;
+			}
+			// the actions of the mutations applied before, e.g. the points of a
+			// completed task, run before the data is removed
+			suspend(teardown.getId());
+			mutationQueue.awaitAfterCommit(teardown.getId());
+			this.mongoTemplate.remove(new Query(Criteria.where("obj.gameId").is(gameId)),
+					NotificationPersistence.class);
+			this.mongoTemplate.remove(byGame, ChallengeConceptPersistence.class);
+			this.mongoTemplate.remove(byGame, LeaderboardEntry.class);
+			this.mongoTemplate.remove(byGame, LeaderboardSnapshotEntry.class);
+			this.mongoTemplate.remove(byGame, LeaderboardSnapshot.class);
+			// the cross-game leaderboards including the game are built again when read
+			List<Object> scopes = this.mongoTemplate
+					.findDistinct(new Query(Criteria.where("gameIds").is(gameId)), "_id",
+							LeaderboardRollupScope.class, Object.class);
+			if (!scopes.isEmpty()) {
+				this.mongoTemplate.remove(new Query(Criteria.where("scope").in(scopes)),
+						LeaderboardRollupEntry.class);
+				this.mongoTemplate.remove(new Query(Criteria.where("_id").in(scopes)), LeaderboardRollupScope.class);
+			}
+			if (!renew(teardown)) {
+				return;
+			}
+
+			gameComponent.deleteGameById(teardown.getId());
+			interlinkRepo.deleteGameRule(gameId);
+			// last, no action can write a player state of the removed game
+			long players = this.mongoTemplate.remove(byGame, StatePersistence.class).getDeletedCount();
+			publisher.publishEvent(new GameDeletedEvent(gameId));
+
+			Date now = new Date();
+			update(teardown.getId(), new Update().set("status", GameTeardown.Status.DELETED)
+					.set("players", players).set("completedAt", now)
+					.set("expireAt", new Date(now.getTime() + retentionMinutes * 60000)).unset("owner")
+					.unset("claimedAt"));
+			logger.info("game {} removed with {} player states", teardown.getId(), players);
+		} catch (RuntimeException e) {
+			logger.error("teardown of game {} failed", teardown.getId(), e);
+			update(teardown.getId(), new Update().set("status", GameTeardown.Status.FAILED)
+					.set("error", String.valueOf(e.getMessage())).set("completedAt", new Date()).unset("owner")
+					.unset("claimedAt"));
+		}
+	}
+
+	/**
+	 * Update the teardown while owned by this node
+	 */
+	private boolean update(String id, Update update) {
+		return this.mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(id).and("owner").is(node)),
+				update, GameTeardown.class).getMatchedCount() > 0;
+	}
+
+}
@@ -1,18 +1,29 @@
 package eu.fbk.interlink.gamification.component;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
 
+import javax.annotation.PostConstruct;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.stereotype.Component;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
 import eu.fbk.interlink.gamification.domain.InterlinkGame;
 import eu.fbk.interlink.gamification.domain.InterlinkGameTemplate;
 import eu.fbk.interlink.gamification.repository.GameTemplateRepository;
 import eu.fbk.interlink.gamification.util.JsonDB;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 
 @Component
 public class GameTemplateComponent {
@@ -22,10 +33,28 @@ public class GameTemplateComponent {
 	@Autowired
 	private GameTemplateRepository gameTemplateRepository;
 
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
 	@Lazy
 	@Autowired
 	private JsonDB jsonDB;
 
+	@Value("${game.cache.max-size:1000}")
+	private long cacheMaxSize;
+
+	@Value("${game.cache.ttl-seconds:60}")
+	private long cacheTtlSeconds;
+
+	private Cache<String, InterlinkGameTemplate> templatesById;
+
+	@PostConstruct
+	public void initCache() {
+		this.templatesById = Caffeine.newBuilder().maximumSize(cacheMaxSize)
+				.expireAfterWrite(Duration.ofSeconds(cacheTtlSeconds)).recordStats().build();
+		CaffeineCacheMetrics.monitor(Metrics.globalRegistry, this.templatesById, "interlink.templates.byId");
+	}
+
 	public List<InterlinkGameTemplate> findAll() {
 		return this.gameTemplateRepository.findAll();
 
@@ -33,7 +62,14 @@ public class GameTemplateComponent {
 
 	public Optional<InterlinkGameTemplate> findById(String id) {
 		logger.info("findById - " + id);
-		return this.gameTemplateRepository.findById(id);
+		InterlinkGameTemplate template = this.templatesById.getIfPresent(id);
+		if (template == null) {
+			template = this.gameTemplateRepository.findById(id).orElse(null);
+			if (template != null) {
+				this.templatesById.put(id, template);
+			}
+		}
+		return Optional.ofNullable(template);
 
 	}
 
@@ -48,17 +84,43 @@ public class GameTemplateComponent {
 	}
 
 	public InterlinkGame saveOrUpdateGame(InterlinkGameTemplate gametemplate) {
-		return this.gameTemplateRepository.save(gametemplate);
+		try {
+			return this.gameTemplateRepository.save(gametemplate);
+		} finally {
+			if (gametemplate.getId() != null) {
+				this.templatesById.invalidate(gametemplate.getId());
+			}
+		}
 
 	}
 
 	public void refresh() throws Exception {
-		jsonDB.importGameTemplateDB();
+		try {
+			jsonDB.importGameTemplateDB();
+		} finally {
+			this.templatesById.invalidateAll();
+		}
 	}
 	// GameTemplate saveOrUpdateGame(Game game);
 
 	public void deleteById(String gametempleteId) {
 		this.gameTemplateRepository.deleteById(gametempleteId);
+		this.templatesById.invalidate(gametempleteId);
+	}
+
+	/**
+	 * Evict templates changed by other nodes
+	 */
+	@EventListener
+	public void onCollectionChanged(CollectionChangedEvent event) {
+		if (!this.mongoTemplate.getCollectionName(InterlinkGameTemplate.class).equals(event.getCollection())) {
+			return;
+		}
+		if (event.isWholeCollection()) {
+			this.templatesById.invalidateAll();
+		} else {
+			this.templatesById.invalidate(event.getId());
+		}
 	}
 
 }
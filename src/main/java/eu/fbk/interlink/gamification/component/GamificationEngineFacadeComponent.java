@@ -7,7 +7,9 @@ import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Lazy;
+import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.stereotype.Component;
 
 import eu.fbk.interlink.gamification.domain.InterlinkGameTemplate;
@@ -18,6 +20,7 @@ import eu.fbk.interlink.gamification.util.JsonDB;
 import eu.trentorise.game.managers.NotificationManager;
 import eu.trentorise.game.model.GameStatistics;
 import eu.trentorise.game.model.PlayerState;
+import eu.trentorise.game.repo.GamePersistence;
 import eu.trentorise.game.repo.RuleRepo;
 import eu.trentorise.game.services.GameService;
 import eu.trentorise.game.services.PlayerService;
@@ -46,6 +49,15 @@ public class GamificationEngineFacadeComponent {
 	@Autowired
 	RuleRepo ruleRepo;
 
+	@Autowired
+	LeaderboardIndexComponent leaderboardIndexes;
+
+	@Autowired
+	ApplicationEventPublisher publisher;
+
+	@Autowired
+	MongoTemplate mongoTemplate;
+
 	@Lazy
 	@Autowired
 	private JsonDB jsonDB;
@@ -64,6 +76,9 @@ public class GamificationEngineFacadeComponent {
 		String user = identityLookup.getName();
 
 		this.jsonDB.importGameDB(this.getGameId(processId, template.getName()), template.getFilename());
+		this.leaderboardIndexes.ensureIndexes(this.getGameId(processId, template.getName()));
+		publisher.publishEvent(new CollectionChangedEvent(mongoTemplate.getCollectionName(GamePersistence.class),
+				this.getGameId(processId, template.getName())));
 
 	}
 
@@ -107,6 +122,7 @@ public class GamificationEngineFacadeComponent {
 		}
 
 		workflow.apply(getGameId(processId, name), action, player.getId(), data, null);
+		publishStateChanged(getGameId(processId, name), player.getId());
 
 	}
 
@@ -122,18 +138,6 @@ public class GamificationEngineFacadeComponent {
 		return this.playerSrv.loadState(getGameId(processId, name), playerId, false, false, false);
 	}
 
-	/**
-	 * return the list of the player in a game
-	 * 
-	 * @param processId
-	 * @param name
-	 * @return
-	 */
-	public List<String> getPlayers(String processId, String name) {
-		// TODO Auto-generated method stub
-		return this.playerSrv.readPlayers(getGameId(processId, name));
-	}
-
 	/**
 	 * Return game statistic
 	 * 
@@ -154,6 +158,20 @@ public class GamificationEngineFacadeComponent {
 	 */
 	public void deletePlayerState(String processId, String name, String playerId) {
 	    this.playerSrv.deleteState(getGameId(processId, name), playerId);	
+	    publishStateChanged(getGameId(processId, name), playerId);
+	}
+
+	/**
+	 * Update the data derived from the player state. The state is already
+	 * saved, a failure of a listener is logged and does not fail the action:
+	 * the leaderboards are repaired by a rebuild.
+	 */
+	private void publishStateChanged(String gameId, String playerId) {
+		try {
+			publisher.publishEvent(new PlayerStateChangedEvent(gameId, playerId));
+		} catch (RuntimeException e) {
+			logger.error("data derived from the state of player {} in game {} not updated", playerId, gameId, e);
+		}
 	}
 	
 
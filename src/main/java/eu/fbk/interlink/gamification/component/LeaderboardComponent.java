@@ -0,0 +1,421 @@
+package eu.fbk.interlink.gamification.component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import javax.annotation.PostConstruct;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.support.PageableExecutionUtils;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+
+import eu.fbk.interlink.gamification.domain.LeaderboardEntry;
+import eu.fbk.interlink.gamification.domain.PlayerRank;
+import eu.fbk.interlink.gamification.domain.PlayerScore;
+import eu.trentorise.game.repo.StatePersistence;
+
+/**
+ * Keeps the leaderboard collection, one row per game, point concept, period
+ * instance and player, in sync with the player states. Rows are updated after
+ * every action of a player, so that leaderboard pages are read straight from
+ * an index instead of sorting the player states. Enabled with
+ * game.leaderboard.materialized=true.
+ */
+@Component
+public class LeaderboardComponent {
+
+	private static final Logger logger = LoggerFactory.getLogger(LeaderboardComponent.class);
+
+	private static final int DUPLICATE_KEY = 11000;
+
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
+	@Autowired
+	private ApplicationEventPublisher publisher;
+
+	@Value("${game.leaderboard.materialized:false}")
+	private boolean enabled;
+
+	@Value("${game.leaderboard.rebuild-batch-size:1000}")
+	private int batchSize;
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@PostConstruct
+	public void ensureIndexes() {
+		if (!enabled) {
+			return;
+		}
+		IndexOperations indexOps = this.mongoTemplate.indexOps(LeaderboardEntry.class);
+		new MongoPersistentEntityIndexResolver(this.mongoTemplate.getConverter().getMappingContext())
+				.resolveIndexFor(LeaderboardEntry.class).forEach(indexOps::ensureIndex);
+	}
+
+	/**
+	 * The first start with the leaderboard enabled fills it from the player
+	 * states
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public void rebuildIfEmpty() {
+		if (enabled && !this.mongoTemplate.exists(new Query(), LeaderboardEntry.class)) {
+			rebuildAll();
+		}
+	}
+
+	@EventListener
+	public void onPlayerStateChanged(PlayerStateChangedEvent event) {
+		if (enabled) {
+			update(event.getGameId(), event.getPlayerId());
+		}
+	}
+
+	/**
+	 * Update the rows of a player from the player state: the global score and
+	 * the latest instance of each period of every point concept. The rows of a
+	 * deleted player state are removed.
+	 * 
+	 * @param gameId   core game id
+	 * @param playerId
+	 */
+	public void update(String gameId, String playerId) {
+		Optional<List<LeaderboardEntry>> scores = readScores(gameId, playerId);
+		if (scores.isEmpty()) {
+			Query rows = new Query(Criteria.where("gameId").is(gameId).and("playerId").is(playerId));
+			for (LeaderboardEntry removed : this.mongoTemplate.findAllAndRemove(rows, LeaderboardEntry.class)) {
+				publisher.publishEvent(new LeaderboardScoreChangedEvent(gameId, removed.getPointConcept(),
+						removed.getPeriod(), removed.getPeriodKey(), playerId, removed.getScore(), null));
+			}
+			return;
+		}
+		for (LeaderboardEntry score : scores.get()) {
+			Query row = row(gameId, score.getPointConcept(), score.getPeriod(), score.getPeriodKey())
+					.addCriteria(Criteria.where("playerId").is(playerId));
+			LeaderboardEntry old = this.mongoTemplate.findAndModify(row, new Update().set("score", score.getScore()),
+					FindAndModifyOptions.options().upsert(true).returnNew(false), LeaderboardEntry.class);
+			Double oldScore = old != null ? old.getScore() : null;
+			if (!Objects.equals(oldScore, score.getScore())) {
+				publisher.publishEvent(new LeaderboardScoreChangedEvent(gameId, score.getPointConcept(),
+						score.getPeriod(), score.getPeriodKey(), playerId, oldScore, score.getScore()));
+			}
+		}
+	}
+
+	/**
+	 * Fill again the leaderboard of every game from the player states
+	 */
+	public void rebuildAll() {
+		for (String gameId : findGameIds()) {
+			rebuild(gameId);
+		}
+	}
+
+	/**
+	 * Fill again the leaderboard of a game from the player states, with every
+	 * period instance stored
+	 * 
+	 * @param gameId core game id
+	 * @return number of rows written
+	 */
+	public long rebuild(String gameId) {
+		this.mongoTemplate.remove(new Query(Criteria.where("gameId").is(gameId)), LeaderboardEntry.class);
+		long written = 0;
+		List<LeaderboardEntry> pending = new ArrayList<LeaderboardEntry>();
+		for (Document state : readStates(gameId)) {
+			pending.addAll(scores(gameId, state, true));
+			if (pending.size() >= batchSize) {
+				written += insert(pending);
+				pending.clear();
+			}
+		}
+		written += insert(pending);
+		logger.info("leaderboard of game {} rebuilt with {} rows", gameId, written);
+		return written;
+	}
+
+	/**
+	 * Read the current scores of a player: the global score and the latest
+	 * instance of each period of every point concept
+	 * 
+	 * @param gameId   core game id
+	 * @param playerId
+	 * @return the scores, empty if the player state is not present
+	 */
+	public Optional<List<LeaderboardEntry>> readScores(String gameId, String playerId) {
+		Document state = this.mongoTemplate.getCollection(stateCollection())
+				.find(Filters.and(Filters.eq("gameId", gameId), Filters.eq("playerId", playerId)))
+				.projection(Projections.include("playerId", "concepts.PointConcept")).first();
+		return state != null ? Optional.of(scores(gameId, state, false)) : Optional.empty();
+	}
+
+	/**
+	 * Read the current scores of the player of a player state document
+	 * 
+	 * @param stateId id of the player state document
+	 * @return the scores, empty if the player state is not present
+	 */
+	public Optional<List<LeaderboardEntry>> readScoresByStateId(String stateId) {
+		Object id = ObjectId.isValid(stateId) ? new ObjectId(stateId) : stateId;
+		Document state = this.mongoTemplate.getCollection(stateCollection()).find(Filters.eq("_id", id))
+				.projection(Projections.include("gameId", "playerId", "concepts.PointConcept")).first();
+		return state != null ? Optional.of(scores(state.getString("gameId"), state, false)) : Optional.empty();
+	}
+
+	/**
+	 * @param collection
+	 * @return true if it is the collection of the player states
+	 */
+	public boolean isStateCollection(String collection) {
+		return stateCollection().equals(collection);
+	}
+
+	/**
+	 * Read the scores of every player of a game, with every period instance
+	 * stored
+	 * 
+	 * @param gameId   core game id
+	 * @param consumer receives the scores of one player at a time
+	 */
+	public void readAllScores(String gameId, Consumer<List<LeaderboardEntry>> consumer) {
+		for (Document state : readStates(gameId)) {
+			consumer.accept(scores(gameId, state, true));
+		}
+	}
+
+	/**
+	 * @return core ids of the games with at least a player
+	 */
+	public List<String> findGameIds() {
+		return this.mongoTemplate.findDistinct(new Query(), "gameId", StatePersistence.class, String.class);
+	}
+
+	private Iterable<Document> readStates(String gameId) {
+		return this.mongoTemplate.getCollection(stateCollection()).find(Filters.eq("gameId", gameId))
+				.projection(Projections.include("playerId", "concepts.PointConcept")).batchSize(batchSize);
+	}
+
+	/**
+	 * Read a page of a leaderboard sorted by score, the same way of the player
+	 * search
+	 * 
+	 * @param gameId        core game id
+	 * @param pointConcept
+	 * @param period        period name, or global
+	 * @param periodKey     key of the period instance, or global
+	 * @param pageable
+	 * @param afterScore    score of the last player of the previous page
+	 * @param afterPlayerId id of the last player of the previous page
+	 * @return players of the page
+	 */
+	public Page<PlayerScore> search(String gameId, String pointConcept, String period, String periodKey,
+			Pageable pageable, Double afterScore, String afterPlayerId) {
+		Query q = row(gameId, pointConcept, period, periodKey);
+		Query count = Query.of(q);
+		q.fields().include("playerId").include("score");
+		q.with(Sort.by(Sort.Order.desc("score"), Sort.Order.asc("playerId")));
+		boolean keyset = afterScore != null || afterPlayerId != null;
+		if (keyset) {
+			// every row has a score, nothing is sorted after a player without score
+			double score = afterScore != null ? afterScore : Double.NEGATIVE_INFINITY;
+			String playerId = afterPlayerId != null ? afterPlayerId : "";
+			q.addCriteria(new Criteria().orOperator(Criteria.where("score").lt(score),
+					Criteria.where("score").is(score).and("playerId").gt(playerId)));
+		}
+		if (pageable.isPaged()) {
+			if (!keyset) {
+				q.skip(pageable.getOffset());
+			}
+			q.limit(pageable.getPageSize());
+		}
+		List<PlayerScore> result = new ArrayList<PlayerScore>();
+		for (LeaderboardEntry entry : this.mongoTemplate.find(q, LeaderboardEntry.class)) {
+			result.add(toPlayerScore(entry));
+		}
+		if (keyset) {
+			// the offset of a keyset page is unknown, the total can not be inferred
+			return new PageImpl<>(result, pageable, this.mongoTemplate.count(count, LeaderboardEntry.class));
+		}
+		return PageableExecutionUtils.getPage(result, pageable,
+				() -> this.mongoTemplate.count(count, LeaderboardEntry.class));
+	}
+
+	/**
+	 * Rank of a player with the players right above and below. The rank is
+	 * counted on the leaderboard index, the neighbours are read with two bounded
+	 * range queries.
+	 * 
+	 * @param gameId       core game id
+	 * @param pointConcept
+	 * @param period       period name, or global
+	 * @param periodKey    key of the period instance, or global
+	 * @param playerId
+	 * @param neighbours   number of players read above and below
+	 * @return the rank, empty if the player has no score
+	 */
+	public Optional<PlayerRank> rank(String gameId, String pointConcept, String period, String periodKey,
+			String playerId, int neighbours) {
+		LeaderboardEntry own = this.mongoTemplate.findOne(
+				row(gameId, pointConcept, period, periodKey).addCriteria(Criteria.where("playerId").is(playerId)),
+				LeaderboardEntry.class);
+		if (own == null) {
+			return Optional.empty();
+		}
+		Criteria before = new Criteria().orOperator(Criteria.where("score").gt(own.getScore()),
+				Criteria.where("score").is(own.getScore()).and("playerId").lt(playerId));
+		Criteria after = new Criteria().orOperator(Criteria.where("score").lt(own.getScore()),
+				Criteria.where("score").is(own.getScore()).and("playerId").gt(playerId));
+
+		PlayerRank rank = new PlayerRank();
+		rank.setPlayerId(playerId);
+		rank.setScore(own.getScore());
+		rank.setRank(this.mongoTemplate.count(row(gameId, pointConcept, period, periodKey).addCriteria(before),
+				LeaderboardEntry.class) + 1);
+		rank.setTotal(this.mongoTemplate.count(row(gameId, pointConcept, period, periodKey), LeaderboardEntry.class));
+		// a limit of 0 would read the whole leaderboard
+		if (neighbours <= 0) {
+			return Optional.of(rank);
+		}
+		Query above = row(gameId, pointConcept, period, periodKey).addCriteria(before)
+				.with(Sort.by(Sort.Order.asc("score"), Sort.Order.desc("playerId"))).limit(neighbours);
+		for (LeaderboardEntry entry : this.mongoTemplate.find(above, LeaderboardEntry.class)) {
+			rank.getAbove().add(0, toPlayerScore(entry));
+		}
+		Query below = row(gameId, pointConcept, period, periodKey).addCriteria(after)
+				.with(Sort.by(Sort.Order.desc("score"), Sort.Order.asc("playerId"))).limit(neighbours);
+		for (LeaderboardEntry entry : this.mongoTemplate.find(below, LeaderboardEntry.class)) {
+			rank.getBelow().add(toPlayerScore(entry));
+		}
+		return Optional.of(rank);
+	}
+
+	private static PlayerScore toPlayerScore(LeaderboardEntry entry) {
+		PlayerScore score = new PlayerScore();
+		score.setPlayerId(entry.getPlayerId());
+		score.setScore(entry.getScore());
+		return score;
+	}
+
+	private Query row(String gameId, String pointConcept, String period, String periodKey) {
+		return new Query(Criteria.where("gameId").is(gameId).and("pointConcept").is(pointConcept).and("period")
+				.is(period).and("periodKey").is(periodKey));
+	}
+
+	/**
+	 * Rows written by live updates in the meantime are newer, duplicates are
+	 * skipped
+	 */
+	private long insert(List<LeaderboardEntry> entries) {
+		if (entries.isEmpty()) {
+			return 0;
+		}
+		BulkOperations bulk = this.mongoTemplate.bulkOps(BulkMode.UNORDERED, LeaderboardEntry.class);
+		bulk.insert(entries);
+		try {
+			return bulk.execute().getInsertedCount();
+		} catch (BulkOperationException e) {
+			if (e.getErrors().stream().anyMatch(error -> error.getCode() != DUPLICATE_KEY)) {
+				throw e;
+			}
+			return e.getResult().getInsertedCount();
+		} catch (DuplicateKeyException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Scores of a player state document, read as stored by the engine:
+	 * concepts.PointConcept.{name}.obj.score for the global score and
+	 * obj.periods.{period}.instances.{key}.score for the period instances.
+	 * 
+	 * @param allInstances false to read only the latest instance of each period
+	 */
+	@SuppressWarnings("unchecked")
+	static List<LeaderboardEntry> scores(String gameId, Document state, boolean allInstances) {
+		List<LeaderboardEntry> scores = new ArrayList<LeaderboardEntry>();
+		String playerId = state.getString("playerId");
+		Document concepts = state.get("concepts", Document.class);
+		Document pointConcepts = concepts != null ? concepts.get("PointConcept", Document.class) : null;
+		if (pointConcepts == null) {
+			return scores;
+		}
+		for (String pcName : pointConcepts.keySet()) {
+			Document obj = ((Document) pointConcepts.get(pcName)).get("obj", Document.class);
+			if (obj == null) {
+				continue;
+			}
+			if (obj.get("score") instanceof Number) {
+				scores.add(entry(gameId, pcName, LeaderboardEntry.GLOBAL, LeaderboardEntry.GLOBAL, playerId,
+						((Number) obj.get("score")).doubleValue()));
+			}
+			Document periods = obj.get("periods", Document.class);
+			if (periods == null) {
+				continue;
+			}
+			for (String period : periods.keySet()) {
+				Document instances = ((Document) periods.get(period)).get("instances", Document.class);
+				if (instances == null || instances.isEmpty()) {
+					continue;
+				}
+				// keys are ISO dates, the latest instance has the greatest key
+				Iterable<String> keys = allInstances ? instances.keySet()
+						: List.of(instances.keySet().stream().max(String::compareTo).get());
+				for (String key : keys) {
+					Object score = ((Map<String, Object>) instances.get(key)).get("score");
+					if (score instanceof Number) {
+						scores.add(entry(gameId, pcName, period, key, playerId, ((Number) score).doubleValue()));
+					}
+				}
+			}
+		}
+		return scores;
+	}
+
+	private static LeaderboardEntry entry(String gameId, String pointConcept, String period, String periodKey,
+			String playerId, double score) {
+		LeaderboardEntry entry = new LeaderboardEntry();
+		entry.setGameId(gameId);
+		entry.setPointConcept(pointConcept);
+		entry.setPeriod(period);
+		entry.setPeriodKey(periodKey);
+		entry.setPlayerId(playerId);
+		entry.setScore(score);
+		return entry;
+	}
+
+	private String stateCollection() {
+		return this.mongoTemplate.getCollectionName(StatePersistence.class);
+	}
+
+}
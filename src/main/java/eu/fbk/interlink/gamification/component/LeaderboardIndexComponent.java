@@ -0,0 +1,233 @@
+package eu.fbk.interlink.gamification.component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import javax.annotation.PostConstruct;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import eu.trentorise.game.managers.ClassificationUtils;
+import eu.trentorise.game.model.Game;
+import eu.trentorise.game.model.PointConcept;
+import eu.trentorise.game.model.PointConcept.PeriodInstance;
+import eu.trentorise.game.model.core.GameConcept;
+import eu.trentorise.game.repo.GamePersistence;
+import eu.trentorise.game.repo.GameRepo;
+import eu.trentorise.game.repo.StatePersistence;
+
+/**
+ * Creates the playerState indexes backing the leaderboard sorts: one index
+ * (gameId, score, playerId) for the global score of each point concept and one
+ * for each of the previous, current and next instance of its periods. Indexes
+ * are shared by games with the same point concept and period keys. Period
+ * indexes are rolled forward before each period boundary and dropped when no
+ * game needs them anymore. Mongo allows 64 indexes per collection, the
+ * leaderboard indexes are capped: global scores come first, then the current,
+ * next and previous instances; leaderboards left out are sorted without an
+ * index. The (gameId, playerId) index backs the player listing.
+ */
+@Component
+public class LeaderboardIndexComponent {
+
+	private static final Logger logger = LoggerFactory.getLogger(LeaderboardIndexComponent.class);
+
+	static final String INDEX_PREFIX = "lb_";
+
+	/**
+	 * backs the player listing, not dropped with the leaderboard indexes
+	 */
+	static final String PLAYER_INDEX = "state_game_player";
+
+	private static final int MONGO_MAX_INDEXES = 64;
+
+	/**
+	 * global, current, next and previous instance
+	 */
+	private static final int TIERS = 4;
+
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
+	@Autowired
+	private GameRepo gameRepo;
+
+	@Value("${game.leaderboard.max-indexes:40}")
+	private int maxIndexes;
+
+	@PostConstruct
+	public void ensurePlayerIndex() {
+		mongoTemplate.indexOps(StatePersistence.class).ensureIndex(
+				new Index().on("gameId", Sort.Direction.ASC).on("playerId", Sort.Direction.ASC).named(PLAYER_INDEX));
+	}
+
+	/**
+	 * Create the indexes needed by a game, e.g. right after its creation
+	 * 
+	 * @param gameId
+	 */
+	public void ensureIndexes(String gameId) {
+		Optional<GamePersistence> game = gameRepo.findById(gameId);
+		if (game.isPresent()) {
+			IndexOperations indexOps = mongoTemplate.indexOps(StatePersistence.class);
+			List<IndexInfo> existing = indexOps.getIndexInfo();
+			long leaderboardIndexes = existing.stream().filter(i -> i.getName().startsWith(INDEX_PREFIX)).count();
+			long available = budget(existing) - leaderboardIndexes;
+			for (Map.Entry<String, String> index : merge(neededIndexes(game.get().toGame(), System.currentTimeMillis()))
+					.entrySet()) {
+				boolean present = existing.stream().anyMatch(i -> i.getName().equals(index.getKey()));
+				if (!present && available-- <= 0) {
+					logger.warn("leaderboard index limit reached, {} not created", index.getKey());
+					break;
+				}
+				ensureIndex(indexOps, index.getKey(), index.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Create the indexes of the next period instances and drop the indexes no
+	 * game needs anymore
+	 */
+	@Scheduled(cron = "${game.leaderboard.index-refresh-cron:0 0 * * * *}")
+	public void refreshIndexes() {
+		long now = System.currentTimeMillis();
+		List<Map<String, String>> tiers = tiers();
+		for (GamePersistence game : gameRepo.findAll()) {
+			List<Map<String, String>> gameTiers = neededIndexes(game.toGame(), now);
+			for (int i = 0; i < TIERS; i++) {
+				tiers.get(i).putAll(gameTiers.get(i));
+			}
+		}
+		IndexOperations indexOps = mongoTemplate.indexOps(StatePersistence.class);
+		Map<String, String> needed = merge(tiers);
+		int budget = budget(indexOps.getIndexInfo());
+		if (needed.size() > budget) {
+			logger.warn("{} leaderboard indexes needed, only the first {} are kept", needed.size(), budget);
+		}
+		Map<String, String> kept = new LinkedHashMap<String, String>();
+		needed.entrySet().stream().limit(Math.max(budget, 0)).forEach(e -> kept.put(e.getKey(), e.getValue()));
+		// stale indexes are dropped first, to make room for the new ones
+		for (IndexInfo index : indexOps.getIndexInfo()) {
+			if (index.getName().startsWith(INDEX_PREFIX) && !kept.containsKey(index.getName())) {
+				logger.info("dropping stale leaderboard index {}", index.getName());
+				indexOps.dropIndex(index.getName());
+			}
+		}
+		kept.forEach((name, path) -> ensureIndex(indexOps, name, path));
+	}
+
+	/**
+	 * Usage of the leaderboard indexes since their creation or the last restart
+	 * of Mongo
+	 * 
+	 * @return name, accesses and start of counting of each index
+	 */
+	public List<Map<String, Object>> indexUsage() {
+		List<Map<String, Object>> usage = new ArrayList<Map<String, Object>>();
+		List<Document> pipeline = new ArrayList<Document>();
+		pipeline.add(new Document("$indexStats", new Document()));
+		for (Document stats : mongoTemplate.getCollection(mongoTemplate.getCollectionName(StatePersistence.class))
+				.aggregate(pipeline)) {
+			String name = stats.getString("name");
+			if (name != null && name.startsWith(INDEX_PREFIX)) {
+				Document accesses = stats.get("accesses", Document.class);
+				Map<String, Object> entry = new LinkedHashMap<String, Object>();
+				entry.put("name", name);
+				entry.put("key", stats.get("key"));
+				entry.put("ops", accesses != null ? accesses.get("ops") : null);
+				entry.put("since", accesses != null ? accesses.get("since") : null);
+				usage.add(entry);
+			}
+		}
+		return usage;
+	}
+
+	/**
+	 * @return leaderboard indexes allowed beside the other indexes of the
+	 *         collection
+	 */
+	private int budget(List<IndexInfo> existing) {
+		long others = existing.stream().filter(i -> !i.getName().startsWith(INDEX_PREFIX)).count();
+		return (int) Math.min(maxIndexes, MONGO_MAX_INDEXES - others);
+	}
+
+	private static List<Map<String, String>> tiers() {
+		List<Map<String, String>> tiers = new ArrayList<Map<String, String>>();
+		for (int i = 0; i < TIERS; i++) {
+			tiers.add(new LinkedHashMap<String, String>());
+		}
+		return tiers;
+	}
+
+	private static Map<String, String> merge(List<Map<String, String>> tiers) {
+		Map<String, String> merged = new LinkedHashMap<String, String>();
+		tiers.forEach(merged::putAll);
+		return merged;
+	}
+
+	/**
+	 * @return score paths by index name, for the global score and the current,
+	 *         next and previous instances
+	 */
+	private List<Map<String, String>> neededIndexes(Game game, long moment) {
+		List<Map<String, String>> indexes = tiers();
+		if (game == null || game.getConcepts() == null) {
+			return indexes;
+		}
+		for (GameConcept concept : game.getConcepts()) {
+			if (!(concept instanceof PointConcept)) {
+				continue;
+			}
+			PointConcept pc = (PointConcept) concept;
+			String pcPath = "concepts.PointConcept." + pc.getName() + ".obj";
+			indexes.get(0).put(INDEX_PREFIX + pc.getName() + "_global", pcPath + ".score");
+			if (pc.getPeriods() == null) {
+				continue;
+			}
+			for (String period : pc.getPeriods().keySet()) {
+				PeriodInstance current = ClassificationUtils.retrieveWindow(game, period, pc.getName(), moment, -1);
+				if (current == null) {
+					continue;
+				}
+				List<PeriodInstance> instances = new ArrayList<PeriodInstance>();
+				instances.add(current);
+				instances.add(ClassificationUtils.retrieveWindow(game, period, pc.getName(), current.getEnd() + 1, -1));
+				instances.add(ClassificationUtils.retrieveWindow(game, period, pc.getName(), current.getStart() - 1, -1));
+				for (int i = 0; i < instances.size(); i++) {
+					PeriodInstance instance = instances.get(i);
+					if (instance != null) {
+						String key = ClassificationUtils.generateKey(instance);
+						indexes.get(i + 1).put(INDEX_PREFIX + pc.getName() + "_" + period + "_" + key,
+								pcPath + ".periods." + period + ".instances." + key + ".score");
+					}
+				}
+			}
+		}
+		return indexes;
+	}
+
+	private void ensureIndex(IndexOperations indexOps, String name, String scorePath) {
+		try {
+			indexOps.ensureIndex(new Index().on("gameId", Sort.Direction.ASC).on(scorePath, Sort.Direction.DESC)
+					.on("playerId", Sort.Direction.ASC).named(name).background());
+		} catch (RuntimeException e) {
+			logger.warn("leaderboard index {} not created: {}", name, e.getMessage());
+		}
+	}
+
+}
@@ -0,0 +1,346 @@
+package eu.fbk.interlink.gamification.component;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.support.PageableExecutionUtils;
+import org.springframework.stereotype.Component;
+
+import eu.fbk.interlink.gamification.domain.LeaderboardEntry;
+import eu.fbk.interlink.gamification.domain.LeaderboardRollupEntry;
+import eu.fbk.interlink.gamification.domain.LeaderboardRollupScope;
+import eu.fbk.interlink.gamification.domain.PlayerScore;
+
+/**
+ * Sums the materialized leaderboards of the games of a process or of a tag,
+ * so that cross-game leaderboards are read from an index. A scope is built
+ * from the leaderboard collection the first time it is read, or again when
+ * its games change, and then kept in sync with every score change of its
+ * games. A scope is built by one node at a time, holding a lease on it.
+ * Enabled with game.leaderboard.materialized=true and
+ * game.leaderboard.rollup.enabled=true.
+ */
+@Component
+public class LeaderboardRollupComponent {
+
+	private static final Logger logger = LoggerFactory.getLogger(LeaderboardRollupComponent.class);
+
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
+	@Autowired
+	private LeaderboardComponent leaderboard;
+
+	@Value("${game.leaderboard.rollup.enabled:false}")
+	private boolean enabled;
+
+	/**
+	 * scopes are built again after this time, to catch up with score changes
+	 * happened while they were built
+	 */
+	@Value("${game.leaderboard.rollup.max-age-minutes:1440}")
+	private long maxAgeMinutes;
+
+	/**
+	 * time after which the lease of a scope not built yet is taken over by
+	 * another node, renewed at every batch of rows
+	 */
+	@Value("${game.leaderboard.rollup.lease-seconds:300}")
+	private long leaseSeconds;
+
+	/**
+	 * builds of a scope changed while it was being built, before it is served
+	 * as it is and built again at the next read
+	 */
+	@Value("${game.leaderboard.rollup.max-builds:3}")
+	private int maxBuilds;
+
+	@Value("${game.leaderboard.rebuild-batch-size:1000}")
+	private int batchSize;
+
+	/**
+	 * scopes queued or being built on this node, the lease in the scope keeps
+	 * out the other nodes
+	 */
+	private final Set<String> building = ConcurrentHashMap.newKeySet();
+
+	private ExecutorService executor;
+
+	public boolean isEnabled() {
+		return enabled && leaderboard.isEnabled();
+	}
+
+	@PostConstruct
+	public void init() {
+		executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+			Thread t = new Thread(r, "leaderboard-rollup");
+			t.setDaemon(true);
+			return t;
+		});
+		if (!isEnabled()) {
+			return;
+		}
+		MongoPersistentEntityIndexResolver resolver = new MongoPersistentEntityIndexResolver(
+				this.mongoTemplate.getConverter().getMappingContext());
+		IndexOperations indexOps = this.mongoTemplate.indexOps(LeaderboardRollupEntry.class);
+		resolver.resolveIndexFor(LeaderboardRollupEntry.class).forEach(indexOps::ensureIndex);
+		IndexOperations scopeIndexOps = this.mongoTemplate.indexOps(LeaderboardRollupScope.class);
+		resolver.resolveIndexFor(LeaderboardRollupScope.class).forEach(scopeIndexOps::ensureIndex);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * Apply the change of a score to the scopes including the game, the scopes
+	 * being built are marked to be built again
+	 */
+	@EventListener
+	public void onLeaderboardScoreChanged(LeaderboardScoreChangedEvent event) {
+		if (!isEnabled()) {
+			return;
+		}
+		this.mongoTemplate.updateMulti(
+				new Query(Criteria.where("gameIds").is(event.getGameId()).and("complete").is(false)),
+				new Update().set("dirty", true), LeaderboardRollupScope.class);
+		double delta = (event.getNewScore() != null ? event.getNewScore() : 0)
+				- (event.getOldScore() != null ? event.getOldScore() : 0);
+		int games = (event.getOldScore() == null ? 1 : 0) - (event.getNewScore() == null ? 1 : 0);
+		Query scopes = new Query(Criteria.where("gameIds").is(event.getGameId()).and("complete").is(true));
+		scopes.fields().include("_id");
+		for (LeaderboardRollupScope scope : this.mongoTemplate.find(scopes, LeaderboardRollupScope.class)) {
+			Query row = row(scope.getId(), event.getPointConcept(), event.getPeriod(), event.getPeriodKey())
+					.addCriteria(Criteria.where("playerId").is(event.getPlayerId()));
+			LeaderboardRollupEntry updated = this.mongoTemplate.findAndModify(row,
+					new Update().inc("score", delta).inc("games", games),
+					FindAndModifyOptions.options().upsert(true).returnNew(true), LeaderboardRollupEntry.class);
+			if (updated != null && updated.getGames() <= 0) {
+				this.mongoTemplate.remove(row.addCriteria(Criteria.where("games").lte(0)),
+						LeaderboardRollupEntry.class);
+			}
+		}
+	}
+
+	/**
+	 * Read a page of a cross-game leaderboard sorted by score, the same way of
+	 * the player search. A scope not built yet, or built for other games, is
+	 * queued to be built and not served. A scope older than the max age is
+	 * queued to be built again.
+	 * 
+	 * @param scope         id of the scope
+	 * @param gameIds       core game ids of the scope
+	 * @param pointConcept
+	 * @param period        period name, or global
+	 * @param periodKey     key of the period instance, or global
+	 * @param pageable
+	 * @param afterScore    score of the last player of the previous page
+	 * @param afterPlayerId id of the last player of the previous page
+	 * @return players of the page, empty if the scope is not ready
+	 */
+	public Optional<Page<PlayerScore>> search(String scope, List<String> gameIds, String pointConcept,
+			String period, String periodKey, Pageable pageable, Double afterScore, String afterPlayerId) {
+		if (!isEnabled()) {
+			return Optional.empty();
+		}
+		List<String> sorted = new ArrayList<String>(gameIds);
+		sorted.sort(null);
+		LeaderboardRollupScope current = this.mongoTemplate.findById(scope, LeaderboardRollupScope.class);
+		boolean ready = current != null && current.isComplete() && sorted.equals(current.getGameIds());
+		boolean old = ready && current.getBuiltAt() != null
+				&& current.getBuiltAt().getTime() < System.currentTimeMillis() - maxAgeMinutes * 60000;
+		if ((!ready || old) && building.add(scope)) {
+			executor.execute(() -> {
+				try {
+					rebuild(scope, sorted);
+				} catch (RuntimeException e) {
+					logger.error("rollup of {} failed", scope, e);
+				} finally {
+					building.remove(scope);
+				}
+			});
+		}
+		if (!ready) {
+			return Optional.empty();
+		}
+
+		Query q = row(scope, pointConcept, period, periodKey);
+		Query count = Query.of(q);
+		q.fields().include("playerId").include("score");
+		q.with(Sort.by(Sort.Order.desc("score"), Sort.Order.asc("playerId")));
+		boolean keyset = afterScore != null || afterPlayerId != null;
+		if (keyset) {
+			double score = afterScore != null ? afterScore : Double.NEGATIVE_INFINITY;
+			String playerId = afterPlayerId != null ? afterPlayerId : "";
+			q.addCriteria(new Criteria().orOperator(Criteria.where("score").lt(score),
+					Criteria.where("score").is(score).and("playerId").gt(playerId)));
+		}
+		if (pageable.isPaged()) {
+			if (!keyset) {
+				q.skip(pageable.getOffset());
+			}
+			q.limit(pageable.getPageSize());
+		}
+		List<PlayerScore> result = new ArrayList<PlayerScore>();
+		for (LeaderboardRollupEntry entry : this.mongoTemplate.find(q, LeaderboardRollupEntry.class)) {
+			PlayerScore ps = new PlayerScore();
+			ps.setPlayerId(entry.getPlayerId());
+			ps.setScore(entry.getScore());
+			result.add(ps);
+		}
+		if (keyset) {
+			return Optional.of(
+					new PageImpl<>(result, pageable, this.mongoTemplate.count(count, LeaderboardRollupEntry.class)));
+		}
+		return Optional.of(PageableExecutionUtils.getPage(result, pageable,
+				() -> this.mongoTemplate.count(count, LeaderboardRollupEntry.class)));
+	}
+
+	/**
+	 * Sum again the leaderboards of the games of a scope, if no other node is
+	 * building it. Score changes of the games are not applied to the scope
+	 * while it is being built, so it is built again when any happened.
+	 * 
+	 * @param scope   id of the scope
+	 * @param gameIds core game ids, sorted
+	 * @return number of rows written, -1 if built by another node
+	 */
+	public long rebuild(String scope, List<String> gameIds) {
+		String owner = UUID.randomUUID().toString();
+		if (!claim(scope, owner)) {
+			logger.debug("rollup {} is built by another node", scope);
+			return -1;
+		}
+		long written = 0;
+		Query owned = new Query(Criteria.where("_id").is(scope).and("owner").is(owner));
+		try {
+			for (int build = 1;; build++) {
+				// changes from now on mark the scope dirty
+				renew(scope, owner, new Update().set("gameIds", gameIds).set("complete", false).set("dirty", false));
+				written = build(scope, owner, gameIds);
+				Update done = new Update().set("complete", true).unset("owner").unset("claimedAt");
+				if (this.mongoTemplate.updateFirst(Query.of(owned).addCriteria(Criteria.where("dirty").is(false)),
+						done.set("builtAt", new Date()), LeaderboardRollupScope.class).getMatchedCount() > 0) {
+					break;
+				}
+				if (build >= maxBuilds) {
+					// served as it is, old enough to be built again at the next read
+					this.mongoTemplate.updateFirst(owned, done.set("builtAt", new Date(0)),
+							LeaderboardRollupScope.class);
+					logger.warn("rollup {} changed during {} builds", scope, build);
+					break;
+				}
+			}
+		} catch (RuntimeException e) {
+			// released, the next read queues it again
+			this.mongoTemplate.updateFirst(owned, new Update().unset("owner").unset("claimedAt"),
+					LeaderboardRollupScope.class);
+			throw e;
+		}
+		logger.info("rollup {} of {} games built with {} rows", scope, gameIds.size(), written);
+		return written;
+	}
+
+	private long build(String scope, String owner, List<String> gameIds) {
+		this.mongoTemplate.remove(new Query(Criteria.where("scope").is(scope)), LeaderboardRollupEntry.class);
+		List<Document> pipeline = List.of(new Document("$match", new Document("gameId", new Document("$in", gameIds))),
+				new Document("$group",
+						new Document("_id",
+								new Document("pointConcept", "$pointConcept").append("period", "$period")
+										.append("periodKey", "$periodKey").append("playerId", "$playerId"))
+								.append("score", new Document("$sum", "$score"))
+								.append("games", new Document("$sum", 1))));
+		long written = 0;
+		List<LeaderboardRollupEntry> pending = new ArrayList<LeaderboardRollupEntry>();
+		for (Document doc : this.mongoTemplate.getCollection(this.mongoTemplate.getCollectionName(LeaderboardEntry.class))
+				.aggregate(pipeline).allowDiskUse(true)) {
+			Document id = doc.get("_id", Document.class);
+			LeaderboardRollupEntry entry = new LeaderboardRollupEntry();
+			entry.setScope(scope);
+			entry.setPointConcept(id.getString("pointConcept"));
+			entry.setPeriod(id.getString("period"));
+			entry.setPeriodKey(id.getString("periodKey"));
+			entry.setPlayerId(id.getString("playerId"));
+			entry.setScore(((Number) doc.get("score")).doubleValue());
+			entry.setGames(((Number) doc.get("games")).intValue());
+			pending.add(entry);
+			if (pending.size() >= batchSize) {
+				renew(scope, owner, new Update());
+				written += this.mongoTemplate.insert(pending, LeaderboardRollupEntry.class).size();
+				pending.clear();
+			}
+		}
+		if (!pending.isEmpty()) {
+			renew(scope, owner, new Update());
+			written += this.mongoTemplate.insert(pending, LeaderboardRollupEntry.class).size();
+		}
+		return written;
+	}
+
+	/**
+	 * @return true if the lease of the scope is taken, creating the scope if
+	 *         missing
+	 */
+	private boolean claim(String scope, String owner) {
+		Date now = new Date();
+		try {
+			this.mongoTemplate.upsert(
+					new Query(Criteria.where("_id").is(scope).orOperator(Criteria.where("owner").is(null),
+							Criteria.where("claimedAt").lt(new Date(now.getTime() - leaseSeconds * 1000)))),
+					new Update().set("owner", owner).set("claimedAt", now), LeaderboardRollupScope.class);
+			return true;
+		} catch (DuplicateKeyException e) {
+			// present and leased
+			return false;
+		}
+	}
+
+	/**
+	 * Renew the lease of the scope applying the update
+	 * 
+	 * @throws IllegalStateException if the lease was taken over
+	 */
+	private void renew(String scope, String owner, Update update) {
+		if (this.mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(scope).and("owner").is(owner)),
+				update.set("claimedAt", new Date()), LeaderboardRollupScope.class).getMatchedCount() == 0) {
+			throw new IllegalStateException("lease of rollup " + scope + " taken over");
+		}
+	}
+
+	private Query row(String scope, String pointConcept, String period, String periodKey) {
+		return new Query(Criteria.where("scope").is(scope).and("pointConcept").is(pointConcept).and("period")
+				.is(period).and("periodKey").is(periodKey));
+	}
+
+}
@@ -0,0 +1,71 @@
+package eu.fbk.interlink.gamification.component;
+
+/**
+ * The score of a player in a leaderboard has changed. A null old score means
+ * the player has just entered the leaderboard, a null new score that the
+ * player has left it.
+ */
+public class LeaderboardScoreChangedEvent {
+
+	private final String gameId;
+	private final String pointConcept;
+	private final String period;
+	private final String periodKey;
+	private final String playerId;
+	private final Double oldScore;
+	private final Double newScore;
+
+	public LeaderboardScoreChangedEvent(String gameId, String pointConcept, String period, String periodKey,
+			String playerId, Double oldScore, Double newScore) {
+		this.gameId = gameId;
+		this.pointConcept = pointConcept;
+		this.period = period;
+		this.periodKey = periodKey;
+		this.playerId = playerId;
+		this.oldScore = oldScore;
+		this.newScore = newScore;
+	}
+
+	/**
+	 * @return the core game id, processId-name
+	 */
+	public String getGameId() {
+		return gameId;
+	}
+
+	public String getPointConcept() {
+		return pointConcept;
+	}
+
+	public String getPeriod() {
+		return period;
+	}
+
+	public String getPeriodKey() {
+		return periodKey;
+	}
+
+	public String getPlayerId() {
+		return playerId;
+	}
+
+	public Double getOldScore() {
+		return oldScore;
+	}
+
+	public Double getNewScore() {
+		return newScore;
+	}
+
+	@Override
+	public String toString() {
+		return "{gameId='" + this.gameId 
+				+ "', pointConcept='" + this.pointConcept 
+				+ "', period='" + this.period 
+				+ "', periodKey='" + this.periodKey 
+				+ "', playerId='" + this.playerId 
+				+ "', oldScore=" + this.oldScore 
+				+ ", newScore=" + this.newScore + "}";
+	}
+
+}
@@ -0,0 +1,366 @@
+package eu.fbk.interlink.gamification.component;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import javax.annotation.PostConstruct;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.support.PageableExecutionUtils;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import eu.fbk.interlink.gamification.domain.LeaderboardSnapshot;
+import eu.fbk.interlink.gamification.domain.LeaderboardSnapshotEntry;
+import eu.fbk.interlink.gamification.domain.LeaderboardWindow;
+import eu.fbk.interlink.gamification.domain.PlayerRank;
+import eu.fbk.interlink.gamification.domain.PlayerScore;
+import eu.trentorise.game.managers.ClassificationUtils;
+import eu.trentorise.game.model.Game;
+import eu.trentorise.game.model.PointConcept;
+import eu.trentorise.game.model.PointConcept.PeriodInstance;
+import eu.trentorise.game.model.core.GameConcept;
+import eu.trentorise.game.repo.GamePersistence;
+import eu.trentorise.game.repo.GameRepo;
+import eu.trentorise.game.repo.StatePersistence;
+
+/**
+ * Freezes the leaderboards of the period instances once they are over. A
+ * scheduled rollover ranks the players of every closed instance from the
+ * player states and stores them with their rank, so that the pages of a past
+ * period are read by rank instead of sorting the player states again, and
+ * stay available after the engine drops the instance from the states.
+ */
+@Component
+public class LeaderboardSnapshotComponent {
+
+	private static final Logger logger = LoggerFactory.getLogger(LeaderboardSnapshotComponent.class);
+
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
+	@Autowired
+	private GameRepo gameRepo;
+
+	@Value("${game.leaderboard.snapshot.enabled:false}")
+	private boolean enabled;
+
+	/**
+	 * closed instances of each period checked at every rollover
+	 */
+	@Value("${game.leaderboard.snapshot.instances:1}")
+	private int instances;
+
+	/**
+	 * time left to late actions before freezing an instance
+	 */
+	@Value("${game.leaderboard.snapshot.grace-seconds:300}")
+	private long graceSeconds;
+
+	/**
+	 * time after which the claim of a snapshot not completed is taken over by
+	 * another node, it must exceed the longest snapshot
+	 */
+	@Value("${game.leaderboard.snapshot.lease-seconds:1800}")
+	private long leaseSeconds;
+
+	@Value("${game.leaderboard.rebuild-batch-size:1000}")
+	private int batchSize;
+
+	@PostConstruct
+	public void ensureIndexes() {
+		if (!enabled) {
+			return;
+		}
+		MongoPersistentEntityIndexResolver resolver = new MongoPersistentEntityIndexResolver(
+				this.mongoTemplate.getConverter().getMappingContext());
+		IndexOperations indexOps = this.mongoTemplate.indexOps(LeaderboardSnapshot.class);
+		resolver.resolveIndexFor(LeaderboardSnapshot.class).forEach(indexOps::ensureIndex);
+		IndexOperations entryIndexOps = this.mongoTemplate.indexOps(LeaderboardSnapshotEntry.class);
+		resolver.resolveIndexFor(LeaderboardSnapshotEntry.class).forEach(entryIndexOps::ensureIndex);
+	}
+
+	/**
+	 * Snapshot the closed period instances of every game not frozen yet
+	 */
+	@Scheduled(cron = "${game.leaderboard.snapshot.cron:0 5 * * * *}")
+	public void rollover() {
+		if (!enabled) {
+			return;
+		}
+		for (GamePersistence game : gameRepo.findAll()) {
+			try {
+				rollover(game.toGame());
+			} catch (RuntimeException e) {
+				logger.error("rollover of game {} failed", game.getId(), e);
+			}
+		}
+	}
+
+	/**
+	 * Snapshot the closed period instances of a game not frozen yet
+	 * 
+	 * @param game
+	 * @return number of snapshots taken
+	 */
+	public int rollover(Game game) {
+		int taken = 0;
+		if (game.getConcepts() == null) {
+			return taken;
+		}
+		long closedBefore = System.currentTimeMillis() - graceSeconds * 1000;
+		for (GameConcept concept : game.getConcepts()) {
+			if (!(concept instanceof PointConcept) || ((PointConcept) concept).getPeriods() == null) {
+				continue;
+			}
+			for (String period : ((PointConcept) concept).getPeriods().keySet()) {
+				PeriodInstance instance = ClassificationUtils.retrieveWindow(game, period, concept.getName(),
+						closedBefore, -1);
+				for (int i = 0; instance != null && i < instances; i++) {
+					instance = ClassificationUtils.retrieveWindow(game, period, concept.getName(),
+							instance.getStart() - 1, -1);
+					if (instance != null && snapshot(game.getId(), concept.getName(), period, instance)) {
+						taken++;
+					}
+				}
+			}
+		}
+		return taken;
+	}
+
+	/**
+	 * Rank the players of a period instance and freeze them. The snapshot is
+	 * claimed first, so that only one node takes it, and marked complete after
+	 * all the players are stored. A claim left by a node that died while taking
+	 * the snapshot is taken over once its lease expired.
+	 * 
+	 * @param gameId       core game id
+	 * @param pointConcept
+	 * @param period
+	 * @param instance     a closed instance of the period
+	 * @return false if the snapshot is already present or taken by another node
+	 */
+	public boolean snapshot(String gameId, String pointConcept, String period, PeriodInstance instance) {
+		String periodKey = ClassificationUtils.generateKey(instance);
+		String id = LeaderboardSnapshot.id(gameId, pointConcept, period, periodKey);
+		if (this.mongoTemplate.exists(new Query(Criteria.where("_id").is(id).and("complete").is(true)),
+				LeaderboardSnapshot.class)) {
+			return false;
+		}
+		String owner = UUID.randomUUID().toString();
+		Date now = new Date();
+		LeaderboardSnapshot snapshot = new LeaderboardSnapshot();
+		snapshot.setId(id);
+		snapshot.setGameId(gameId);
+		snapshot.setPointConcept(pointConcept);
+		snapshot.setPeriod(period);
+		snapshot.setPeriodKey(periodKey);
+		snapshot.setStart(instance.getStart());
+		snapshot.setEnd(instance.getEnd());
+		snapshot.setCreatedAt(now);
+		snapshot.setOwner(owner);
+		snapshot.setClaimedAt(now);
+		try {
+			this.mongoTemplate.insert(snapshot);
+		} catch (DuplicateKeyException e) {
+			// take over the claim of a node that did not complete it in time
+			LeaderboardSnapshot expired = this.mongoTemplate.findAndModify(
+					new Query(Criteria.where("_id").is(id).and("complete").is(false).and("claimedAt")
+							.lt(new Date(now.getTime() - leaseSeconds * 1000))),
+					new Update().set("owner", owner).set("claimedAt", now), LeaderboardSnapshot.class);
+			if (expired == null) {
+				return false;
+			}
+			logger.warn("snapshot {} claimed by {} since {} taken over", id, expired.getOwner(),
+					expired.getClaimedAt());
+		}
+		Query entries = entries(gameId, pointConcept, period, periodKey);
+		try {
+			// leftovers of a failed snapshot
+			this.mongoTemplate.remove(entries, LeaderboardSnapshotEntry.class);
+			String scorePath = LeaderboardWindow.instance(pointConcept, period, periodKey, true).getScorePath();
+			List<Document> pipeline = List.of(
+					new Document("$match",
+							new Document("gameId", gameId).append(scorePath, new Document("$type", "number"))),
+					new Document("$sort", new Document(scorePath, -1).append("playerId", 1)),
+					new Document("$project",
+							new Document("_id", 0).append("playerId", 1).append("score", "$" + scorePath)));
+			long rank = 0;
+			List<LeaderboardSnapshotEntry> pending = new ArrayList<LeaderboardSnapshotEntry>();
+			for (Document doc : this.mongoTemplate
+					.getCollection(this.mongoTemplate.getCollectionName(StatePersistence.class)).aggregate(pipeline)
+					.allowDiskUse(true)) {
+				LeaderboardSnapshotEntry entry = new LeaderboardSnapshotEntry();
+				entry.setGameId(gameId);
+				entry.setPointConcept(pointConcept);
+				entry.setPeriod(period);
+				entry.setPeriodKey(periodKey);
+				entry.setRank(++rank);
+				entry.setPlayerId(doc.getString("playerId"));
+				entry.setScore(((Number) doc.get("score")).doubleValue());
+				pending.add(entry);
+				if (pending.size() >= batchSize) {
+					this.mongoTemplate.insert(pending, LeaderboardSnapshotEntry.class);
+					pending.clear();
+				}
+			}
+			if (!pending.isEmpty()) {
+				this.mongoTemplate.insert(pending, LeaderboardSnapshotEntry.class);
+			}
+			if (this.mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(id).and("owner").is(owner)),
+					new Update().set("players", rank).set("complete", true), LeaderboardSnapshot.class)
+					.getMatchedCount() == 0) {
+				throw new IllegalStateException("claim of snapshot " + id + " expired before completion");
+			}
+			logger.info("snapshot of {} {} {} {} taken with {} players", gameId, pointConcept, period, periodKey,
+					rank);
+			return true;
+		} catch (RuntimeException e) {
+			// released if still owned, the next rollover tries again
+			if (this.mongoTemplate.remove(
+					new Query(Criteria.where("_id").is(id).and("owner").is(owner).and("complete").is(false)),
+					LeaderboardSnapshot.class).getDeletedCount() > 0) {
+				this.mongoTemplate.remove(entries, LeaderboardSnapshotEntry.class);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * @param gameId       core game id
+	 * @param pointConcept
+	 * @param period
+	 * @param periodKey
+	 * @return the snapshot, empty if not taken or not complete yet
+	 */
+	public Optional<LeaderboardSnapshot> find(String gameId, String pointConcept, String period, String periodKey) {
+		if (!enabled) {
+			return Optional.empty();
+		}
+		return Optional.ofNullable(this.mongoTemplate.findOne(
+				new Query(Criteria.where("_id").is(LeaderboardSnapshot.id(gameId, pointConcept, period, periodKey))
+						.and("complete").is(true)),
+				LeaderboardSnapshot.class));
+	}
+
+	/**
+	 * @param gameId core game id
+	 * @return the complete snapshots of a game, latest first
+	 */
+	public List<LeaderboardSnapshot> list(String gameId) {
+		return this.mongoTemplate.find(new Query(Criteria.where("gameId").is(gameId).and("complete").is(true))
+				.with(Sort.by(Sort.Order.asc("pointConcept"), Sort.Order.asc("period"),
+						Sort.Order.desc("periodKey"))),
+				LeaderboardSnapshot.class);
+	}
+
+	/**
+	 * Read a page of a snapshot, by rank
+	 * 
+	 * @param snapshot
+	 * @param pageable
+	 * @param afterScore    score of the last player of the previous page
+	 * @param afterPlayerId id of the last player of the previous page
+	 * @return players of the page
+	 */
+	public Page<PlayerScore> search(LeaderboardSnapshot snapshot, Pageable pageable, Double afterScore,
+			String afterPlayerId) {
+		Query q = entries(snapshot);
+		boolean keyset = afterScore != null || afterPlayerId != null;
+		LeaderboardSnapshotEntry after = afterPlayerId != null ? entry(snapshot, afterPlayerId) : null;
+		if (after != null) {
+			q.addCriteria(Criteria.where("rank").gt(after.getRank()));
+		} else if (keyset) {
+			double score = afterScore != null ? afterScore : Double.NEGATIVE_INFINITY;
+			String playerId = afterPlayerId != null ? afterPlayerId : "";
+			q.addCriteria(new Criteria().orOperator(Criteria.where("score").lt(score),
+					Criteria.where("score").is(score).and("playerId").gt(playerId)));
+		} else if (pageable.isPaged()) {
+			q.addCriteria(Criteria.where("rank").gt(pageable.getOffset()));
+		}
+		q.with(Sort.by("rank"));
+		if (pageable.isPaged()) {
+			q.limit(pageable.getPageSize());
+		}
+		List<PlayerScore> result = new ArrayList<PlayerScore>();
+		for (LeaderboardSnapshotEntry entry : this.mongoTemplate.find(q, LeaderboardSnapshotEntry.class)) {
+			result.add(toPlayerScore(entry));
+		}
+		if (keyset) {
+			return new PageImpl<>(result, pageable, snapshot.getPlayers());
+		}
+		return PageableExecutionUtils.getPage(result, pageable, snapshot::getPlayers);
+	}
+
+	/**
+	 * Rank of a player in a snapshot with the players right above and below
+	 * 
+	 * @param snapshot
+	 * @param playerId
+	 * @param neighbours number of players read above and below
+	 * @return the rank, empty if the player has no score in the snapshot
+	 */
+	public Optional<PlayerRank> rank(LeaderboardSnapshot snapshot, String playerId, int neighbours) {
+		LeaderboardSnapshotEntry own = entry(snapshot, playerId);
+		if (own == null) {
+			return Optional.empty();
+		}
+		PlayerRank rank = new PlayerRank();
+		rank.setPlayerId(playerId);
+		rank.setScore(own.getScore());
+		rank.setRank(own.getRank());
+		rank.setTotal(snapshot.getPlayers());
+		Query neighbourhood = entries(snapshot).addCriteria(
+				Criteria.where("rank").gte(own.getRank() - neighbours).lte(own.getRank() + neighbours))
+				.with(Sort.by("rank"));
+		for (LeaderboardSnapshotEntry entry : this.mongoTemplate.find(neighbourhood, LeaderboardSnapshotEntry.class)) {
+			if (entry.getRank() < own.getRank()) {
+				rank.getAbove().add(toPlayerScore(entry));
+			} else if (entry.getRank() > own.getRank()) {
+				rank.getBelow().add(toPlayerScore(entry));
+			}
+		}
+		return Optional.of(rank);
+	}
+
+	private LeaderboardSnapshotEntry entry(LeaderboardSnapshot snapshot, String playerId) {
+		return this.mongoTemplate.findOne(entries(snapshot).addCriteria(Criteria.where("playerId").is(playerId)),
+				LeaderboardSnapshotEntry.class);
+	}
+
+	private static Query entries(LeaderboardSnapshot snapshot) {
+		return entries(snapshot.getGameId(), snapshot.getPointConcept(), snapshot.getPeriod(),
+				snapshot.getPeriodKey());
+	}
+
+	private static Query entries(String gameId, String pointConcept, String period, String periodKey) {
+		return new Query(Criteria.where("gameId").is(gameId).and("pointConcept").is(pointConcept).and("period")
+				.is(period).and("periodKey").is(periodKey));
+	}
+
+	private static PlayerScore toPlayerScore(LeaderboardSnapshotEntry entry) {
+		PlayerScore score = new PlayerScore();
+		score.setPlayerId(entry.getPlayerId());
+		score.setScore(entry.getScore());
+		return score;
+	}
+
+}
@@ -0,0 +1,251 @@
+package eu.fbk.interlink.gamification.component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import eu.fbk.interlink.gamification.domain.LeaderboardWindow;
+import eu.fbk.interlink.gamification.util.InvalidRequestException;
+import eu.trentorise.game.managers.ClassificationUtils;
+import eu.trentorise.game.model.Game;
+import eu.trentorise.game.model.PointConcept;
+import eu.trentorise.game.model.PointConcept.PeriodInstance;
+import eu.trentorise.game.model.core.GameConcept;
+import eu.trentorise.game.repo.GamePersistence;
+import eu.trentorise.game.repo.GameRepo;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Resolves the period parameter of the leaderboards into the period instances
+ * of a point concept. Periods are written as global, as the name of a period
+ * of the point concept, e.g. weekly, optionally followed by the offset from
+ * the current instance, e.g. daily:-1 for yesterday. currentWeek and
+ * previousWeek are kept as weekly and weekly:-1. A period name with a from/to
+ * range sums the instances starting in the range.
+ * 
+ * The game models and the resolved windows are cached, the windows until the
+ * current instance of their period ends, both until the game changes.
+ */
+@Component
+public class LeaderboardWindowComponent {
+
+	@Autowired
+	private GameRepo gameRepo;
+
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
+	@Value("${game.leaderboard.max-range-instances:400}")
+	private int maxRangeInstances;
+
+	@Value("${game.cache.max-size:1000}")
+	private long cacheMaxSize;
+
+	@Value("${game.cache.ttl-seconds:60}")
+	private long cacheTtlSeconds;
+
+	/**
+	 * Core game models by game id, shared and not to be changed
+	 */
+	private Cache<String, Game> models;
+
+	/**
+	 * Windows of a single instance by game id, point concept, period and offset
+	 */
+	private Cache<String, CachedWindow> instances;
+
+	@PostConstruct
+	public void initCache() {
+		this.models = Caffeine.newBuilder().maximumSize(cacheMaxSize)
+				.expireAfterWrite(Duration.ofSeconds(cacheTtlSeconds)).recordStats().build();
+		this.instances = Caffeine.newBuilder().maximumSize(cacheMaxSize * 10)
+				.expireAfter(new Expiry<String, CachedWindow>() {
+					@Override
+					public long expireAfterCreate(String key, CachedWindow value, long currentTime) {
+						return TimeUnit.MILLISECONDS
+								.toNanos(Math.max(0, value.validUntil - System.currentTimeMillis()));
+					}
+
+					@Override
+					public long expireAfterUpdate(String key, CachedWindow value, long currentTime,
+							long currentDuration) {
+						return expireAfterCreate(key, value, currentTime);
+					}
+
+					@Override
+					public long expireAfterRead(String key, CachedWindow value, long currentTime,
+							long currentDuration) {
+						return currentDuration;
+					}
+				}).recordStats().build();
+		CaffeineCacheMetrics.monitor(Metrics.globalRegistry, this.models, "interlink.leaderboard.games");
+		CaffeineCacheMetrics.monitor(Metrics.globalRegistry, this.instances, "interlink.leaderboard.windows");
+	}
+
+	/**
+	 * @param gameId core game id
+	 * @param pcName point concept
+	 * @param period
+	 * @param from   start of the range in millis, inclusive, or null
+	 * @param to     end of the range in millis, exclusive, or null
+	 * @return the window, empty if the game, the point concept or the period
+	 *         are unknown
+	 * @throws InvalidRequestException if the period is malformed
+	 */
+	public Optional<LeaderboardWindow> resolve(String gameId, String pcName, String period, Long from, Long to) {
+		String name = period;
+		int offset = 0;
+		if (period.equalsIgnoreCase("currentWeek")) {
+			name = "weekly";
+		} else if (period.equalsIgnoreCase("previousWeek")) {
+			name = "weekly";
+			offset = -1;
+		} else if (period.indexOf(':') >= 0) {
+			name = period.substring(0, period.indexOf(':'));
+			try {
+				offset = Integer.parseInt(period.substring(period.indexOf(':') + 1));
+			} catch (NumberFormatException e) {
+				throw new InvalidRequestException("Period offset of " + period + " is not a number");
+			}
+		}
+		boolean range = from != null || to != null;
+		if (name.equalsIgnoreCase("global")) {
+			if (range) {
+				throw new InvalidRequestException("A range needs a period, e.g. daily or weekly");
+			}
+			return Optional.of(LeaderboardWindow.global(pcName));
+		}
+		if (!range) {
+			// loaded once per key, an eviction during the load drops the loaded window
+			String instanceName = name;
+			int instanceOffset = offset;
+			CachedWindow cached = instances.get(String.join("|", gameId, pcName, name, String.valueOf(offset)),
+					key -> window(gameId, pcName, instanceName, instanceOffset));
+			return cached != null ? Optional.ofNullable(cached.window) : Optional.empty();
+		}
+		Optional<Game> game = game(gameId);
+		if (game.isEmpty() || !hasPeriod(game.get(), pcName, name)) {
+			return Optional.empty();
+		}
+		long now = System.currentTimeMillis();
+		return Optional.of(LeaderboardWindow.range(pcName, name,
+				rangeKeys(game.get(), pcName, name, from != null ? from : now, to != null ? to : now)));
+	}
+
+	/**
+	 * @param gameId core game id
+	 * @return the game model, cached
+	 */
+	public Optional<Game> game(String gameId) {
+		return Optional.ofNullable(
+				models.get(gameId, key -> gameRepo.findById(key).map(GamePersistence::toGame).orElse(null)));
+	}
+
+	/**
+	 * @return the window of the instance at the offset from the current one,
+	 *         null if the game is unknown
+	 */
+	private CachedWindow window(String gameId, String pcName, String period, int offset) {
+		Optional<Game> game = game(gameId);
+		if (game.isEmpty()) {
+			return null;
+		}
+		long now = System.currentTimeMillis();
+		if (!hasPeriod(game.get(), pcName, period)) {
+			return new CachedWindow(null, now + cacheTtlSeconds * 1000);
+		}
+		PeriodInstance current = ClassificationUtils.retrieveWindow(game.get(), period, pcName, now, -1);
+		PeriodInstance instance = current;
+		for (int i = 0; instance != null && i < Math.abs(offset); i++) {
+			long moment = offset < 0 ? instance.getStart() - 1 : instance.getEnd() + 1;
+			instance = ClassificationUtils.retrieveWindow(game.get(), period, pcName, moment, -1);
+		}
+		LeaderboardWindow window = instance != null
+				? LeaderboardWindow.instance(pcName, period, ClassificationUtils.generateKey(instance),
+						instance.getEnd() < now)
+				: null;
+		// every offset moves with the current instance
+		return new CachedWindow(window, current != null ? current.getEnd() : now + cacheTtlSeconds * 1000);
+	}
+
+	/**
+	 * Evict the cached model and windows of a game definition changed by this
+	 * or another node
+	 */
+	@EventListener
+	public void onCollectionChanged(CollectionChangedEvent event) {
+		if (!this.mongoTemplate.getCollectionName(GamePersistence.class).equals(event.getCollection())) {
+			return;
+		}
+		if (event.isWholeCollection()) {
+			models.invalidateAll();
+			instances.invalidateAll();
+		} else {
+			models.invalidate(event.getId());
+			String prefix = event.getId() + "|";
+			instances.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+		}
+	}
+
+	/**
+	 * @return keys of the instances starting in [from, to)
+	 */
+	private List<String> rangeKeys(Game game, String pcName, String period, long from, long to) {
+		List<String> keys = new ArrayList<String>();
+		PeriodInstance instance = ClassificationUtils.retrieveWindow(game, period, pcName, from, -1);
+		if (instance != null && instance.getStart() < from) {
+			instance = ClassificationUtils.retrieveWindow(game, period, pcName, instance.getEnd() + 1, -1);
+		}
+		while (instance != null && instance.getStart() < to) {
+			if (keys.size() == maxRangeInstances) {
+				throw new InvalidRequestException(
+						"The range spans more than " + maxRangeInstances + " instances of " + period);
+			}
+			keys.add(ClassificationUtils.generateKey(instance));
+			instance = ClassificationUtils.retrieveWindow(game, period, pcName, instance.getEnd() + 1, -1);
+		}
+		return keys;
+	}
+
+	private static boolean hasPeriod(Game game, String pcName, String period) {
+		if (game.getConcepts() == null) {
+			return false;
+		}
+		for (GameConcept concept : game.getConcepts()) {
+			if (concept instanceof PointConcept && pcName.equals(concept.getName())) {
+				PointConcept pc = (PointConcept) concept;
+				return pc.getPeriods() != null && pc.getPeriods().containsKey(period);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * A resolved window, null if the point concept or the period are unknown
+	 */
+	private static class CachedWindow {
+		private final LeaderboardWindow window;
+		private final long validUntil;
+
+		private CachedWindow(LeaderboardWindow window, long validUntil) {
+			this.window = window;
+			this.validUntil = validUntil;
+		}
+	}
+
+}
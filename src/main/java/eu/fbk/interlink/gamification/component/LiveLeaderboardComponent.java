@@ -0,0 +1,354 @@
+package eu.fbk.interlink.gamification.component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Component;
+
+import eu.fbk.interlink.gamification.domain.LeaderboardEntry;
+import eu.fbk.interlink.gamification.domain.PlayerRank;
+import eu.fbk.interlink.gamification.domain.PlayerScore;
+import eu.fbk.interlink.gamification.util.RankTree;
+
+/**
+ * Leaderboards kept in memory, one {@link RankTree} per game, point concept
+ * and period instance, answering pages and ranks without reading Mongo. They
+ * are loaded from the player states at startup and follow the score changes
+ * of the players. Only the latest instances of each period are kept. Enabled
+ * with game.leaderboard.live.enabled=true.
+ */
+@Component
+public class LiveLeaderboardComponent {
+
+	private static final Logger logger = LoggerFactory.getLogger(LiveLeaderboardComponent.class);
+
+	private static final char KEY_SEPARATOR = '\u0000';
+
+	@Autowired
+	private LeaderboardComponent leaderboard;
+
+	@Value("${game.leaderboard.live.enabled:false}")
+	private boolean enabled;
+
+	@Value("${game.leaderboard.live.instances:2}")
+	private int retainedInstances;
+
+	private final Map<String, GameBoards> games = new ConcurrentHashMap<String, GameBoards>();
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @param gameId core game id
+	 * @return true if the leaderboards of the game are in memory and complete
+	 */
+	public boolean isLoaded(String gameId) {
+		GameBoards boards = enabled ? games.get(gameId) : null;
+		return boards != null && boards.loaded;
+	}
+
+	/**
+	 * @param gameId       core game id
+	 * @param pointConcept
+	 * @param period       period name, or global
+	 * @param periodKey    key of the period instance, or global
+	 * @return true if the leaderboard is in memory, otherwise it is not kept or
+	 *         nobody has a score yet
+	 */
+	public boolean hasBoard(String gameId, String pointConcept, String period, String periodKey) {
+		return isLoaded(gameId) && games.get(gameId).existing(pointConcept, period, periodKey) != null;
+	}
+
+	/**
+	 * Load the leaderboards in background, searches fall back to Mongo until a
+	 * game is loaded
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public void load() {
+		if (!enabled) {
+			return;
+		}
+		Thread loader = new Thread(() -> {
+			for (String gameId : leaderboard.findGameIds()) {
+				try {
+					load(gameId);
+				} catch (RuntimeException e) {
+					logger.error("live leaderboard of game {} not loaded", gameId, e);
+					games.remove(gameId);
+				}
+			}
+		}, "live-leaderboard-load");
+		loader.setDaemon(true);
+		loader.start();
+	}
+
+	/**
+	 * Scores changed while loading are newer than the ones read, they are kept
+	 */
+	private void load(String gameId) {
+		GameBoards boards = games.computeIfAbsent(gameId, id -> new GameBoards(false));
+		int[] players = new int[1];
+		leaderboard.readAllScores(gameId, scores -> {
+			players[0]++;
+			for (LeaderboardEntry score : scores) {
+				boards.set(score, true);
+			}
+		});
+		boards.loaded = true;
+		logger.info("live leaderboard of game {} loaded with {} players", gameId, players[0]);
+	}
+
+	@EventListener
+	public void onPlayerStateChanged(PlayerStateChangedEvent event) {
+		// with the materialized leaderboard the score changes are already known
+		if (!enabled || leaderboard.isEnabled()) {
+			return;
+		}
+		GameBoards boards = gameBoards(event.getGameId());
+		leaderboard.readScores(event.getGameId(), event.getPlayerId()).ifPresentOrElse(
+				scores -> scores.forEach(score -> boards.set(score, false)),
+				() -> boards.remove(event.getPlayerId()));
+	}
+
+	@EventListener
+	public void onLeaderboardScoreChanged(LeaderboardScoreChangedEvent event) {
+		if (!enabled) {
+			return;
+		}
+		GameBoards boards = gameBoards(event.getGameId());
+		Board board = boards.board(event.getPointConcept(), event.getPeriod(), event.getPeriodKey());
+		if (board != null) {
+			board.set(event.getPlayerId(), event.getNewScore(), false);
+		}
+	}
+
+	/**
+	 * Follow the score changes applied by other nodes. The rows of the player
+	 * states deleted elsewhere are dropped on the next full reload.
+	 */
+	@EventListener
+	public void onCollectionChanged(CollectionChangedEvent event) {
+		if (!enabled || !leaderboard.isStateCollection(event.getCollection())) {
+			return;
+		}
+		if (event.isWholeCollection()) {
+			games.clear();
+			load();
+			return;
+		}
+		leaderboard.readScoresByStateId(event.getId()).ifPresent(
+				scores -> scores.forEach(score -> gameBoards(score.getGameId()).set(score, false)));
+	}
+
+	@EventListener
+	public void onGameDeleted(GameDeletedEvent event) {
+		games.remove(event.getGameId());
+	}
+
+	/**
+	 * Games created after the startup have no previous scores to load
+	 */
+	private GameBoards gameBoards(String gameId) {
+		return games.computeIfAbsent(gameId, id -> new GameBoards(true));
+	}
+
+	/**
+	 * Read a page of a leaderboard, the same way of the player search
+	 * 
+	 * @param gameId        core game id
+	 * @param pointConcept
+	 * @param period        period name, or global
+	 * @param periodKey     key of the period instance, or global
+	 * @param pageable
+	 * @param afterScore    score of the last player of the previous page
+	 * @param afterPlayerId id of the last player of the previous page
+	 * @return players of the page
+	 */
+	public Page<PlayerScore> search(String gameId, String pointConcept, String period, String periodKey,
+			Pageable pageable, Double afterScore, String afterPlayerId) {
+		GameBoards boards = games.get(gameId);
+		Board board = boards != null ? boards.existing(pointConcept, period, periodKey) : null;
+		if (board == null) {
+			return new PageImpl<PlayerScore>(new ArrayList<PlayerScore>(), pageable, 0);
+		}
+		int limit = pageable.isPaged() ? pageable.getPageSize() : Integer.MAX_VALUE;
+		board.lock.readLock().lock();
+		try {
+			int from;
+			if (afterScore != null) {
+				from = board.tree.rank(afterScore, afterPlayerId != null ? afterPlayerId : "");
+				if (afterPlayerId != null && afterScore.equals(board.scores.get(afterPlayerId))) {
+					from++;
+				}
+			} else if (afterPlayerId != null) {
+				// every player has a score, nothing is sorted after a player without score
+				from = board.tree.size();
+			} else {
+				from = pageable.isPaged() ? (int) Math.min(pageable.getOffset(), Integer.MAX_VALUE) : 0;
+			}
+			List<PlayerScore> result = new ArrayList<PlayerScore>();
+			board.tree.visit(from, limit, (rank, score, playerId) -> {
+				PlayerScore ps = new PlayerScore();
+				ps.setPlayerId(playerId);
+				ps.setScore(score);
+				result.add(ps);
+			});
+			return new PageImpl<PlayerScore>(result, pageable, board.tree.size());
+		} finally {
+			board.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Rank of a player with the players right above and below
+	 * 
+	 * @param gameId       core game id
+	 * @param pointConcept
+	 * @param period       period name, or global
+	 * @param periodKey    key of the period instance, or global
+	 * @param playerId
+	 * @param neighbours   number of players read above and below
+	 * @return the rank, empty if the player has no score
+	 */
+	public Optional<PlayerRank> rank(String gameId, String pointConcept, String period, String periodKey,
+			String playerId, int neighbours) {
+		GameBoards boards = games.get(gameId);
+		Board board = boards != null ? boards.existing(pointConcept, period, periodKey) : null;
+		if (board == null) {
+			return Optional.empty();
+		}
+		board.lock.readLock().lock();
+		try {
+			Double score = board.scores.get(playerId);
+			if (score == null) {
+				return Optional.empty();
+			}
+			int position = board.tree.rank(score, playerId);
+			PlayerRank rank = new PlayerRank();
+			rank.setPlayerId(playerId);
+			rank.setScore(score);
+			rank.setRank(position + 1);
+			rank.setTotal(board.tree.size());
+			int from = Math.max(0, position - neighbours);
+			board.tree.visit(from, position - from + neighbours + 1, (r, s, p) -> {
+				if (r != position) {
+					PlayerScore ps = new PlayerScore();
+					ps.setPlayerId(p);
+					ps.setScore(s);
+					(r < position ? rank.getAbove() : rank.getBelow()).add(ps);
+				}
+			});
+			return Optional.of(rank);
+		} finally {
+			board.lock.readLock().unlock();
+		}
+	}
+
+	private static String key(String pointConcept, String period, String periodKey) {
+		return pointConcept + KEY_SEPARATOR + period + KEY_SEPARATOR + periodKey;
+	}
+
+	/**
+	 * The leaderboards of a game
+	 */
+	private class GameBoards {
+
+		private final Map<String, Board> boards = new ConcurrentHashMap<String, Board>();
+
+		private volatile boolean loaded;
+
+		GameBoards(boolean loaded) {
+			this.loaded = loaded;
+		}
+
+		Board existing(String pointConcept, String period, String periodKey) {
+			return boards.get(key(pointConcept, period, periodKey));
+		}
+
+		/**
+		 * @return the board, null if the period instance is older than the ones
+		 *         kept
+		 */
+		synchronized Board board(String pointConcept, String period, String periodKey) {
+			String key = key(pointConcept, period, periodKey);
+			Board board = boards.get(key);
+			if (board != null || LeaderboardEntry.GLOBAL.equals(period)) {
+				return board != null ? board : boards.computeIfAbsent(key, k -> new Board());
+			}
+			// keys are ISO dates, keep only the latest instances of the period
+			String prefix = key(pointConcept, period, "");
+			TreeSet<String> keys = new TreeSet<String>();
+			boards.keySet().stream().filter(k -> k.startsWith(prefix)).forEach(keys::add);
+			keys.add(key);
+			while (keys.size() > retainedInstances) {
+				boards.remove(keys.pollFirst());
+			}
+			return keys.contains(key) ? boards.computeIfAbsent(key, k -> new Board()) : null;
+		}
+
+		void set(LeaderboardEntry score, boolean onlyIfAbsent) {
+			Board board = board(score.getPointConcept(), score.getPeriod(), score.getPeriodKey());
+			if (board != null) {
+				board.set(score.getPlayerId(), score.getScore(), onlyIfAbsent);
+			}
+		}
+
+		void remove(String playerId) {
+			boards.values().forEach(board -> board.set(playerId, null, false));
+		}
+	}
+
+	/**
+	 * A leaderboard with the score of each player, to find it in the tree
+	 */
+	private static class Board {
+
+		private final RankTree tree = new RankTree();
+
+		private final Map<String, Double> scores = new HashMap<String, Double>();
+
+		private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+		/**
+		 * @param score null to remove the player
+		 */
+		void set(String playerId, Double score, boolean onlyIfAbsent) {
+			lock.writeLock().lock();
+			try {
+				Double old = scores.get(playerId);
+				if ((onlyIfAbsent && old != null) || Objects.equals(old, score)) {
+					return;
+				}
+				if (old != null) {
+					tree.remove(old, playerId);
+					scores.remove(playerId);
+				}
+				if (score != null) {
+					tree.add(score, playerId);
+					scores.put(playerId, score);
+				}
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+	}
+
+}
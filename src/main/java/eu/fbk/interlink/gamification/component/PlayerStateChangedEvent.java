@@ -0,0 +1,33 @@
+package eu.fbk.interlink.gamification.component;
+
+/**
+ * The state of a player in a core game has been changed by an action or
+ * deleted.
+ */
+public class PlayerStateChangedEvent {
+
+	private final String gameId;
+	private final String playerId;
+
+	public PlayerStateChangedEvent(String gameId, String playerId) {
+		this.gameId = gameId;
+		this.playerId = playerId;
+	}
+
+	/**
+	 * @return the core game id, processId-name
+	 */
+	public String getGameId() {
+		return gameId;
+	}
+
+	public String getPlayerId() {
+		return playerId;
+	}
+
+	@Override
+	public String toString() {
+		return "{gameId='" + this.gameId + "', playerId='" + this.playerId + "'}";
+	}
+
+}
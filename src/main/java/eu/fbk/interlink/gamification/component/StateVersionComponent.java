@@ -0,0 +1,72 @@
+package eu.fbk.interlink.gamification.component;
+
+import java.util.regex.Pattern;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import eu.fbk.interlink.gamification.domain.StateVersion;
+
+/**
+ * Counts the changes of the player states, so that clients polling a player
+ * or a leaderboard are answered with an ETag read from a small document
+ * instead of the state.
+ */
+@Component
+public class StateVersionComponent {
+
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
+	@EventListener
+	public void onPlayerStateChanged(PlayerStateChangedEvent event) {
+		increment(StateVersion.player(event.getGameId(), event.getPlayerId()));
+		increment(StateVersion.game(event.getGameId()));
+	}
+
+	/**
+	 * The player states of a removed game are gone all at once, every version
+	 * of the game changes. The versions are kept, so that a game created again
+	 * with the same id never repeats an ETag of the removed one.
+	 */
+	@EventListener
+	public void onGameDeleted(GameDeletedEvent event) {
+		Query players = new Query(
+				Criteria.where("_id").regex("^" + Pattern.quote(StateVersion.player(event.getGameId(), ""))));
+		this.mongoTemplate.updateMulti(players, new Update().inc("version", 1L), StateVersion.class);
+		increment(StateVersion.game(event.getGameId()));
+	}
+
+	/**
+	 * @param gameId core game id
+	 * @return changes of all the player states of the game
+	 */
+	public long gameVersion(String gameId) {
+		return version(StateVersion.game(gameId));
+	}
+
+	/**
+	 * @param gameId   core game id
+	 * @param playerId
+	 * @return changes of the state of the player
+	 */
+	public long playerVersion(String gameId, String playerId) {
+		return version(StateVersion.player(gameId, playerId));
+	}
+
+	private void increment(String id) {
+		this.mongoTemplate.upsert(new Query(Criteria.where("_id").is(id)), new Update().inc("version", 1L),
+				StateVersion.class);
+	}
+
+	private long version(String id) {
+		StateVersion version = this.mongoTemplate.findById(id, StateVersion.class);
+		return version != null ? version.getVersion() : 0;
+	}
+
+}
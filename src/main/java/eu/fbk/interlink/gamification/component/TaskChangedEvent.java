@@ -0,0 +1,63 @@
+package eu.fbk.interlink.gamification.component;
+
+/**
+ * A task or a subtask of a game has been claimed, left, completed or reverted.
+ */
+public class TaskChangedEvent {
+
+	public static final String CLAIM = "claim";
+	public static final String REMOVE_PLAYER = "removePlayer";
+	public static final String COMPLETE = "complete";
+	public static final String REVERT = "revert";
+
+	private final String gameId;
+	private final String taskId;
+	private final String subtaskId;
+	private final String action;
+	private final String playerId;
+
+	public TaskChangedEvent(String gameId, String taskId, String subtaskId, String action, String playerId) {
+		this.gameId = gameId;
+		this.taskId = taskId;
+		this.subtaskId = subtaskId;
+		this.action = action;
+		this.playerId = playerId;
+	}
+
+	/**
+	 * @return the core game id, processId-name
+	 */
+	public String getGameId() {
+		return gameId;
+	}
+
+	public String getTaskId() {
+		return taskId;
+	}
+
+	/**
+	 * @return the subtask id, null for a change of the task itself
+	 */
+	public String getSubtaskId() {
+		return subtaskId;
+	}
+
+	public String getAction() {
+		return action;
+	}
+
+	/**
+	 * @return the player claiming or leaving the task, null on completion and
+	 *         revert
+	 */
+	public String getPlayerId() {
+		return playerId;
+	}
+
+	@Override
+	public String toString() {
+		return "{gameId='" + this.gameId + "', taskId='" + this.taskId + "', subtaskId='" + this.subtaskId
+				+ "', action='" + this.action + "', playerId='" + this.playerId + "'}";
+	}
+
+}
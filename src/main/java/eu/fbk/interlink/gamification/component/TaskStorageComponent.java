@@ -0,0 +1,490 @@
+package eu.fbk.interlink.gamification.component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import eu.fbk.interlink.gamification.domain.InterlinkGame;
+import eu.fbk.interlink.gamification.domain.InterlinkPlayer;
+import eu.fbk.interlink.gamification.domain.InterlinkTask;
+import eu.fbk.interlink.gamification.domain.InterlinkTaskDocument;
+
+/**
+ * Stores the tasks of the games in the tasks collection, one document per task
+ * and per subtask, instead of embedding them in the game document. Enabled with
+ * game.task-storage=collection, in that mode games are read without tasks and
+ * the tasks are read on first access.
+ * <p>
+ * A write takes a short lease on the game document, writes the task documents
+ * and then increases the game version while releasing the lease. Readers see
+ * a new version only once the tasks are written, concurrent writers conflict
+ * before writing anything.
+ */
+@Component
+public class TaskStorageComponent {
+
+	private static final Logger logger = LoggerFactory.getLogger(TaskStorageComponent.class);
+
+	private static final String COLLECTION_MODE = "collection";
+
+	private static final char KEY_SEPARATOR = '\u0000';
+
+	private static final String WRITE_LOCK = "writeLock";
+
+	private static final String WRITE_LOCK_UNTIL = "writeLockUntil";
+
+	private static final long MAX_BACKOFF_MS = 1000;
+
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
+	@Value("${game.task-storage:embedded}")
+	private String taskStorage;
+
+	@Value("${game.task-write-lease-ms:30000}")
+	private long writeLease;
+
+	@Value("${game.mutation.max-attempts:5}")
+	private int maxAttempts;
+
+	@Value("${game.mutation.backoff-ms:20}")
+	private long backoffMs;
+
+	public boolean isEnabled() {
+		return COLLECTION_MODE.equalsIgnoreCase(taskStorage);
+	}
+
+	/**
+	 * Automatic index creation is disabled, indexes declared on the task
+	 * document are created here.
+	 */
+	@PostConstruct
+	public void ensureIndexes() {
+		if (!isEnabled()) {
+			return;
+		}
+		IndexOperations indexOps = this.mongoTemplate.indexOps(InterlinkTaskDocument.class);
+		new MongoPersistentEntityIndexResolver(this.mongoTemplate.getConverter().getMappingContext())
+				.resolveIndexFor(InterlinkTaskDocument.class).forEach(indexOps::ensureIndex);
+	}
+
+	/**
+	 * Move the tasks still embedded in game documents to the tasks collection.
+	 * Task documents are upserted by key, so an interrupted migration is resumed
+	 * on the next start.
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public void migrateEmbeddedTasks() {
+		if (!isEnabled()) {
+			return;
+		}
+		Query query = new Query(Criteria.where("taskList.0").exists(true));
+		query.fields().include("id").include("version").include("taskList");
+		int migrated = 0;
+		for (InterlinkGame game : this.mongoTemplate.find(query, InterlinkGame.class)) {
+			try {
+				writeLocked(game, new StoredTasks(game.getId()), new Update());
+				migrated++;
+			} catch (OptimisticLockingFailureException e) {
+				logger.warn("game {} changed during task migration, it will be migrated on next save",
+						game.getId());
+			}
+		}
+		if (migrated > 0) {
+			logger.info("moved tasks of {} games to the tasks collection", migrated);
+		}
+	}
+
+	/**
+	 * Attach the tasks collection to a game read from the games collection.
+	 * Games still embedding their tasks are left untouched, the tasks are moved
+	 * on the next save.
+	 * 
+	 * @param game
+	 * @return the game
+	 */
+	public InterlinkGame attach(InterlinkGame game) {
+		if (game != null && game.getTaskSource() == null && game.getTaskList().isEmpty()) {
+			game.setTaskSource(new StoredTasks(game.getId()), false);
+		}
+		return game;
+	}
+
+	/**
+	 * Save a game with its tasks. Only the task documents that changed since they
+	 * were read are written, then the game document is written without tasks and
+	 * with a new version.
+	 * 
+	 * @param game
+	 * @return the game
+	 * @throws OptimisticLockingFailureException if the game has been changed in
+	 *                                           the meantime
+	 */
+	public InterlinkGame save(InterlinkGame game) {
+		boolean isNew = game.getVersion() == null;
+		if (isNew) {
+			InterlinkGame root = new InterlinkGame();
+			root.setId(game.getId());
+			root.setName(game.getName());
+			root.setProcessId(game.getProcessId());
+			root.setTagList(game.getTagList());
+			root.setActive(game.isActive());
+			this.mongoTemplate.insert(root);
+			game.setId(root.getId());
+			game.setVersion(root.getVersion());
+		}
+		StoredTasks tasks = game.getTaskSource() instanceof StoredTasks ? (StoredTasks) game.getTaskSource()
+				: new StoredTasks(game.getId());
+		writeLocked(game, tasks, new Update().set("name", game.getName()).set("processId", game.getProcessId())
+				.set("tagList", game.getTagList()).set("active", game.isActive()));
+		if (game.getTaskSource() != tasks) {
+			game.setTaskSource(tasks, true);
+		}
+		return game;
+	}
+
+	/**
+	 * Delete the task documents of a game
+	 * 
+	 * @param gameId
+	 */
+	public void deleteTasks(String gameId) {
+		this.mongoTemplate.remove(new Query(Criteria.where("gameId").is(gameId)), InterlinkTaskDocument.class);
+	}
+
+	/**
+	 * Add a player to a task, or to a subtask when parentTaskId is not null, with
+	 * a single in-place update of the task document. The update matches only if
+	 * the task is not completed and the player is not already inside it.
+	 * 
+	 * @param gameId
+	 * @param parentTaskId
+	 * @param taskId
+	 * @param player
+	 * @return false if the game is not active or one of the preconditions failed
+	 */
+	public boolean addPlayer(String gameId, String parentTaskId, String taskId, InterlinkPlayer player) {
+		return updateTask(gameId, parentTaskId, taskId, Criteria.where("playerList.id").ne(player.getId()),
+				new Update().push("playerList", player));
+	}
+
+	/**
+	 * Remove a player from a task, or from a subtask when parentTaskId is not
+	 * null, with a single in-place update of the task document. The update
+	 * matches only if the task is not completed and the player is inside it.
+	 * 
+	 * @param gameId
+	 * @param parentTaskId
+	 * @param taskId
+	 * @param player
+	 * @return false if the game is not active or one of the preconditions failed
+	 */
+	public boolean removePlayer(String gameId, String parentTaskId, String taskId, InterlinkPlayer player) {
+		return updateTask(gameId, parentTaskId, taskId, Criteria.where("playerList.id").is(player.getId()),
+				new Update().pull("playerList", new Document("_id", player.getId())));
+	}
+
+	/**
+	 * The task document is written under the lease of the game and the game
+	 * version is increased afterwards, so that concurrent saves of an older copy
+	 * of the game conflict and retry. A game leased by another writer is tried
+	 * again after a backoff.
+	 */
+	private boolean updateTask(String gameId, String parentTaskId, String taskId, Criteria precondition,
+			Update update) {
+		Query task = new Query(Criteria.where("gameId").is(gameId).and("parentTaskId").is(parentTaskId)
+				.and("taskId").is(taskId).and("completed").is(false)).addCriteria(precondition);
+		for (int attempt = 1;; attempt++) {
+			if (!this.mongoTemplate.exists(task, InterlinkTaskDocument.class)) {
+				return false;
+			}
+			String token = lock(gameId, Criteria.where("active").is(true));
+			if (token == null) {
+				if (!this.mongoTemplate.exists(new Query(Criteria.where("id").is(gameId).and("active").is(true)),
+						InterlinkGame.class)) {
+					return false;
+				}
+				if (attempt >= maxAttempts) {
+					throw new OptimisticLockingFailureException("Game " + gameId + " is being written");
+				}
+				backoff(gameId, attempt);
+				continue;
+			}
+			boolean updated;
+			try {
+				updated = this.mongoTemplate.updateFirst(task, update, InterlinkTaskDocument.class)
+						.getMatchedCount() > 0;
+			} catch (RuntimeException e) {
+				unlock(gameId, token, new Update());
+				throw e;
+			}
+			if (!unlock(gameId, token, updated ? new Update().inc("version", 1) : new Update()) && updated) {
+				// the lease expired and the game may have been taken by another writer, make
+				// it conflict
+				logger.warn("lease on game {} expired during a task update", gameId);
+				this.mongoTemplate.updateFirst(new Query(Criteria.where("id").is(gameId)),
+						new Update().inc("version", 1), InterlinkGame.class);
+			}
+			return updated;
+		}
+	}
+
+	/**
+	 * Write the tasks of a game and then the game document, with a version check
+	 */
+	private void writeLocked(InterlinkGame game, StoredTasks tasks, Update update) {
+		String token = lock(game.getId(), Criteria.where("version").is(game.getVersion()));
+		if (token == null) {
+			throw new OptimisticLockingFailureException(
+					"Game " + game.getId() + " with version " + game.getVersion() + " has been modified");
+		}
+		try {
+			saveTasks(game, tasks);
+		} catch (RuntimeException e) {
+			unlock(game.getId(), token, new Update());
+			throw e;
+		}
+		update.set("taskList", new ArrayList<InterlinkTask>()).inc("version", 1);
+		if (!unlock(game.getId(), token, update)) {
+			throw new OptimisticLockingFailureException(
+					"Lease on game " + game.getId() + " expired while writing its tasks");
+		}
+		game.setVersion(game.getVersion() + 1);
+	}
+
+	/**
+	 * Lease the game document to a single writer
+	 * 
+	 * @return the token of the lease, null if the game does not match or is
+	 *         leased by another writer
+	 */
+	private String lock(String gameId, Criteria condition) {
+		String token = UUID.randomUUID().toString();
+		Date now = new Date();
+		Query query = new Query(Criteria.where("id").is(gameId)
+				.orOperator(Criteria.where(WRITE_LOCK).is(null), Criteria.where(WRITE_LOCK_UNTIL).lt(now)))
+				.addCriteria(condition);
+		Update lease = new Update().set(WRITE_LOCK, token).set(WRITE_LOCK_UNTIL,
+				new Date(now.getTime() + writeLease));
+		return this.mongoTemplate.updateFirst(query, lease, InterlinkGame.class).getMatchedCount() > 0 ? token
+				: null;
+	}
+
+	/**
+	 * Apply the update and release the lease in a single write
+	 * 
+	 * @return false if the lease is not held anymore
+	 */
+	private boolean unlock(String gameId, String token, Update update) {
+		update.unset(WRITE_LOCK).unset(WRITE_LOCK_UNTIL);
+		return this.mongoTemplate.updateFirst(new Query(Criteria.where("id").is(gameId).and(WRITE_LOCK).is(token)),
+				update, InterlinkGame.class).getMatchedCount() > 0;
+	}
+
+	private void backoff(String gameId, int attempt) {
+		long bound = Math.min(MAX_BACKOFF_MS, backoffMs << Math.min(attempt - 1, 16));
+		try {
+			Thread.sleep(ThreadLocalRandom.current().nextLong(bound + 1));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new OptimisticLockingFailureException("Interrupted waiting for game " + gameId);
+		}
+	}
+
+	/**
+	 * Write the tasks in memory that differ from the documents read. Tasks not
+	 * read at all are left untouched. Documents of subtasks missing from the
+	 * tasks in memory, and of tasks when the whole list is in memory, are
+	 * deleted with a single query, whether they were read or not.
+	 */
+	private void saveTasks(InterlinkGame game, StoredTasks stored) {
+		boolean complete = game.isTaskListLoaded();
+		List<InterlinkTask> tasks = complete ? game.getTaskList() : game.getLoadedTasks();
+		Map<String, InterlinkTaskDocument> current = new HashMap<String, InterlinkTaskDocument>();
+		List<Criteria> stale = new ArrayList<Criteria>();
+		for (int i = 0; i < tasks.size(); i++) {
+			InterlinkTask task = tasks.get(i);
+			InterlinkTaskDocument known = stored.snapshots.get(key(null, task.getId()));
+			int position = complete || known == null ? i : known.getPosition();
+			current.put(key(null, task.getId()), InterlinkTaskDocument.of(game.getId(), null, position, task));
+			List<String> subtaskIds = new ArrayList<String>();
+			if (task.getSubtaskList() != null) {
+				for (int j = 0; j < task.getSubtaskList().size(); j++) {
+					InterlinkTask subtask = task.getSubtaskList().get(j);
+					subtaskIds.add(subtask.getId());
+					current.put(key(task.getId(), subtask.getId()),
+							InterlinkTaskDocument.of(game.getId(), task.getId(), j, subtask));
+				}
+			}
+			stale.add(Criteria.where("parentTaskId").is(task.getId()).and("taskId").nin(subtaskIds));
+		}
+		if (complete) {
+			List<String> taskIds = tasks.stream().map(InterlinkTask::getId).collect(Collectors.toList());
+			List<String> parents = new ArrayList<String>(taskIds);
+			parents.add(null);
+			stale.add(Criteria.where("parentTaskId").is(null).and("taskId").nin(taskIds));
+			stale.add(Criteria.where("parentTaskId").nin(parents));
+		}
+		for (Map.Entry<String, InterlinkTaskDocument> entry : current.entrySet()) {
+			InterlinkTaskDocument doc = entry.getValue();
+			Update update = delta(stored.snapshots.get(entry.getKey()), doc);
+			if (update != null) {
+				this.mongoTemplate.upsert(keyQuery(doc), update, InterlinkTaskDocument.class);
+				stored.snapshots.put(entry.getKey(), doc);
+			}
+		}
+		if (!stale.isEmpty()) {
+			this.mongoTemplate.remove(new Query(Criteria.where("gameId").is(game.getId())
+					.orOperator(stale.toArray(new Criteria[stale.size()]))), InterlinkTaskDocument.class);
+		}
+		// every document read belongs to a task in memory
+		stored.snapshots.keySet().retainAll(current.keySet());
+	}
+
+	/**
+	 * @return the update turning the document read into the current one, null if
+	 *         they are the same
+	 */
+	private static Update delta(InterlinkTaskDocument known, InterlinkTaskDocument doc) {
+		Update update = new Update();
+		if (known == null || known.getPosition() != doc.getPosition()) {
+			update.set("position", doc.getPosition());
+		}
+		if (known == null || known.getManagement() != doc.getManagement()) {
+			update.set("management", doc.getManagement());
+		}
+		if (known == null || known.getDevelopment() != doc.getDevelopment()) {
+			update.set("development", doc.getDevelopment());
+		}
+		if (known == null || known.getExploitation() != doc.getExploitation()) {
+			update.set("exploitation", doc.getExploitation());
+		}
+		if (known == null || known.isCompleted() != doc.isCompleted()) {
+			update.set("completed", doc.isCompleted());
+		}
+		if (known == null) {
+			update.set("playerList", doc.getPlayerList());
+			return update;
+		}
+		Map<String, InterlinkPlayer> before = players(known);
+		Map<String, InterlinkPlayer> after = players(doc);
+		List<InterlinkPlayer> added = doc.getPlayerList().stream().filter(p -> !before.containsKey(p.getId()))
+				.collect(Collectors.toList());
+		List<String> removed = known.getPlayerList().stream().map(InterlinkPlayer::getId)
+				.filter(id -> !after.containsKey(id)).collect(Collectors.toList());
+		boolean modified = after.values().stream()
+				.anyMatch(p -> before.containsKey(p.getId()) && !samePlayer(before.get(p.getId()), p));
+		// claims and releases are pushed and pulled, so that players added in place
+		// by other requests are kept
+		if (modified || (!added.isEmpty() && !removed.isEmpty())) {
+			update.set("playerList", doc.getPlayerList());
+		} else if (!added.isEmpty()) {
+			update.push("playerList").each(added.toArray());
+		} else if (!removed.isEmpty()) {
+			update.pull("playerList", new Document("_id", new Document("$in", removed)));
+		}
+		return update.getUpdateObject().isEmpty() ? null : update;
+	}
+
+	private static Map<String, InterlinkPlayer> players(InterlinkTaskDocument doc) {
+		Map<String, InterlinkPlayer> players = new HashMap<String, InterlinkPlayer>();
+		doc.getPlayerList().forEach(p -> players.putIfAbsent(p.getId(), p));
+		return players;
+	}
+
+	private static boolean samePlayer(InterlinkPlayer a, InterlinkPlayer b) {
+		return Objects.equals(a.getName(), b.getName()) && a.getManagement() == b.getManagement()
+				&& a.getDevelopment() == b.getDevelopment() && a.getExploitation() == b.getExploitation();
+	}
+
+	private static Query keyQuery(InterlinkTaskDocument doc) {
+		return new Query(Criteria.where("gameId").is(doc.getGameId()).and("parentTaskId").is(doc.getParentTaskId())
+				.and("taskId").is(doc.getTaskId()));
+	}
+
+	private static String key(String parentTaskId, String taskId) {
+		return (parentTaskId != null ? parentTaskId : "") + KEY_SEPARATOR + taskId;
+	}
+
+	/**
+	 * Reads the tasks of a game and keeps a copy of the documents read, used to
+	 * write only what changed.
+	 */
+	private class StoredTasks implements InterlinkGame.TaskSource {
+
+		private final String gameId;
+
+		private final Map<String, InterlinkTaskDocument> snapshots = new ConcurrentHashMap<String, InterlinkTaskDocument>();
+
+		StoredTasks(String gameId) {
+			this.gameId = gameId;
+		}
+
+		@Override
+		public List<InterlinkTask> loadTasks() {
+			return assemble(mongoTemplate.find(new Query(Criteria.where("gameId").is(gameId)),
+					InterlinkTaskDocument.class));
+		}
+
+		@Override
+		public Optional<InterlinkTask> loadTask(String taskId) {
+			Criteria task = new Criteria().orOperator(
+					Criteria.where("parentTaskId").is(null).and("taskId").is(taskId),
+					Criteria.where("parentTaskId").is(taskId));
+			return assemble(mongoTemplate.find(new Query(Criteria.where("gameId").is(gameId)).addCriteria(task),
+					InterlinkTaskDocument.class)).stream().findFirst();
+		}
+
+		private List<InterlinkTask> assemble(List<InterlinkTaskDocument> docs) {
+			docs.sort(Comparator.comparingInt(InterlinkTaskDocument::getPosition));
+			Map<String, InterlinkTask> tasks = new HashMap<String, InterlinkTask>();
+			List<InterlinkTask> result = new ArrayList<InterlinkTask>();
+			Set<String> seen = new HashSet<String>();
+			for (InterlinkTaskDocument doc : docs) {
+				snapshots.put(key(doc.getParentTaskId(), doc.getTaskId()), doc);
+				if (doc.getParentTaskId() == null && seen.add(doc.getTaskId())) {
+					InterlinkTask task = doc.toTask();
+					tasks.put(doc.getTaskId(), task);
+					result.add(task);
+				}
+			}
+			for (InterlinkTaskDocument doc : docs) {
+				InterlinkTask task = doc.getParentTaskId() != null ? tasks.get(doc.getParentTaskId()) : null;
+				if (task != null) {
+					task.addSubtask(doc.toTask());
+				}
+			}
+			return result;
+		}
+	}
+
+}
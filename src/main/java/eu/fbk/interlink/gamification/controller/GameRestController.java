@@ -1,37 +1,71 @@
 package eu.fbk.interlink.gamification.controller;
 
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Profile;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.format.annotation.DateTimeFormat.ISO;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import eu.fbk.interlink.gamification.component.ExportComponent;
 import eu.fbk.interlink.gamification.component.GameComponent;
+import eu.fbk.interlink.gamification.component.GameEventHubComponent;
+import eu.fbk.interlink.gamification.component.GameMutationQueue;
+import eu.fbk.interlink.gamification.component.GameMutationResult;
+import eu.fbk.interlink.gamification.component.GameMutationTimeoutException;
+import eu.fbk.interlink.gamification.component.GameTeardownComponent;
 import eu.fbk.interlink.gamification.component.GamificationEngineFacadeComponent;
+import eu.fbk.interlink.gamification.component.LeaderboardComponent;
+import eu.fbk.interlink.gamification.component.LeaderboardIndexComponent;
+import eu.fbk.interlink.gamification.component.LeaderboardSnapshotComponent;
+import eu.fbk.interlink.gamification.component.StateVersionComponent;
+import eu.fbk.interlink.gamification.component.TaskChangedEvent;
+import eu.fbk.interlink.gamification.domain.GameTeardown;
 import eu.fbk.interlink.gamification.domain.InterlinkGame;
 import eu.fbk.interlink.gamification.domain.InterlinkGameTemplate;
 import eu.fbk.interlink.gamification.domain.InterlinkPlayer;
 import eu.fbk.interlink.gamification.domain.InterlinkTask;
+import eu.fbk.interlink.gamification.domain.LeaderboardRollupScope;
+import eu.fbk.interlink.gamification.domain.LeaderboardWindow;
+import eu.fbk.interlink.gamification.domain.PlayerRank;
 import eu.fbk.interlink.gamification.domain.PlayerScore;
-import eu.fbk.interlink.gamification.domain.PlayerStateDTO;
+import eu.fbk.interlink.gamification.domain.PlayerScoreSummary;
+import eu.fbk.interlink.gamification.domain.PlayerStateView;
 import eu.fbk.interlink.gamification.repository.InterLinkerRepository;
 import eu.fbk.interlink.gamification.util.ControllerUtils;
+import eu.fbk.interlink.gamification.util.InvalidRequestException;
 import eu.trentorise.game.model.GameStatistics;
 import eu.trentorise.game.model.PlayerState;
 import io.swagger.annotations.ApiParam;
@@ -46,12 +80,48 @@ public class GameRestController {
 	@Autowired
 	private GameComponent gameComponent;
 
+	@Autowired
+	private GameMutationQueue mutationQueue;
+
 	@Autowired
 	private GamificationEngineFacadeComponent gamificationComponent;
 
 	@Autowired
 	private InterLinkerRepository interlinkRepo;
 
+	@Autowired
+	private LeaderboardIndexComponent leaderboardIndexes;
+
+	@Autowired
+	private LeaderboardComponent leaderboard;
+
+	@Autowired
+	private LeaderboardSnapshotComponent snapshots;
+
+	@Autowired
+	private ExportComponent exports;
+
+	@Autowired
+	private StateVersionComponent stateVersions;
+
+	@Autowired
+	private GameEventHubComponent events;
+
+	@Autowired
+	private GameTeardownComponent teardowns;
+
+	@Autowired
+	private ApplicationEventPublisher publisher;
+
+	@Value("${game.leaderboard.rank.max-neighbours:50}")
+	private int maxNeighbours;
+
+	@Value("${game.player.batch-max-size:200}")
+	private int maxBatchPlayers;
+
+	@Value("${game.player.list-max-size:1000}")
+	private int maxListPlayers;
+
 	/**
 	 * Return all the games present in the DB
 	 * 
@@ -66,41 +136,78 @@ public class GameRestController {
 	 * Return the game with a specific gameId
 	 * 
 	 * @param gameId Game Id
-	 * @return Game
+	 * @return Game, not modified if the version in If-None-Match is current
 	 */
 	@GetMapping(value = "/game/{gameId}")
-	public Optional<InterlinkGame> getGame(@PathVariable String gameId) {
+	public Optional<InterlinkGame> getGame(@PathVariable String gameId, WebRequest request) {
 		gameId = ControllerUtils.decodePathVariable(gameId);
+		Optional<Long> version = gameComponent.findVersion(gameId);
+		if (version.isPresent() && request.checkNotModified(ControllerUtils.etag(version.get()))) {
+			return null;
+		}
 		Optional<InterlinkGame> game = gameComponent.findById(gameId);
 
 		return game;
 	}
+
+	/**
+	 * Subscribe to the task changes and the player score deltas of a game with
+	 * server-sent events
+	 * 
+	 * @param gameId Game Id
+	 * @return stream of task, score and player events
+	 */
+	@GetMapping(value = "/game/{gameId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public ResponseEntity<?> subscribeEvents(@PathVariable String gameId) {
+		gameId = ControllerUtils.decodePathVariable(gameId);
+		Optional<InterlinkGame> game = gameComponent.findById(gameId);
+		if (game.isEmpty()) {
+			return new ResponseEntity("Game " + gameId + " not found", HttpStatus.NOT_FOUND);
+		}
+		Optional<SseEmitter> emitter = events
+				.subscribe(ControllerUtils.getGameId(game.get().getProcessId(), game.get().getName()));
+		if (!emitter.isPresent()) {
+			return new ResponseEntity("Too many subscribers", HttpStatus.SERVICE_UNAVAILABLE);
+		}
+		return new ResponseEntity(emitter.get(), HttpStatus.OK);
+	}
 	
 	/**
-	 * Return the game with a specific gameId
+	 * Suspend the game and remove it with its player states in background
 	 * 
 	 * @param gameId Game Id
-	 * @return Game
+	 * @return status of the teardown, to poll at /game/{gameId}/teardown
 	 */
 	@DeleteMapping(value = "/game/{gameId}")
-	public void deleteGame(@PathVariable String gameId) {
+	public ResponseEntity<?> deleteGame(@PathVariable String gameId) {
 		gameId = ControllerUtils.decodePathVariable(gameId);
 		Optional<InterlinkGame> game = gameComponent.findById(gameId);
 
 		if (game.isEmpty()) {
-			return;
+			Optional<GameTeardown> teardown = teardowns.find(gameId);
+			if (teardown.isPresent()) {
+				return new ResponseEntity(teardown.get(), HttpStatus.OK);
+			}
+			return new ResponseEntity("Game " + gameId + " not found", HttpStatus.NOT_FOUND);
 		}
 
-		for (InterlinkTask td: game.get().getTaskList()) {
-			List<InterlinkPlayer> players = td.getPlayers();
-			for (InterlinkPlayer p: players) {
-				this.gamificationComponent.deletePlayerState(game.get().getProcessId(), game.get().getName(), p.getId());
-			}
+		return new ResponseEntity(teardowns.start(game.get()), HttpStatus.ACCEPTED);
+	}
+
+	/**
+	 * Return the status of the removal of a game
+	 * 
+	 * @param gameId Game Id
+	 * @return status of the last teardown of the game
+	 */
+	@GetMapping(value = "/game/{gameId}/teardown")
+	public ResponseEntity<?> getTeardown(@PathVariable String gameId) {
+		gameId = ControllerUtils.decodePathVariable(gameId);
+		Optional<GameTeardown> teardown = teardowns.find(gameId);
+		if (teardown.isEmpty()) {
+			return new ResponseEntity("No teardown of game " + gameId, HttpStatus.NOT_FOUND);
 		}
-		
-		String coreGameId = ControllerUtils.getGameId(game.get().getProcessId(), game.get().getName());
-		gameComponent.deleteGameById(gameId);
-		interlinkRepo.deleteGameRule(coreGameId);
+		return new ResponseEntity(teardown.get(), HttpStatus.OK);
 	}
 
 	/**
@@ -175,16 +282,31 @@ public class GameRestController {
 	@PutMapping(value = "/game")
 	public ResponseEntity<?> updateGame(@RequestBody InterlinkGame game) {
 
-		if ((game.getId() == null) || (gameComponent.findById(game.getId()).isEmpty())) {
+		if (game.getId() == null) {
 			return new ResponseEntity("Game is not present", HttpStatus.PRECONDITION_FAILED);
 		}
 
-		if (!gameComponent.findById(game.getId()).get().isActive()) {
-			return new ResponseEntity("Game is suspended", HttpStatus.PRECONDITION_FAILED);
-		}
+		return mutationQueue.submit(game.getId(), saved -> {
+			if (saved.isEmpty()) {
+				return GameMutationResult.unchanged(new ResponseEntity("Game is not present", HttpStatus.PRECONDITION_FAILED));
+			}
+
+			if (!saved.get().isActive()) {
+				return GameMutationResult.unchanged(new ResponseEntity("Game is suspended", HttpStatus.PRECONDITION_FAILED));
+			}
 
-		gameComponent.saveOrUpdateGame(game);
-		return new ResponseEntity("Game updated successfully", HttpStatus.OK);
+			if (game.getVersion() != null && !game.getVersion().equals(saved.get().getVersion())) {
+				return GameMutationResult.unchanged(new ResponseEntity("Game has been modified", HttpStatus.CONFLICT));
+			}
+
+			// the whole game is replaced by the one received
+			saved.get().setName(game.getName());
+			saved.get().setProcessId(game.getProcessId());
+			saved.get().setTagList(game.getTagList());
+			saved.get().setTaskList(game.getTaskList());
+			saved.get().setActive(game.isActive());
+			return GameMutationResult.changed(new ResponseEntity("Game updated successfully", HttpStatus.OK));
+		});
 	}
 
 	/**
@@ -199,17 +321,10 @@ public class GameRestController {
 			@PathVariable(name = "taskId") String taskId) {
 		gameId = ControllerUtils.decodePathVariable(gameId);
 		Optional<InterlinkGame> game = gameComponent.findById(gameId);
-		Optional<InterlinkTask> task = null;
 		if (!game.isPresent())
 			return Optional.empty();
 
-		for (InterlinkTask element : game.get().getTaskList()) {
-			if (element.getId().equals(taskId)) {
-				task = Optional.of(element);
-				break;
-			}
-		}
-		return task;
+		return game.get().findTask(taskId);
 	}
 
 	/**
@@ -222,50 +337,50 @@ public class GameRestController {
 	@PutMapping(value = "/game/{gameId}/task")
 	public ResponseEntity<?> updateTask(@PathVariable String gameId, @RequestBody InterlinkTask task) {
 
-		gameId = ControllerUtils.decodePathVariable(gameId);
-		Optional<InterlinkGame> game = gameComponent.findById(gameId);
+		String idGame = ControllerUtils.decodePathVariable(gameId);
+		return mutationQueue.submit(idGame, game -> {
 
-		if (!game.isPresent()) {
-			return new ResponseEntity("Game is not present", HttpStatus.PRECONDITION_FAILED);
-		}
+			if (!game.isPresent()) {
+				return GameMutationResult.unchanged(new ResponseEntity("Game is not present", HttpStatus.PRECONDITION_FAILED));
+			}
 
-		if (!game.get().isActive()) {
-			return new ResponseEntity("Game is suspended", HttpStatus.PRECONDITION_FAILED);
-		}
+			if (!game.get().isActive()) {
+				return GameMutationResult.unchanged(new ResponseEntity("Game is suspended", HttpStatus.PRECONDITION_FAILED));
+			}
 
-		InterlinkTask savedTask = game.get().getTaskList().stream().filter(t -> task.getId().equals(t.getId()))
-				.findAny().orElse(null);
+			InterlinkTask savedTask = game.get().findTask(task.getId()).orElse(null);
 
-		if (savedTask != null) {
-			
-			if (savedTask.isCompleted()) {
-				return new ResponseEntity("Task is already completed", HttpStatus.PRECONDITION_FAILED);
-			}
-			
-			savedTask.setCompleted(task.isCompleted());
-			savedTask.setDevelopment(task.getDevelopment());
-			savedTask.setExploitation(task.getExploitation());
-			savedTask.setManagement(task.getManagement());
-			savedTask.setSubtaskList(task.getSubtaskList());
-
-			for (InterlinkPlayer updated : task.getPlayers()) {
-				InterlinkPlayer savedPlayer = savedTask.getPlayers().stream()
-						.filter(p -> p.getId().equals(updated.getId())).findAny().orElse(null);
-				if (savedPlayer != null) {
-					savedPlayer.setName(updated.getName());
-					savedPlayer.setDevelopment(updated.getDevelopment());
-					savedPlayer.setExploitation(updated.getExploitation());
-					savedPlayer.setManagement(updated.getManagement());
-				} else {
-					savedTask.getPlayers().add(updated);
+			if (savedTask != null) {
+				
+				if (savedTask.isCompleted()) {
+					return GameMutationResult.unchanged(new ResponseEntity("Task is already completed", HttpStatus.PRECONDITION_FAILED));
+				}
+				
+				savedTask.setCompleted(task.isCompleted());
+				savedTask.setDevelopment(task.getDevelopment());
+				savedTask.setExploitation(task.getExploitation());
+				savedTask.setManagement(task.getManagement());
+				savedTask.setSubtaskList(task.getSubtaskList());
+				game.get().invalidateTaskIndex();
+
+				for (InterlinkPlayer updated : task.getPlayers()) {
+					InterlinkPlayer savedPlayer = savedTask.getPlayers().stream()
+							.filter(p -> p.getId().equals(updated.getId())).findAny().orElse(null);
+					if (savedPlayer != null) {
+						savedPlayer.setName(updated.getName());
+						savedPlayer.setDevelopment(updated.getDevelopment());
+						savedPlayer.setExploitation(updated.getExploitation());
+						savedPlayer.setManagement(updated.getManagement());
+					} else {
+						savedTask.getPlayers().add(updated);
+					}
 				}
+				return GameMutationResult.changed(new ResponseEntity(game.get(), HttpStatus.OK));
+			} else {
+				return GameMutationResult.unchanged(new ResponseEntity("Task " + task.getId() + " not present inside game",
+						HttpStatus.PRECONDITION_FAILED));
 			}
-			InterlinkGame result = gameComponent.saveOrUpdateGame(game.get());
-			return new ResponseEntity(result, HttpStatus.OK);
-		} else {
-			return new ResponseEntity("Task " + task.getId() + " not present inside game",
-					HttpStatus.PRECONDITION_FAILED);
-		}
+		});
 	}
 
 	/**
@@ -282,6 +397,13 @@ public class GameRestController {
 		gameId = ControllerUtils.decodePathVariable(gameId);
 		String idTask = ControllerUtils.decodePathVariable(taskId);
 
+		Optional<InterlinkGame> result = gameComponent.addPlayerToTask(gameId, idTask, player);
+		if (result.isPresent()) {
+			publishTaskChanged(result.get(), idTask, null, TaskChangedEvent.CLAIM, player.getId());
+			return new ResponseEntity(result.get(), HttpStatus.OK);
+		}
+
+		// the update did not match, read the game to report the failed precondition
 		Optional<InterlinkGame> game = gameComponent.findById(gameId);
 		if (!game.isPresent()) {
 			return new ResponseEntity("Game is not present", HttpStatus.PRECONDITION_FAILED);
@@ -291,8 +413,7 @@ public class GameRestController {
 			return new ResponseEntity("Game is suspended", HttpStatus.PRECONDITION_FAILED);
 		}
 
-		InterlinkTask task = game.get().getTaskList().stream().filter(t -> idTask.equals(t.getId())).findAny()
-				.orElse(null);
+		InterlinkTask task = game.get().findTask(idTask).orElse(null);
 
 		if (task != null) {
 			
@@ -300,20 +421,12 @@ public class GameRestController {
 				return new ResponseEntity("Task is already completed ",	HttpStatus.PRECONDITION_FAILED);
 			}
 			
-			boolean update = false;
 			InterlinkPlayer isPresent = task.getPlayers().stream()
 					.filter(findPlayer -> player.getId().equals(findPlayer.getId())).findAny().orElse(null);
-			if (isPresent == null) {
-				task.addPlayer(player);
-				update = true;
-			} else {
+			if (isPresent != null) {
 				return new ResponseEntity("Player " + player.getId() + " already present inside task " + taskId,
 						HttpStatus.PRECONDITION_FAILED);
 			}
-			if (update) {
-				InterlinkGame result = gameComponent.saveOrUpdateGame(game.get());
-				return new ResponseEntity(result, HttpStatus.OK);
-			}
 		} else {
 			return new ResponseEntity("Task " + taskId + " not present inside game", HttpStatus.PRECONDITION_FAILED);
 		}
@@ -336,6 +449,15 @@ public class GameRestController {
 		gameId = ControllerUtils.decodePathVariable(gameId);
 		String idTask = ControllerUtils.decodePathVariable(taskId);
 
+		Optional<InterlinkGame> result = gameComponent.removePlayerFromTask(gameId, idTask, player);
+		if (result.isPresent()) {
+			publishTaskChanged(result.get(), idTask, null, TaskChangedEvent.REMOVE_PLAYER, player.getId());
+			// remove from player state
+			deletePlayerState(gameId, player.getId());
+			return new ResponseEntity(result.get(), HttpStatus.OK);
+		}
+
+		// the update did not match, read the game to report the failed precondition
 		Optional<InterlinkGame> game = gameComponent.findById(gameId);
 		if (!game.isPresent()) {
 			return new ResponseEntity("Game is not present", HttpStatus.PRECONDITION_FAILED);
@@ -345,8 +467,7 @@ public class GameRestController {
 			return new ResponseEntity("Game is suspended", HttpStatus.PRECONDITION_FAILED);
 		}
 
-		InterlinkTask task = game.get().getTaskList().stream().filter(t -> idTask.equals(t.getId())).findAny()
-				.orElse(null);
+		InterlinkTask task = game.get().findTask(idTask).orElse(null);
 
 		if (task != null) {
 			
@@ -354,22 +475,12 @@ public class GameRestController {
 				return new ResponseEntity("Task already completed", HttpStatus.PRECONDITION_FAILED);
 			}
 			
-			boolean update = false;
 			InterlinkPlayer isPresent = task.getPlayers().stream()
 					.filter(findPlayer -> player.getId().equals(findPlayer.getId())).findAny().orElse(null);
-			if (isPresent != null) {
-				task.removePlayer(player);
-				update = true;
-			} else {
+			if (isPresent == null) {
 				return new ResponseEntity("Player " + player.getId() + " not present inside task " + taskId,
 						HttpStatus.PRECONDITION_FAILED);
 			}
-			if (update) {
-				InterlinkGame result = gameComponent.saveOrUpdateGame(game.get());
-				// remove from player state
-				this.gamificationComponent.deletePlayerState(game.get().getProcessId(), game.get().getName(), player.getId());
-				return new ResponseEntity(result, HttpStatus.OK);
-			}
 		} else {
 			return new ResponseEntity("Task " + taskId + " not present inside game", HttpStatus.PRECONDITION_FAILED);
 		}
@@ -388,39 +499,40 @@ public class GameRestController {
 	@PutMapping(value = "/game/{gameId}/task/{taskId}/complete")
 	public ResponseEntity<?> completeTask(@PathVariable(name = "gameId") String gameId,
 			@PathVariable(name = "taskId") String taskId) {
-		gameId = ControllerUtils.decodePathVariable(gameId);
-		Optional<InterlinkGame> game = gameComponent.findById(gameId);
-		if (!game.isPresent()) {
-			return new ResponseEntity("Game is not present", HttpStatus.PRECONDITION_FAILED);
-		}
-		if (!game.get().isActive()) {
-			return new ResponseEntity("Game is suspended", HttpStatus.PRECONDITION_FAILED);
-		}
-		InterlinkTask savedTask = game.get().getTaskList().stream().filter(t -> taskId.equals(t.getId())).findAny()
-				.orElse(null);
-		if (savedTask != null) {
-			if (savedTask.isCompleted()) {
-				return new ResponseEntity("Task already completed ", HttpStatus.PRECONDITION_FAILED);
-			}
-			// update subtask player points
-			for (InterlinkTask subtask : savedTask.getSubtaskList()) {
-				if (!subtask.isCompleted()) {
-					return new ResponseEntity("You have to complete  subtask " + subtask.getId()
-							+ " before to complete the task " + savedTask.getId(), HttpStatus.PRECONDITION_FAILED);
-				}
+		String idGame = ControllerUtils.decodePathVariable(gameId);
+		return mutationQueue.submit(idGame, game -> {
+			if (!game.isPresent()) {
+				return GameMutationResult.unchanged(new ResponseEntity("Game is not present", HttpStatus.PRECONDITION_FAILED));
 			}
-			// update task the player points
-			for (InterlinkPlayer player : savedTask.getPlayers()) {
-				gamificationComponent.triggerAction(game.get().getProcessId(), game.get().getName(),
-						"update_player_points", player, savedTask);
+			if (!game.get().isActive()) {
+				return GameMutationResult.unchanged(new ResponseEntity("Game is suspended", HttpStatus.PRECONDITION_FAILED));
 			}
-			savedTask.setCompleted(true);
-			InterlinkGame result = gameComponent.saveOrUpdateGame(game.get());
-			return new ResponseEntity(result, HttpStatus.OK);
-		} else {
-			return new ResponseEntity("Task " + taskId + " is not present in game " + gameId,
-					HttpStatus.PRECONDITION_FAILED);
-		}
+			InterlinkTask savedTask = game.get().findTask(taskId).orElse(null);
+			if (savedTask != null) {
+				if (savedTask.isCompleted()) {
+					return GameMutationResult.unchanged(new ResponseEntity("Task already completed ", HttpStatus.PRECONDITION_FAILED));
+				}
+				// update subtask player points
+				for (InterlinkTask subtask : savedTask.getSubtaskList()) {
+					if (!subtask.isCompleted()) {
+						return GameMutationResult.unchanged(new ResponseEntity("You have to complete  subtask " + subtask.getId()
+								+ " before to complete the task " + savedTask.getId(), HttpStatus.PRECONDITION_FAILED));
+					}
+				}
+				savedTask.setCompleted(true);
+				// update task the player points once the completion is saved
+				return GameMutationResult.changed(new ResponseEntity(game.get(), HttpStatus.OK)).afterCommit(() -> {
+					publishTaskChanged(game.get(), savedTask.getId(), null, TaskChangedEvent.COMPLETE, null);
+					for (InterlinkPlayer player : savedTask.getPlayers()) {
+						gamificationComponent.triggerAction(game.get().getProcessId(), game.get().getName(),
+								"update_player_points", player, savedTask);
+					}
+				});
+			} else {
+				return GameMutationResult.unchanged(new ResponseEntity("Task " + taskId + " is not present in game " + idGame,
+						HttpStatus.PRECONDITION_FAILED));
+			}
+		});
 	}
 	
 	/**
@@ -433,33 +545,34 @@ public class GameRestController {
 	@PutMapping(value = "/game/{gameId}/task/{taskId}/revert")
 	public ResponseEntity<?> revertTask(@PathVariable(name = "gameId") String gameId,
 			@PathVariable(name = "taskId") String taskId) {
-		gameId = ControllerUtils.decodePathVariable(gameId);
-		Optional<InterlinkGame> game = gameComponent.findById(gameId);
-		if (!game.isPresent()) {
-			return new ResponseEntity("Game is not present", HttpStatus.PRECONDITION_FAILED);
-		}
-		if (!game.get().isActive()) {
-			return new ResponseEntity("Game is suspended", HttpStatus.PRECONDITION_FAILED);
-		}
-		InterlinkTask savedTask = game.get().getTaskList().stream().filter(t -> taskId.equals(t.getId())).findAny()
-				.orElse(null);
-		if (savedTask != null) {
-			if (!savedTask.isCompleted()) {
-				return new ResponseEntity("Task " + savedTask.getId() + "must be completed first.",
-						HttpStatus.PRECONDITION_FAILED);
+		String idGame = ControllerUtils.decodePathVariable(gameId);
+		return mutationQueue.submit(idGame, game -> {
+			if (!game.isPresent()) {
+				return GameMutationResult.unchanged(new ResponseEntity("Game is not present", HttpStatus.PRECONDITION_FAILED));
 			}
-			// revert task with player points
-			for (InterlinkPlayer player : savedTask.getPlayers()) {
-				gamificationComponent.triggerAction(game.get().getProcessId(), game.get().getName(),
-						"revert_player_points", player, savedTask);
+			if (!game.get().isActive()) {
+				return GameMutationResult.unchanged(new ResponseEntity("Game is suspended", HttpStatus.PRECONDITION_FAILED));
 			}
-			savedTask.setCompleted(false);
-			InterlinkGame result = gameComponent.saveOrUpdateGame(game.get());
-			return new ResponseEntity(result, HttpStatus.OK);
-		} else {
-			return new ResponseEntity("Task " + taskId + " is not present in game " + gameId,
-					HttpStatus.PRECONDITION_FAILED);
-		}
+			InterlinkTask savedTask = game.get().findTask(taskId).orElse(null);
+			if (savedTask != null) {
+				if (!savedTask.isCompleted()) {
+					return GameMutationResult.unchanged(new ResponseEntity("Task " + savedTask.getId() + "must be completed first.",
+							HttpStatus.PRECONDITION_FAILED));
+				}
+				savedTask.setCompleted(false);
+				// revert task with player points once the change is saved
+				return GameMutationResult.changed(new ResponseEntity(game.get(), HttpStatus.OK)).afterCommit(() -> {
+					publishTaskChanged(game.get(), savedTask.getId(), null, TaskChangedEvent.REVERT, null);
+					for (InterlinkPlayer player : savedTask.getPlayers()) {
+						gamificationComponent.triggerAction(game.get().getProcessId(), game.get().getName(),
+								"revert_player_points", player, savedTask);
+					}
+				});
+			} else {
+				return GameMutationResult.unchanged(new ResponseEntity("Task " + taskId + " is not present in game " + idGame,
+						HttpStatus.PRECONDITION_FAILED));
+			}
+		});
 	}
 
 	/**
@@ -474,38 +587,34 @@ public class GameRestController {
 	public ResponseEntity<?> newSubtask(@PathVariable(name = "gameId") String gameId,
 			@PathVariable(name = "taskId") String taskId, @RequestBody InterlinkTask subtask) {
 
-		gameId = ControllerUtils.decodePathVariable(gameId);
-		Optional<InterlinkGame> game = gameComponent.findById(gameId);
-
-		if (!game.isPresent()) {
-			return new ResponseEntity("Game is not present", HttpStatus.PRECONDITION_FAILED);
-		}
-
-		if (!game.get().isActive()) {
-			return new ResponseEntity("Game is suspended", HttpStatus.PRECONDITION_FAILED);
-		}
+		String idGame = ControllerUtils.decodePathVariable(gameId);
 
 		if (ControllerUtils.isEmpty(subtask.getId())) {
 			return new ResponseEntity("subTask Id cannot be null", HttpStatus.BAD_REQUEST);
 		}
 
-		boolean update = false;
+		return mutationQueue.submit(idGame, game -> {
 
-		for (InterlinkTask element : game.get().getTaskList()) {
-			if (element.getId().equals(taskId)) {
-				for (InterlinkTask subElement : element.getSubtaskList()) {
-					if (subElement.getId().equals(subtask.getId()))
-						return new ResponseEntity("Subtask " + subtask.getId() + "  already present",
-								HttpStatus.PRECONDITION_FAILED);
-				}
+			if (!game.isPresent()) {
+				return GameMutationResult.unchanged(new ResponseEntity("Game is not present", HttpStatus.PRECONDITION_FAILED));
+			}
 
-				element.getSubtaskList().add(subtask);
+			if (!game.get().isActive()) {
+				return GameMutationResult.unchanged(new ResponseEntity("Game is suspended", HttpStatus.PRECONDITION_FAILED));
+			}
 
+			if (game.get().findSubtask(taskId, subtask.getId()).isPresent()) {
+				return GameMutationResult.unchanged(new ResponseEntity("Subtask " + subtask.getId() + "  already present",
+						HttpStatus.PRECONDITION_FAILED));
+			}
+
+			if (!game.get().addSubtask(taskId, subtask)) {
+				// unknown task, nothing to save
+				return GameMutationResult.unchanged(new ResponseEntity(game.get(), HttpStatus.OK));
 			}
-		}
 
-		InterlinkGame result = gameComponent.saveOrUpdateGame(game.get());
-		return new ResponseEntity(result, HttpStatus.OK);
+			return GameMutationResult.changed(new ResponseEntity(game.get(), HttpStatus.OK));
+		});
 	}
 
 	/**
@@ -532,17 +641,7 @@ public class GameRestController {
 			return subtask;
 		}
 
-		for (InterlinkTask element : game.get().getTaskList()) {
-			if (element.getId().equals(taskId)) {
-				for (InterlinkTask subElement : element.getSubtaskList()) {
-					if (subElement.getId().equals(subtaskId))
-						subtask = Optional.of(subElement);
-				}
-
-			}
-		}
-
-		return subtask;
+		return game.get().findSubtask(taskId, subtaskId);
 	}
 
 	/**
@@ -559,6 +658,14 @@ public class GameRestController {
 			@RequestBody InterlinkPlayer player) {
 
 		gameId = ControllerUtils.decodePathVariable(gameId);
+
+		Optional<InterlinkGame> result = gameComponent.addPlayerToSubtask(gameId, taskId, subtaskId, player);
+		if (result.isPresent()) {
+			publishTaskChanged(result.get(), taskId, subtaskId, TaskChangedEvent.CLAIM, player.getId());
+			return new ResponseEntity(result.get(), HttpStatus.OK);
+		}
+
+		// the update did not match, read the game to report the failed precondition
 		Optional<InterlinkGame> game = gameComponent.findById(gameId);
 
 		if (!game.isPresent()) {
@@ -569,12 +676,10 @@ public class GameRestController {
 			return new ResponseEntity("Game is suspended", HttpStatus.PRECONDITION_FAILED);
 		}
 
-		InterlinkTask task = game.get().getTaskList().stream().filter(t -> taskId.equals(t.getId())).findAny()
-				.orElse(null);
+		InterlinkTask task = game.get().findTask(taskId).orElse(null);
 
 		if (task != null) {
-			InterlinkTask subTask = task.getSubtaskList().stream().filter(st -> subtaskId.equals(st.getId())).findAny()
-					.orElse(null);
+			InterlinkTask subTask = game.get().findSubtask(task.getId(), subtaskId).orElse(null);
 			if (subTask != null) {
 				
 				if (subTask.isCompleted()) {
@@ -583,11 +688,7 @@ public class GameRestController {
 				
 				InterlinkPlayer isPresent = subTask.getPlayers().stream().filter(p -> player.getId().equals(p.getId()))
 						.findAny().orElse(null);
-				if (isPresent == null) {
-					subTask.addPlayer(player);
-					InterlinkGame result = gameComponent.saveOrUpdateGame(game.get());
-					return new ResponseEntity(result, HttpStatus.OK);
-				} else {
+				if (isPresent != null) {
 					return new ResponseEntity("Player " + player.getId() + " already present inside task " + taskId,
 							HttpStatus.PRECONDITION_FAILED);
 				}
@@ -613,6 +714,16 @@ public class GameRestController {
 			@RequestBody InterlinkPlayer player) {
 
 		gameId = ControllerUtils.decodePathVariable(gameId);
+
+		Optional<InterlinkGame> result = gameComponent.removePlayerFromSubtask(gameId, taskId, subtaskId, player);
+		if (result.isPresent()) {
+			publishTaskChanged(result.get(), taskId, subtaskId, TaskChangedEvent.REMOVE_PLAYER, player.getId());
+			// remove from player state
+			deletePlayerState(gameId, player.getId());
+			return new ResponseEntity(result.get(), HttpStatus.OK);
+		}
+
+		// the update did not match, read the game to report the failed precondition
 		Optional<InterlinkGame> game = gameComponent.findById(gameId);
 
 		if (!game.isPresent()) {
@@ -623,12 +734,10 @@ public class GameRestController {
 			return new ResponseEntity("Game is suspended", HttpStatus.PRECONDITION_FAILED);
 		}
 
-		InterlinkTask task = game.get().getTaskList().stream().filter(t -> taskId.equals(t.getId())).findAny()
-				.orElse(null);
+		InterlinkTask task = game.get().findTask(taskId).orElse(null);
 
 		if (task != null) {
-			InterlinkTask subTask = task.getSubtaskList().stream().filter(st -> subtaskId.equals(st.getId())).findAny()
-					.orElse(null);
+			InterlinkTask subTask = game.get().findSubtask(task.getId(), subtaskId).orElse(null);
 			if (subTask != null) {
 				
 				if (subTask.isCompleted()) {
@@ -637,13 +746,7 @@ public class GameRestController {
 				
 				InterlinkPlayer isPresent = subTask.getPlayers().stream().filter(p -> player.getId().equals(p.getId()))
 						.findAny().orElse(null);
-				if (isPresent != null) {
-					subTask.removePlayer(player);
-					InterlinkGame result = gameComponent.saveOrUpdateGame(game.get());
-					// remove from player state
-					this.gamificationComponent.deletePlayerState(game.get().getProcessId(), game.get().getName(), player.getId());
-					return new ResponseEntity(result, HttpStatus.OK);
-				} else {
+				if (isPresent == null) {
 					return new ResponseEntity("Player " + player.getId() + " not present inside subtask " + subtaskId,
 							HttpStatus.PRECONDITION_FAILED);
 				}
@@ -666,40 +769,40 @@ public class GameRestController {
 	@PutMapping(value = "/game/{gameId}/task/{taskId}/subtask/{subtaskId}/complete")
 	public ResponseEntity<?> completeSubtask(@PathVariable(name = "gameId") String gameId,
 			@PathVariable(name = "taskId") String taskId, @PathVariable(name = "subtaskId") String subtaskId) {
-		gameId = ControllerUtils.decodePathVariable(gameId);
-		Optional<InterlinkGame> game = gameComponent.findById(gameId);
-		if (!game.isPresent()) {
-			return new ResponseEntity("Game is not present", HttpStatus.PRECONDITION_FAILED);
-		}
-		if (!game.get().isActive()) {
-			return new ResponseEntity("Game is suspended", HttpStatus.PRECONDITION_FAILED);
-		}
-		InterlinkTask savedTask = game.get().getTaskList().stream().filter(t -> taskId.equals(t.getId())).findAny()
-				.orElse(null);
-		if (savedTask != null) {
-			InterlinkTask savedSubTask = savedTask.getSubtaskList().stream().filter(st -> subtaskId.equals(st.getId()))
-					.findAny().orElse(null);
-			if (savedSubTask != null) {
-				if (savedSubTask.isCompleted()) {
-					return new ResponseEntity("Subtask already completed", HttpStatus.PRECONDITION_FAILED);
-				}
-				// trigger player points assignment
-				for (InterlinkPlayer player : savedSubTask.getPlayers()) {
-					gamificationComponent.triggerAction(game.get().getProcessId(), game.get().getName(),
-							"update_player_points", player, savedSubTask);
+		String idGame = ControllerUtils.decodePathVariable(gameId);
+		return mutationQueue.submit(idGame, game -> {
+			if (!game.isPresent()) {
+				return GameMutationResult.unchanged(new ResponseEntity("Game is not present", HttpStatus.PRECONDITION_FAILED));
+			}
+			if (!game.get().isActive()) {
+				return GameMutationResult.unchanged(new ResponseEntity("Game is suspended", HttpStatus.PRECONDITION_FAILED));
+			}
+			InterlinkTask savedTask = game.get().findTask(taskId).orElse(null);
+			if (savedTask != null) {
+				InterlinkTask savedSubTask = game.get().findSubtask(savedTask.getId(), subtaskId).orElse(null);
+				if (savedSubTask != null) {
+					if (savedSubTask.isCompleted()) {
+						return GameMutationResult.unchanged(new ResponseEntity("Subtask already completed", HttpStatus.PRECONDITION_FAILED));
+					}
+					savedSubTask.setCompleted(true);
+					// trigger player points assignment once the completion is saved
+					return GameMutationResult.changed(new ResponseEntity(game.get(), HttpStatus.OK)).afterCommit(() -> {
+						publishTaskChanged(game.get(), savedTask.getId(), subtaskId, TaskChangedEvent.COMPLETE, null);
+						for (InterlinkPlayer player : savedSubTask.getPlayers()) {
+							gamificationComponent.triggerAction(game.get().getProcessId(), game.get().getName(),
+									"update_player_points", player, savedSubTask);
+						}
+					});
+				} else {
+					return GameMutationResult.unchanged(new ResponseEntity("SubTask " + subtaskId + " is not present in task " + taskId,
+							HttpStatus.PRECONDITION_FAILED));
 				}
-				savedSubTask.setCompleted(true);
-				InterlinkGame result = gameComponent.saveOrUpdateGame(game.get());
-				return new ResponseEntity(result, HttpStatus.OK);
+
 			} else {
-				return new ResponseEntity("SubTask " + subtaskId + " is not present in task " + taskId,
-						HttpStatus.PRECONDITION_FAILED);
+				return GameMutationResult.unchanged(new ResponseEntity("Task " + taskId + " is not present in game " + idGame,
+						HttpStatus.PRECONDITION_FAILED));
 			}
-
-		} else {
-			return new ResponseEntity("Task " + taskId + " is not present in game " + gameId,
-					HttpStatus.PRECONDITION_FAILED);
-		}
+		});
 	}
 	
 	/**
@@ -713,41 +816,41 @@ public class GameRestController {
 	@PutMapping(value = "/game/{gameId}/task/{taskId}/subtask/{subtaskId}/revert")
 	public ResponseEntity<?> revertSubtask(@PathVariable(name = "gameId") String gameId,
 			@PathVariable(name = "taskId") String taskId, @PathVariable(name = "subtaskId") String subtaskId) {
-		gameId = ControllerUtils.decodePathVariable(gameId);
-		Optional<InterlinkGame> game = gameComponent.findById(gameId);
-		if (!game.isPresent()) {
-			return new ResponseEntity("Game is not present", HttpStatus.PRECONDITION_FAILED);
-		}
-		if (!game.get().isActive()) {
-			return new ResponseEntity("Game is suspended", HttpStatus.PRECONDITION_FAILED);
-		}
-		InterlinkTask savedTask = game.get().getTaskList().stream().filter(t -> taskId.equals(t.getId())).findAny()
-				.orElse(null);
-		if (savedTask != null) {
-			InterlinkTask savedSubTask = savedTask.getSubtaskList().stream().filter(st -> subtaskId.equals(st.getId()))
-					.findAny().orElse(null);
-			if (savedSubTask != null) {
-				if (!savedSubTask.isCompleted()) {
-					return new ResponseEntity("Subtask " + subtaskId + " must be completed",
-							HttpStatus.PRECONDITION_FAILED);
-				}
-				// trigger player points assignement
-				for (InterlinkPlayer player : savedSubTask.getPlayers()) {
-					gamificationComponent.triggerAction(game.get().getProcessId(), game.get().getName(),
-							"revert_player_points", player, savedSubTask);
+		String idGame = ControllerUtils.decodePathVariable(gameId);
+		return mutationQueue.submit(idGame, game -> {
+			if (!game.isPresent()) {
+				return GameMutationResult.unchanged(new ResponseEntity("Game is not present", HttpStatus.PRECONDITION_FAILED));
+			}
+			if (!game.get().isActive()) {
+				return GameMutationResult.unchanged(new ResponseEntity("Game is suspended", HttpStatus.PRECONDITION_FAILED));
+			}
+			InterlinkTask savedTask = game.get().findTask(taskId).orElse(null);
+			if (savedTask != null) {
+				InterlinkTask savedSubTask = game.get().findSubtask(savedTask.getId(), subtaskId).orElse(null);
+				if (savedSubTask != null) {
+					if (!savedSubTask.isCompleted()) {
+						return GameMutationResult.unchanged(new ResponseEntity("Subtask " + subtaskId + " must be completed",
+								HttpStatus.PRECONDITION_FAILED));
+					}
+					savedSubTask.setCompleted(false);
+					// trigger player points assignement once the change is saved
+					return GameMutationResult.changed(new ResponseEntity(game.get(), HttpStatus.OK)).afterCommit(() -> {
+						publishTaskChanged(game.get(), savedTask.getId(), subtaskId, TaskChangedEvent.REVERT, null);
+						for (InterlinkPlayer player : savedSubTask.getPlayers()) {
+							gamificationComponent.triggerAction(game.get().getProcessId(), game.get().getName(),
+									"revert_player_points", player, savedSubTask);
+						}
+					});
+				} else {
+					return GameMutationResult.unchanged(new ResponseEntity("SubTask " + subtaskId + " is not present in task " + taskId,
+							HttpStatus.PRECONDITION_FAILED));
 				}
-				savedSubTask.setCompleted(false);
-				InterlinkGame result = gameComponent.saveOrUpdateGame(game.get());
-				return new ResponseEntity(result, HttpStatus.OK);
+
 			} else {
-				return new ResponseEntity("SubTask " + subtaskId + " is not present in task " + taskId,
-						HttpStatus.PRECONDITION_FAILED);
+				return GameMutationResult.unchanged(new ResponseEntity("Task " + taskId + " is not present in game " + idGame,
+						HttpStatus.PRECONDITION_FAILED));
 			}
-
-		} else {
-			return new ResponseEntity("Task " + taskId + " is not present in game " + gameId,
-					HttpStatus.PRECONDITION_FAILED);
-		}
+		});
 	}
 
 	/**
@@ -762,55 +865,53 @@ public class GameRestController {
 	public ResponseEntity<?> updateSubtask(@PathVariable(name = "gameId") String gameId,
 			@PathVariable(name = "taskId") String taskId, @RequestBody InterlinkTask subtask) {
 
-		gameId = ControllerUtils.decodePathVariable(gameId);
-		Optional<InterlinkGame> game = gameComponent.findById(gameId);
+		String idGame = ControllerUtils.decodePathVariable(gameId);
+		return mutationQueue.submit(idGame, game -> {
 
-		if (!game.isPresent()) {
-			return new ResponseEntity("Game is not present", HttpStatus.PRECONDITION_FAILED);
-		}
+			if (!game.isPresent()) {
+				return GameMutationResult.unchanged(new ResponseEntity("Game is not present", HttpStatus.PRECONDITION_FAILED));
+			}
 
-		if (!game.get().isActive()) {
-			return new ResponseEntity("Game is suspended", HttpStatus.PRECONDITION_FAILED);
-		}
+			if (!game.get().isActive()) {
+				return GameMutationResult.unchanged(new ResponseEntity("Game is suspended", HttpStatus.PRECONDITION_FAILED));
+			}
 
-		InterlinkTask savedTask = game.get().getTaskList().stream().filter(t -> taskId.equals(t.getId())).findAny()
-				.orElse(null);
+			InterlinkTask savedTask = game.get().findTask(taskId).orElse(null);
 
-		if (savedTask != null) {
-			InterlinkTask savedSubTask = savedTask.getSubtaskList().stream()
-					.filter(st -> subtask.getId().equals(st.getId())).findAny().orElse(null);
+			if (savedTask != null) {
+				InterlinkTask savedSubTask = game.get().findSubtask(savedTask.getId(), subtask.getId()).orElse(null);
 
-			if (savedSubTask != null) {
-				
-				if (savedSubTask.isCompleted()) {
-					return new ResponseEntity("SubTask is already completed ", HttpStatus.PRECONDITION_FAILED);
-				}
-				
-				savedSubTask.setDevelopment(subtask.getDevelopment());
-				savedSubTask.setManagement(subtask.getManagement());
-				savedSubTask.setExploitation(subtask.getExploitation());
-				savedSubTask.setCompleted(subtask.isCompleted());
-				for (InterlinkPlayer updated : subtask.getPlayers()) {
-					InterlinkPlayer savedPlayer = savedSubTask.getPlayers().stream()
-							.filter(p -> p.getId().equals(updated.getId())).findAny().orElse(null);
-					if (savedPlayer != null) {
-						savedPlayer.setName(updated.getName());
-						savedPlayer.setDevelopment(updated.getDevelopment());
-						savedPlayer.setExploitation(updated.getExploitation());
-						savedPlayer.setManagement(updated.getManagement());
-					} else {
-						savedSubTask.getPlayers().add(updated);
+				if (savedSubTask != null) {
+					
+					if (savedSubTask.isCompleted()) {
+						return GameMutationResult.unchanged(new ResponseEntity("SubTask is already completed ", HttpStatus.PRECONDITION_FAILED));
+					}
+					
+					savedSubTask.setDevelopment(subtask.getDevelopment());
+					savedSubTask.setManagement(subtask.getManagement());
+					savedSubTask.setExploitation(subtask.getExploitation());
+					savedSubTask.setCompleted(subtask.isCompleted());
+					for (InterlinkPlayer updated : subtask.getPlayers()) {
+						InterlinkPlayer savedPlayer = savedSubTask.getPlayers().stream()
+								.filter(p -> p.getId().equals(updated.getId())).findAny().orElse(null);
+						if (savedPlayer != null) {
+							savedPlayer.setName(updated.getName());
+							savedPlayer.setDevelopment(updated.getDevelopment());
+							savedPlayer.setExploitation(updated.getExploitation());
+							savedPlayer.setManagement(updated.getManagement());
+						} else {
+							savedSubTask.getPlayers().add(updated);
+						}
 					}
+					return GameMutationResult.changed(new ResponseEntity(game.get(), HttpStatus.OK));
+				} else {
+					return GameMutationResult.unchanged(new ResponseEntity("SubTask " + subtask.getId() + " not present inside game",
+							HttpStatus.PRECONDITION_FAILED));
 				}
-				InterlinkGame result = gameComponent.saveOrUpdateGame(game.get());
-				return new ResponseEntity(result, HttpStatus.OK);
 			} else {
-				return new ResponseEntity("SubTask " + subtask.getId() + " not present inside game",
-						HttpStatus.PRECONDITION_FAILED);
+				return GameMutationResult.unchanged(new ResponseEntity("Task " + taskId + " not present inside game", HttpStatus.PRECONDITION_FAILED));
 			}
-		} else {
-			return new ResponseEntity("Task " + taskId + " not present inside game", HttpStatus.PRECONDITION_FAILED);
-		}
+		});
 	}
 
 	/**
@@ -819,20 +920,17 @@ public class GameRestController {
 	@PutMapping(value = "/game/{gameId}/suspend")
 	public ResponseEntity<?> suspendGame(@PathVariable String gameId) {
 
-		gameId = ControllerUtils.decodePathVariable(gameId);
-		Optional<InterlinkGame> game = gameComponent.findById(gameId);
-
-		if (game.isEmpty()) {
-			return new ResponseEntity("Game is not present", HttpStatus.PRECONDITION_FAILED);
-		}
-
-		InterlinkGame gameToUpdate = game.get();
+		String idGame = ControllerUtils.decodePathVariable(gameId);
+		return mutationQueue.submit(idGame, game -> {
 
-		gameToUpdate.setActive(false);
+			if (game.isEmpty()) {
+				return GameMutationResult.unchanged(new ResponseEntity("Game is not present", HttpStatus.PRECONDITION_FAILED));
+			}
 
-		this.gameComponent.saveOrUpdateGame(gameToUpdate);
+			game.get().setActive(false);
 
-		return new ResponseEntity("Game has been suspened successfully", HttpStatus.OK);
+			return GameMutationResult.changed(new ResponseEntity("Game has been suspened successfully", HttpStatus.OK));
+		});
 	}
 
 	/**
@@ -841,30 +939,32 @@ public class GameRestController {
 	@PutMapping(value = "/game/{gameId}/resume")
 	public ResponseEntity<?> resumeGame(@PathVariable String gameId) {
 
-		gameId = ControllerUtils.decodePathVariable(gameId);
-		Optional<InterlinkGame> game = gameComponent.findById(gameId);
+		String idGame = ControllerUtils.decodePathVariable(gameId);
+		return mutationQueue.submit(idGame, game -> {
 
-		if (game.isEmpty()) {
-			return new ResponseEntity("Game is not present", HttpStatus.PRECONDITION_FAILED);
-		}
-
-		InterlinkGame gameToUpdate = game.get();
-
-		gameToUpdate.setActive(true);
+			if (game.isEmpty()) {
+				return GameMutationResult.unchanged(new ResponseEntity("Game is not present", HttpStatus.PRECONDITION_FAILED));
+			}
 
-		this.gameComponent.saveOrUpdateGame(gameToUpdate);
+			game.get().setActive(true);
 
-		return new ResponseEntity("Game has been resumed successfully", HttpStatus.OK);
+			return GameMutationResult.changed(new ResponseEntity("Game has been resumed successfully", HttpStatus.OK));
+		});
 	}
 
 	/**
-	 * Get the array of player profile for a game
+	 * Get the ids of the players of a game, sorted, a page at a time. The next
+	 * page starts after the last id of the previous one.
 	 * 
 	 * @param gameId
+	 * @param after  last player id of the previous page
+	 * @param limit  page size, capped
 	 */
 
 	@GetMapping(value = "/game/{gameId}/player")
-	public List<String> getPlayers(@PathVariable String gameId) {
+	public List<String> getPlayers(@PathVariable String gameId,
+			@RequestParam(required = false) @ApiParam(name = "after", value = "last player id of the previous page") String after,
+			@RequestParam(required = false) @ApiParam(name = "limit", value = "1000") Integer limit) {
 		List<String> players = new ArrayList<String>();
 
 		gameId = ControllerUtils.decodePathVariable(gameId);
@@ -874,17 +974,45 @@ public class GameRestController {
 			return players;
 		}
 
-		players = this.gamificationComponent.getPlayers(game.get().getProcessId(), game.get().getName());
+		int size = limit != null ? Math.max(1, Math.min(limit, maxListPlayers)) : maxListPlayers;
+		players = interlinkRepo.players(ControllerUtils.getGameId(game.get().getProcessId(), game.get().getName()),
+				after, size);
 		return players;
 
 	}
 
 	/**
-	 * Get player profile
+	 * Stream the ids of all the players of a game
+	 * 
+	 * @param gameId
+	 * @param format         ndjson or csv
+	 * @param acceptEncoding the response is compressed if gzip is accepted
+	 */
+	@GetMapping(value = "/game/{gameId}/player/stream")
+	public ResponseEntity<?> streamPlayers(@PathVariable String gameId,
+			@RequestParam(defaultValue = "ndjson") @ApiParam(name = "format", value = "ndjson", allowableValues = "ndjson, csv") String format,
+			@RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+		gameId = ControllerUtils.decodePathVariable(gameId);
+		Optional<InterlinkGame> game = gameComponent.findById(gameId);
+
+		if (game.isEmpty()) {
+			return new ResponseEntity("Game " + gameId + " not found", HttpStatus.NOT_FOUND);
+		}
+
+		String coreGameId = ControllerUtils.getGameId(game.get().getProcessId(), game.get().getName());
+		ExportComponent.Format exportFormat = ExportComponent.Format.parse(format);
+		return stream(gameId + "-player-ids", exportFormat, acceptEncoding,
+				out -> exports.writePlayers(coreGameId, exportFormat, out));
+	}
+
+	/**
+	 * Get player profile, not modified if the state version in If-None-Match is
+	 * current
 	 */
 
 	@GetMapping(value = "/game/{gameId}/player/{playerId}")
-	public PlayerStateDTO getPlayerState(@PathVariable String gameId, @PathVariable String playerId) {
+	public PlayerStateView getPlayerState(@PathVariable String gameId, @PathVariable String playerId,
+			WebRequest request) {
 		Optional<PlayerState> playerState = Optional.empty();
 
 		gameId = ControllerUtils.decodePathVariable(gameId);
@@ -893,11 +1021,107 @@ public class GameRestController {
 		if (game.isEmpty()) {
 			return null;
 		}
+		String coreGameId = ControllerUtils.getGameId(game.get().getProcessId(), game.get().getName());
+		if (request.checkNotModified(ControllerUtils.etag(stateVersions.playerVersion(coreGameId, playerId)))) {
+			return null;
+		}
 
-		playerState = Optional.of(
+		playerState = Optional.ofNullable(
 				this.gamificationComponent.getPlayerState(game.get().getProcessId(), game.get().getName(), playerId));
-		return ControllerUtils.convertPlayerState(playerState.get());
+		return playerState.map(PlayerStateView::new).orElse(null);
+
+	}
+
+	/**
+	 * Get the profiles or the summaries of several players at once
+	 * 
+	 * @param gameId
+	 * @param playerIds
+	 * @param view      full for the profiles, summary for the scores only
+	 * @return PlayerStateDTO or PlayerScoreSummary by player id, players not
+	 *         found are missing
+	 */
+	@PostMapping(value = "/game/{gameId}/players")
+	public ResponseEntity<?> getPlayerStates(@PathVariable String gameId, @RequestBody List<String> playerIds,
+			@RequestParam(defaultValue = "full") @ApiParam(name = "view", value = "full", allowableValues = "full, summary") String view) {
+		if (playerIds.size() > maxBatchPlayers) {
+			return new ResponseEntity("At most " + maxBatchPlayers + " players can be read at once",
+					HttpStatus.BAD_REQUEST);
+		}
+		gameId = ControllerUtils.decodePathVariable(gameId);
+		Optional<InterlinkGame> game = gameComponent.findById(gameId);
+
+		if (game.isEmpty()) {
+			return new ResponseEntity("Game " + gameId + " not found", HttpStatus.NOT_FOUND);
+		}
+
+		String coreGameId = ControllerUtils.getGameId(game.get().getProcessId(), game.get().getName());
+		if (view.equalsIgnoreCase("summary")) {
+			return new ResponseEntity(interlinkRepo.summaries(coreGameId, playerIds), HttpStatus.OK);
+		}
+		Map<String, PlayerStateView> states = new LinkedHashMap<String, PlayerStateView>();
+		interlinkRepo.states(coreGameId, playerIds)
+				.forEach((playerId, state) -> states.put(playerId, new PlayerStateView(state)));
+		return new ResponseEntity(states, HttpStatus.OK);
+	}
+
+	/**
+	 * Get the point totals and the current week scores of a player, lighter
+	 * than the player profile
+	 * 
+	 * @param gameId
+	 * @param playerId
+	 * @return PlayerScoreSummary
+	 */
+	@GetMapping(value = "/game/{gameId}/player/{playerId}/summary")
+	public ResponseEntity<?> getPlayerSummary(@PathVariable String gameId, @PathVariable String playerId) {
+		gameId = ControllerUtils.decodePathVariable(gameId);
+		Optional<InterlinkGame> game = gameComponent.findById(gameId);
 
+		if (game.isEmpty()) {
+			return new ResponseEntity("Game " + gameId + " not found", HttpStatus.NOT_FOUND);
+		}
+
+		Optional<PlayerScoreSummary> summary = interlinkRepo
+				.summary(ControllerUtils.getGameId(game.get().getProcessId(), game.get().getName()), playerId);
+		if (summary.isEmpty()) {
+			return new ResponseEntity("Player " + playerId + " not found", HttpStatus.NOT_FOUND);
+		}
+		return new ResponseEntity(summary.get(), HttpStatus.OK);
+	}
+
+	/**
+	 * Get the rank of a player with the players right above and below
+	 * 
+	 * @param gameId
+	 * @param playerId
+	 * @param from       start of a range of period instances to sum
+	 * @param to         end of a range of period instances to sum
+	 * @param neighbours number of players above and below
+	 * @return PlayerRank
+	 */
+	@GetMapping(value = "/game/{gameId}/player/{playerId}/rank")
+	public ResponseEntity<?> getPlayerRank(@PathVariable String gameId, @PathVariable String playerId,
+			@RequestParam @ApiParam(name = "period", value = "global", allowableValues = "currentWeek, previousWeek, global, weekly, weekly:-1, daily") String period,
+			@RequestParam @ApiParam(name = "activityType", value = "management", allowableValues = "development, management, exploitation") String activityType,
+			@RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) @ApiParam(name = "from", value = "sum the period instances starting from this date") LocalDate from,
+			@RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) @ApiParam(name = "to", value = "sum the period instances starting before this date") LocalDate to,
+			@RequestParam(defaultValue = "5") @ApiParam(name = "neighbours", value = "5") int neighbours) {
+		gameId = ControllerUtils.decodePathVariable(gameId);
+		Optional<InterlinkGame> game = gameComponent.findById(gameId);
+
+		if (game.isEmpty()) {
+			return new ResponseEntity("Game " + gameId + " not found", HttpStatus.NOT_FOUND);
+		}
+
+		String coreGameId = ControllerUtils.getGameId(game.get().getProcessId(), game.get().getName());
+		Optional<PlayerRank> rank = interlinkRepo.rank(coreGameId, activityType, period, ControllerUtils.toMillis(from),
+				ControllerUtils.toMillis(to), playerId,
+				Math.max(0, Math.min(neighbours, maxNeighbours)));
+		if (rank.isEmpty()) {
+			return new ResponseEntity("Player " + playerId + " not found in the leaderboard", HttpStatus.NOT_FOUND);
+		}
+		return new ResponseEntity(rank.get(), HttpStatus.OK);
 	}
 
 	/**
@@ -922,10 +1146,103 @@ public class GameRestController {
 
 	}
 
+	/**
+	 * Usage of the indexes backing the leaderboard sorts
+	 * 
+	 * @return name, key and accesses of each index
+	 */
+	@GetMapping(value = "/leaderboard/indexes")
+	public List<Map<String, Object>> getLeaderboardIndexUsage() {
+		return this.leaderboardIndexes.indexUsage();
+	}
+
+	/**
+	 * Leaderboards of the past period instances of a game, frozen at rollover
+	 * 
+	 * @param gameId
+	 * @return the snapshots, latest first for each activity type and period
+	 */
+	@GetMapping(value = "/game/{gameId}/leaderboard/snapshots")
+	public ResponseEntity<?> getLeaderboardSnapshots(@PathVariable String gameId) {
+		gameId = ControllerUtils.decodePathVariable(gameId);
+		Optional<InterlinkGame> game = gameComponent.findById(gameId);
+
+		if (game.isEmpty()) {
+			return new ResponseEntity("Game " + gameId + " not found", HttpStatus.NOT_FOUND);
+		}
+		return new ResponseEntity(
+				snapshots.list(ControllerUtils.getGameId(game.get().getProcessId(), game.get().getName())),
+				HttpStatus.OK);
+	}
+
+	/**
+	 * Fill again the leaderboard of a game from the player states
+	 * 
+	 * @param gameId
+	 * @return Message
+	 */
+	@PostMapping(value = "/game/{gameId}/leaderboard/rebuild")
+	public ResponseEntity<?> rebuildLeaderboard(@PathVariable String gameId) {
+		gameId = ControllerUtils.decodePathVariable(gameId);
+		Optional<InterlinkGame> game = gameComponent.findById(gameId);
+
+		if (game.isEmpty()) {
+			return new ResponseEntity("Game " + gameId + " not found", HttpStatus.NOT_FOUND);
+		}
+		if (!leaderboard.isEnabled()) {
+			return new ResponseEntity("Materialized leaderboard is disabled", HttpStatus.PRECONDITION_FAILED);
+		}
+
+		long rows = leaderboard
+				.rebuild(ControllerUtils.getGameId(game.get().getProcessId(), game.get().getName()));
+		return new ResponseEntity("Leaderboard rebuilt with " + rows + " entries", HttpStatus.OK);
+	}
+
 	@GetMapping(value = "/game/{gameId}/player/search")
 	public Page<PlayerScore> searchByQuery(@PathVariable @ApiParam(name = "gameId") String gameId,
-			@RequestParam @ApiParam(name = "period", value = "global", allowableValues = "currentWeek, previousWeek, global") String period,
+			@RequestParam @ApiParam(name = "period", value = "global", allowableValues = "currentWeek, previousWeek, global, weekly, weekly:-1, daily") String period,
 			@RequestParam @ApiParam(name = "activityType", value = "management", allowableValues = "development, management, exploitation") String activityType,
+			@RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) @ApiParam(name = "from", value = "sum the period instances starting from this date") LocalDate from,
+			@RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) @ApiParam(name = "to", value = "sum the period instances starting before this date") LocalDate to,
+			@RequestParam(required = false) @ApiParam(name = "afterScore", value = "score of the last player of the previous page") Double afterScore,
+			@RequestParam(required = false) @ApiParam(name = "afterPlayerId", value = "id of the last player of the previous page") String afterPlayerId,
+			Pageable pageable, WebRequest request) {
+		gameId = ControllerUtils.decodePathVariable(gameId);
+		Optional<InterlinkGame> game = gameComponent.findById(gameId);
+
+		if (game.isEmpty()) {
+			return null;
+		}
+
+		gameId = ControllerUtils.getGameId(game.get().getProcessId(), game.get().getName());
+		// the page changes with the states of the game and with the period instances
+		Optional<LeaderboardWindow> window = interlinkRepo.window(gameId, activityType, period,
+				ControllerUtils.toMillis(from), ControllerUtils.toMillis(to));
+		if (window.isPresent()
+				&& request.checkNotModified(ControllerUtils.etag(stateVersions.gameVersion(gameId), window.get()))) {
+			return null;
+		}
+		return interlinkRepo.search(gameId, activityType, period, ControllerUtils.toMillis(from),
+				ControllerUtils.toMillis(to), pageable, afterScore, afterPlayerId);
+
+	}
+
+	/**
+	 * Search the players sorted by the weighted sum of several activity types
+	 * 
+	 * @param gameId
+	 * @param weights weight of each activity type, e.g.
+	 *                development:2,management:1,exploitation:1
+	 * @return players with the score of each activity type
+	 */
+	@GetMapping(value = "/game/{gameId}/player/search/composite")
+	public Page<PlayerScore> searchComposite(@PathVariable @ApiParam(name = "gameId") String gameId,
+			@RequestParam @ApiParam(name = "period", value = "global", allowableValues = "currentWeek, previousWeek, global, weekly, weekly:-1, daily") String period,
+			@RequestParam @ApiParam(name = "weights", value = "development:1,management:1,exploitation:1") String weights,
+			@RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) @ApiParam(name = "from", value = "sum the period instances starting from this date") LocalDate from,
+			@RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) @ApiParam(name = "to", value = "sum the period instances starting before this date") LocalDate to,
+			@RequestParam(required = false) @ApiParam(name = "afterScore", value = "score of the last player of the previous page") Double afterScore,
+			@RequestParam(required = false) @ApiParam(name = "afterPlayerId", value = "id of the last player of the previous page") String afterPlayerId,
 			Pageable pageable) {
 		gameId = ControllerUtils.decodePathVariable(gameId);
 		Optional<InterlinkGame> game = gameComponent.findById(gameId);
@@ -935,8 +1252,184 @@ public class GameRestController {
 		}
 
 		gameId = ControllerUtils.getGameId(game.get().getProcessId(), game.get().getName());
-		return interlinkRepo.search(gameId, activityType, period, pageable);
+		return interlinkRepo.searchComposite(gameId, ControllerUtils.parseWeights(weights), period,
+				ControllerUtils.toMillis(from), ControllerUtils.toMillis(to), pageable, afterScore, afterPlayerId);
+	}
+
+	/**
+	 * Search the players of all the games of a process, sorted by the sum of
+	 * their scores
+	 * 
+	 * @param processId
+	 * @return players of the page
+	 */
+	@GetMapping(value = "/process/{processId}/player/search")
+	public Page<PlayerScore> searchByProcess(@PathVariable @ApiParam(name = "processId") String processId,
+			@RequestParam @ApiParam(name = "period", value = "global", allowableValues = "currentWeek, previousWeek, global, weekly, weekly:-1, daily") String period,
+			@RequestParam @ApiParam(name = "activityType", value = "management", allowableValues = "development, management, exploitation") String activityType,
+			@RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) @ApiParam(name = "from", value = "sum the period instances starting from this date") LocalDate from,
+			@RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) @ApiParam(name = "to", value = "sum the period instances starting before this date") LocalDate to,
+			@RequestParam(required = false) @ApiParam(name = "afterScore", value = "score of the last player of the previous page") Double afterScore,
+			@RequestParam(required = false) @ApiParam(name = "afterPlayerId", value = "id of the last player of the previous page") String afterPlayerId,
+			Pageable pageable) {
+		processId = ControllerUtils.decodePathVariable(processId);
+		return interlinkRepo.searchGroup(LeaderboardRollupScope.process(processId),
+				gameComponent.findCoreGameIdsByProcessId(processId), activityType, period,
+				ControllerUtils.toMillis(from), ControllerUtils.toMillis(to), pageable, afterScore, afterPlayerId);
+	}
+
+	/**
+	 * Search the players of all the games with a tag, sorted by the sum of their
+	 * scores
+	 * 
+	 * @param tag
+	 * @return players of the page
+	 */
+	@GetMapping(value = "/tag/{tag}/player/search")
+	public Page<PlayerScore> searchByTag(@PathVariable @ApiParam(name = "tag") String tag,
+			@RequestParam @ApiParam(name = "period", value = "global", allowableValues = "currentWeek, previousWeek, global, weekly, weekly:-1, daily") String period,
+			@RequestParam @ApiParam(name = "activityType", value = "management", allowableValues = "development, management, exploitation") String activityType,
+			@RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) @ApiParam(name = "from", value = "sum the period instances starting from this date") LocalDate from,
+			@RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) @ApiParam(name = "to", value = "sum the period instances starting before this date") LocalDate to,
+			@RequestParam(required = false) @ApiParam(name = "afterScore", value = "score of the last player of the previous page") Double afterScore,
+			@RequestParam(required = false) @ApiParam(name = "afterPlayerId", value = "id of the last player of the previous page") String afterPlayerId,
+			Pageable pageable) {
+		tag = ControllerUtils.decodePathVariable(tag);
+		return interlinkRepo.searchGroup(LeaderboardRollupScope.tag(tag), gameComponent.findCoreGameIdsByTag(tag),
+				activityType, period, ControllerUtils.toMillis(from), ControllerUtils.toMillis(to), pageable,
+				afterScore, afterPlayerId);
+	}
+
+	/**
+	 * Export the whole leaderboard of a game, streamed from the database
+	 * 
+	 * @param gameId
+	 * @param format         ndjson or csv
+	 * @param acceptEncoding the response is compressed if gzip is accepted
+	 * @return rank, playerId and score of each player, best first
+	 */
+	@GetMapping(value = "/game/{gameId}/leaderboard/export")
+	public ResponseEntity<?> exportLeaderboard(@PathVariable String gameId,
+			@RequestParam @ApiParam(name = "period", value = "global", allowableValues = "currentWeek, previousWeek, global, weekly, weekly:-1, daily") String period,
+			@RequestParam @ApiParam(name = "activityType", value = "management", allowableValues = "development, management, exploitation") String activityType,
+			@RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) @ApiParam(name = "from", value = "sum the period instances starting from this date") LocalDate from,
+			@RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) @ApiParam(name = "to", value = "sum the period instances starting before this date") LocalDate to,
+			@RequestParam(defaultValue = "ndjson") @ApiParam(name = "format", value = "ndjson", allowableValues = "ndjson, csv") String format,
+			@RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+		gameId = ControllerUtils.decodePathVariable(gameId);
+		Optional<InterlinkGame> game = gameComponent.findById(gameId);
+
+		if (game.isEmpty()) {
+			return new ResponseEntity("Game " + gameId + " not found", HttpStatus.NOT_FOUND);
+		}
+
+		String coreGameId = ControllerUtils.getGameId(game.get().getProcessId(), game.get().getName());
+		ExportComponent.Format exportFormat = ExportComponent.Format.parse(format);
+		Optional<LeaderboardWindow> window = interlinkRepo.window(coreGameId, activityType, period,
+				ControllerUtils.toMillis(from), ControllerUtils.toMillis(to));
+		if (window.isEmpty()) {
+			return new ResponseEntity("Period " + period + " of " + activityType + " not found", HttpStatus.NOT_FOUND);
+		}
+		return stream(gameId + "-leaderboard", exportFormat, acceptEncoding,
+				out -> exports.writeLeaderboard(coreGameId, window.get(), exportFormat, out));
+	}
+
+	/**
+	 * Export the scores of all the players of a game, streamed from the
+	 * database
+	 * 
+	 * @param gameId
+	 * @param activityType   only the scores of this activity type, all if missing
+	 * @param period         only the scores of this period, all if missing
+	 * @param format         ndjson or csv
+	 * @param acceptEncoding the response is compressed if gzip is accepted
+	 * @return playerId, pointConcept, period, periodKey and score of each score
+	 */
+	@GetMapping(value = "/game/{gameId}/player/export")
+	public ResponseEntity<?> exportPlayerScores(@PathVariable String gameId,
+			@RequestParam(required = false) @ApiParam(name = "activityType", value = "management", allowableValues = "development, management, exploitation") String activityType,
+			@RequestParam(required = false) @ApiParam(name = "period", value = "weekly", allowableValues = "global, weekly, daily") String period,
+			@RequestParam(defaultValue = "ndjson") @ApiParam(name = "format", value = "ndjson", allowableValues = "ndjson, csv") String format,
+			@RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+		gameId = ControllerUtils.decodePathVariable(gameId);
+		Optional<InterlinkGame> game = gameComponent.findById(gameId);
 
+		if (game.isEmpty()) {
+			return new ResponseEntity("Game " + gameId + " not found", HttpStatus.NOT_FOUND);
+		}
+
+		String coreGameId = ControllerUtils.getGameId(game.get().getProcessId(), game.get().getName());
+		ExportComponent.Format exportFormat = ExportComponent.Format.parse(format);
+		return stream(gameId + "-players", exportFormat, acceptEncoding,
+				out -> exports.writeScores(coreGameId, activityType, period, exportFormat, out));
+	}
+
+	/**
+	 * Remove the state of a player after the mutations already queued on the
+	 * game, only while the game is active, so that a teardown started
+	 * meanwhile waits for it and removes the states last
+	 */
+	private void deletePlayerState(String gameId, String playerId) {
+		mutationQueue.submit(gameId, game -> {
+			GameMutationResult<Void> result = GameMutationResult.unchanged(null);
+			if (game.isPresent() && game.get().isActive()) {
+				result.afterCommit(() -> gamificationComponent.deletePlayerState(game.get().getProcessId(),
+						game.get().getName(), playerId));
+			}
+			return result;
+		});
+	}
+
+	private void publishTaskChanged(InterlinkGame game, String taskId, String subtaskId, String action,
+			String playerId) {
+		publisher.publishEvent(new TaskChangedEvent(ControllerUtils.getGameId(game.getProcessId(), game.getName()),
+				taskId, subtaskId, action, playerId));
+	}
+
+	private ResponseEntity<StreamingResponseBody> stream(String filename, ExportComponent.Format format,
+			String acceptEncoding, StreamingResponseBody body) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.parseMediaType(format.getMediaType()));
+		headers.setContentDisposition(
+				ContentDisposition.attachment().filename(filename + "." + format.getExtension()).build());
+		headers.setVary(List.of(HttpHeaders.ACCEPT_ENCODING));
+		if (acceptEncoding == null || !acceptEncoding.contains("gzip")) {
+			return new ResponseEntity<StreamingResponseBody>(body, headers, HttpStatus.OK);
+		}
+		headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+		return new ResponseEntity<StreamingResponseBody>(out -> {
+			GZIPOutputStream gzip = new GZIPOutputStream(out, 8192);
+			body.writeTo(gzip);
+			gzip.finish();
+		}, headers, HttpStatus.OK);
+	}
+
+	/**
+	 * A request parameter that can not be accepted, e.g. a leaderboard window
+	 * that can not be resolved
+	 */
+	@ExceptionHandler(InvalidRequestException.class)
+	public ResponseEntity<?> handleBadRequest(InvalidRequestException e) {
+		return new ResponseEntity(e.getMessage(), HttpStatus.BAD_REQUEST);
+	}
+
+	/**
+	 * A game mutation still conflicting after all the retries
+	 */
+	@ExceptionHandler(OptimisticLockingFailureException.class)
+	public ResponseEntity<?> handleConflict(OptimisticLockingFailureException e) {
+		logger.warn("Game update conflict: " + e.getMessage());
+		return new ResponseEntity("Game has been modified concurrently, please retry", HttpStatus.CONFLICT);
+	}
+
+	/**
+	 * A game mutation still queued or running its engine actions after the
+	 * timeout
+	 */
+	@ExceptionHandler(GameMutationTimeoutException.class)
+	public ResponseEntity<?> handleTimeout(GameMutationTimeoutException e) {
+		logger.warn("Game update timeout: " + e.getMessage());
+		return new ResponseEntity("Game update is taking too long, please retry later", HttpStatus.SERVICE_UNAVAILABLE);
 	}
 
 }
@@ -0,0 +1,117 @@
+package eu.fbk.interlink.gamification.domain;
+
+import java.util.Date;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Status of the removal of a game and of its data, polled by the client while
+ * the teardown runs in background. The id is the id of the game. A teardown
+ * is run by the node owning its lease, and removed some time after the game
+ * is deleted.
+ */
+@Document(collection = "gameTeardown")
+public class GameTeardown {
+
+	public enum Status {
+		DELETING, DELETED, FAILED
+	}
+
+	private @Id String id;
+	private String coreGameId;
+	private Status status;
+	private long players;
+	private String error;
+	private Date createdAt;
+	private Date completedAt;
+	private String owner;
+	private Date claimedAt;
+	@Indexed(name = "teardown_expire", expireAfterSeconds = 0)
+	private Date expireAt;
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getCoreGameId() {
+		return coreGameId;
+	}
+
+	public void setCoreGameId(String coreGameId) {
+		this.coreGameId = coreGameId;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public void setStatus(Status status) {
+		this.status = status;
+	}
+
+	/**
+	 * @return number of player states removed
+	 */
+	public long getPlayers() {
+		return players;
+	}
+
+	public void setPlayers(long players) {
+		this.players = players;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	public void setError(String error) {
+		this.error = error;
+	}
+
+	public Date getCreatedAt() {
+		return createdAt;
+	}
+
+	public void setCreatedAt(Date createdAt) {
+		this.createdAt = createdAt;
+	}
+
+	public Date getCompletedAt() {
+		return completedAt;
+	}
+
+	public void setCompletedAt(Date completedAt) {
+		this.completedAt = completedAt;
+	}
+
+	public String getOwner() {
+		return owner;
+	}
+
+	public void setOwner(String owner) {
+		this.owner = owner;
+	}
+
+	public Date getClaimedAt() {
+		return claimedAt;
+	}
+
+	public void setClaimedAt(Date claimedAt) {
+		this.claimedAt = claimedAt;
+	}
+
+	public Date getExpireAt() {
+		return expireAt;
+	}
+
+	public void setExpireAt(Date expireAt) {
+		this.expireAt = expireAt;
+	}
+
+}
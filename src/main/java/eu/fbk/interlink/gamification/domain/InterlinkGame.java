@@ -1,18 +1,27 @@
 package eu.fbk.interlink.gamification.domain;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
+import org.springframework.data.annotation.Version;
 import org.springframework.data.mongodb.core.mapping.Document;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import eu.trentorise.game.model.ChallengeConcept;
 import eu.trentorise.game.model.Level;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 
 @Document(collection = "games")
 public class InterlinkGame {
 
+	private static final char SUBTASK_KEY_SEPARATOR = '\u0000';
+
 	protected @Id String id;
 	protected String name;
 	protected String processId;
@@ -21,6 +30,28 @@ public class InterlinkGame {
 
 	protected boolean active = true;
 
+	protected @Version Long version;
+
+	/**
+	 * Tasks and subtasks by id, built on first lookup. Subtasks are keyed by task
+	 * id and subtask id.
+	 */
+	@Transient
+	private volatile Map<String, InterlinkTask> taskIndex;
+
+	/**
+	 * Tasks stored outside the game document: the source, whether the whole task
+	 * list has been read and the tasks read one by one before that.
+	 */
+	@Transient
+	private TaskSource taskSource;
+
+	@Transient
+	private volatile boolean tasksLoaded = true;
+
+	@Transient
+	private Map<String, InterlinkTask> partialTasks;
+
 
 	public InterlinkGame() {
 		if (tagList == null) 
@@ -79,29 +110,220 @@ public class InterlinkGame {
 		this.active = active;
 	}
 
-		
+
+	public Long getVersion() {
+		return version;
+	}
+
+	public void setVersion(Long version) {
+		this.version = version;
+	}
+
 	public List<InterlinkTask> getTaskList() {
+		if (!tasksLoaded) {
+			loadTasks();
+		}
 		return taskList;
 	}
 
 	public void setTaskList(List<InterlinkTask> taskList) {
 		this.taskList = taskList;
+		this.taskIndex = null;
+		this.partialTasks = null;
+		this.tasksLoaded = true;
 	}
 	
 	public void addTask(InterlinkTask task) {
-		this.taskList.add(task);
+		getTaskList().add(task);
+		Map<String, InterlinkTask> index = this.taskIndex;
+		if (index != null) {
+			indexTask(index, task);
+		}
 	}
 	
 	public void removeTask(String taskId) {
-		InterlinkTask toRemove = null;
-		for (InterlinkTask task : this.taskList) {
-		    if (task.getId().equals(id)) {
-		    	toRemove = task;
-		    	break;
-		    }
+		getTaskList();
+		InterlinkTask toRemove = getTaskIndex().remove(taskId);
+		if (toRemove != null) {
+			for (InterlinkTask subtask : toRemove.getSubtaskList()) {
+				this.taskIndex.remove(subtaskKey(taskId, subtask.getId()));
+			}
+			this.taskList.remove(toRemove);
+		}
+	}
+
+	/**
+	 * Add a subtask to a task of the game
+	 * 
+	 * @param taskId
+	 * @param subtask
+	 * @return false if the task is not present
+	 */
+	public boolean addSubtask(String taskId, InterlinkTask subtask) {
+		InterlinkTask task = findTask(taskId).orElse(null);
+		if (task == null) {
+			return false;
+		}
+		task.addSubtask(subtask);
+		Map<String, InterlinkTask> index = this.taskIndex;
+		if (index != null) {
+			index.putIfAbsent(subtaskKey(taskId, subtask.getId()), subtask);
+		}
+		return true;
+	}
+
+	/**
+	 * Remove a subtask from a task of the game
+	 * 
+	 * @param taskId
+	 * @param subtaskId
+	 */
+	public void removeSubtask(String taskId, String subtaskId) {
+		InterlinkTask subtask = findSubtask(taskId, subtaskId).orElse(null);
+		if (subtask != null) {
+			findTask(taskId).get().getSubtaskList().remove(subtask);
+			Map<String, InterlinkTask> index = this.taskIndex;
+			if (index != null) {
+				index.remove(subtaskKey(taskId, subtaskId));
+			}
+		}
+	}
+
+	/**
+	 * Find a task by id. When the tasks are stored outside the game and not
+	 * loaded yet, only the requested task is read.
+	 * 
+	 * @param taskId
+	 * @return Task
+	 */
+	public Optional<InterlinkTask> findTask(String taskId) {
+		if (!tasksLoaded) {
+			return findPartialTask(taskId);
+		}
+		return Optional.ofNullable(getTaskIndex().get(taskId));
+	}
+
+	/**
+	 * Find a subtask by task id and subtask id
+	 * 
+	 * @param taskId
+	 * @param subtaskId
+	 * @return Subtask
+	 */
+	public Optional<InterlinkTask> findSubtask(String taskId, String subtaskId) {
+		if (!tasksLoaded) {
+			return findPartialTask(taskId).flatMap(task -> task.getSubtaskList().stream()
+					.filter(subtask -> subtask.getId().equals(subtaskId)).findFirst());
+		}
+		return Optional.ofNullable(getTaskIndex().get(subtaskKey(taskId, subtaskId)));
+	}
+
+	/**
+	 * Drop the task index, to be called when the task tree is changed without
+	 * the methods of this class (e.g. a subtask list is replaced).
+	 */
+	public void invalidateTaskIndex() {
+		this.taskIndex = null;
+	}
+
+	/**
+	 * Read the tasks from a source outside the game document on first access.
+	 * 
+	 * @param taskSource
+	 * @param loaded     true if the task list of the game is already complete
+	 */
+	public void setTaskSource(TaskSource taskSource, boolean loaded) {
+		this.taskSource = taskSource;
+		this.partialTasks = null;
+		this.taskIndex = null;
+		this.tasksLoaded = loaded;
+		if (!loaded) {
+			this.taskList = new ArrayList<InterlinkTask>();
+		}
+	}
+
+	@JsonIgnore
+	public TaskSource getTaskSource() {
+		return taskSource;
+	}
+
+	@JsonIgnore
+	public boolean isTaskListLoaded() {
+		return tasksLoaded;
+	}
+
+	/**
+	 * @return the tasks in memory, the whole task list if loaded, otherwise the
+	 *         tasks read one by one
+	 */
+	@JsonIgnore
+	public synchronized List<InterlinkTask> getLoadedTasks() {
+		if (tasksLoaded) {
+			return taskList;
+		}
+		List<InterlinkTask> loaded = new ArrayList<InterlinkTask>();
+		if (partialTasks != null) {
+			partialTasks.values().stream().filter(Objects::nonNull).forEach(loaded::add);
+		}
+		return loaded;
+	}
+
+	private synchronized void loadTasks() {
+		if (tasksLoaded) {
+			return;
+		}
+		List<InterlinkTask> tasks = new ArrayList<InterlinkTask>(taskSource.loadTasks());
+		// keep the instances already read, they may have been changed
+		if (partialTasks != null) {
+			for (int i = 0; i < tasks.size(); i++) {
+				InterlinkTask loaded = partialTasks.get(tasks.get(i).getId());
+				if (loaded != null) {
+					tasks.set(i, loaded);
+				}
+			}
 		}
-		this.taskList.remove(toRemove);
-		
+		this.taskList = tasks;
+		this.partialTasks = null;
+		this.taskIndex = null;
+		this.tasksLoaded = true;
+	}
+
+	private synchronized Optional<InterlinkTask> findPartialTask(String taskId) {
+		if (tasksLoaded) {
+			return findTask(taskId);
+		}
+		if (partialTasks == null) {
+			partialTasks = new HashMap<String, InterlinkTask>();
+		}
+		if (!partialTasks.containsKey(taskId)) {
+			partialTasks.put(taskId, taskSource.loadTask(taskId).orElse(null));
+		}
+		return Optional.ofNullable(partialTasks.get(taskId));
+	}
+
+	private Map<String, InterlinkTask> getTaskIndex() {
+		Map<String, InterlinkTask> index = this.taskIndex;
+		if (index == null) {
+			index = new HashMap<String, InterlinkTask>();
+			for (InterlinkTask task : getTaskList()) {
+				indexTask(index, task);
+			}
+			this.taskIndex = index;
+		}
+		return index;
+	}
+
+	private static void indexTask(Map<String, InterlinkTask> index, InterlinkTask task) {
+		index.putIfAbsent(task.getId(), task);
+		if (task.getSubtaskList() != null) {
+			for (InterlinkTask subtask : task.getSubtaskList()) {
+				index.putIfAbsent(subtaskKey(task.getId(), subtask.getId()), subtask);
+			}
+		}
+	}
+
+	private static String subtaskKey(String taskId, String subtaskId) {
+		return taskId + SUBTASK_KEY_SEPARATOR + subtaskId;
 	}
 	
 	public static InterlinkGame of (InterlinkGameTemplate template) {
@@ -141,4 +363,14 @@ public class InterlinkGame {
 				+ "]}";
 	}
 
+	/**
+	 * Reads the tasks of a game stored outside the game document
+	 */
+	public interface TaskSource {
+
+		List<InterlinkTask> loadTasks();
+
+		Optional<InterlinkTask> loadTask(String taskId);
+	}
+
 }
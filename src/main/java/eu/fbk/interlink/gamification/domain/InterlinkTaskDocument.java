@@ -0,0 +1,159 @@
+package eu.fbk.interlink.gamification.domain;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * A task of a game stored in its own document. Subtasks are stored as
+ * documents too, with the id of their task as parentTaskId.
+ */
+@Document(collection = "tasks")
+@CompoundIndex(name = "game_task", def = "{'gameId': 1, 'parentTaskId': 1, 'taskId': 1}", unique = true)
+public class InterlinkTaskDocument {
+
+	private @Id String id;
+	private String gameId;
+	private String taskId;
+	private String parentTaskId;
+	private int position;
+	private double management;
+	private double development;
+	private double exploitation;
+	private boolean completed;
+	private List<InterlinkPlayer> playerList = new ArrayList<InterlinkPlayer>();
+
+	public InterlinkTaskDocument() {
+
+	}
+
+	public static InterlinkTaskDocument of(String gameId, String parentTaskId, int position, InterlinkTask task) {
+		InterlinkTaskDocument doc = new InterlinkTaskDocument();
+		doc.setGameId(gameId);
+		doc.setTaskId(task.getId());
+		doc.setParentTaskId(parentTaskId);
+		doc.setPosition(position);
+		doc.setManagement(task.getManagement());
+		doc.setDevelopment(task.getDevelopment());
+		doc.setExploitation(task.getExploitation());
+		doc.setCompleted(task.isCompleted());
+		List<InterlinkPlayer> players = new ArrayList<InterlinkPlayer>();
+		if (task.getPlayers() != null) {
+			for (InterlinkPlayer p : task.getPlayers()) {
+				players.add(new InterlinkPlayer(p.getId(), p.getName(), p.getManagement(), p.getDevelopment(),
+						p.getExploitation()));
+			}
+		}
+		doc.setPlayerList(players);
+		return doc;
+	}
+
+	/**
+	 * @return the task, without subtasks
+	 */
+	public InterlinkTask toTask() {
+		InterlinkTask task = new InterlinkTask(taskId);
+		task.setManagement(management);
+		task.setDevelopment(development);
+		task.setExploitation(exploitation);
+		task.setCompleted(completed);
+		for (InterlinkPlayer p : playerList != null ? playerList : new ArrayList<InterlinkPlayer>()) {
+			task.addPlayer(new InterlinkPlayer(p.getId(), p.getName(), p.getManagement(), p.getDevelopment(),
+					p.getExploitation()));
+		}
+		return task;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getGameId() {
+		return gameId;
+	}
+
+	public void setGameId(String gameId) {
+		this.gameId = gameId;
+	}
+
+	public String getTaskId() {
+		return taskId;
+	}
+
+	public void setTaskId(String taskId) {
+		this.taskId = taskId;
+	}
+
+	public String getParentTaskId() {
+		return parentTaskId;
+	}
+
+	public void setParentTaskId(String parentTaskId) {
+		this.parentTaskId = parentTaskId;
+	}
+
+	public int getPosition() {
+		return position;
+	}
+
+	public void setPosition(int position) {
+		this.position = position;
+	}
+
+	public double getManagement() {
+		return management;
+	}
+
+	public void setManagement(double management) {
+		this.management = management;
+	}
+
+	public double getDevelopment() {
+		return development;
+	}
+
+	public void setDevelopment(double development) {
+		this.development = development;
+	}
+
+	public double getExploitation() {
+		return exploitation;
+	}
+
+	public void setExploitation(double exploitation) {
+		this.exploitation = exploitation;
+	}
+
+	public boolean isCompleted() {
+		return completed;
+	}
+
+	public void setCompleted(boolean completed) {
+		this.completed = completed;
+	}
+
+	public List<InterlinkPlayer> getPlayerList() {
+		return playerList;
+	}
+
+	public void setPlayerList(List<InterlinkPlayer> playerList) {
+		this.playerList = playerList;
+	}
+
+	@Override
+	public String toString() {
+		return "{" + "gameId='" + this.gameId 
+				+ "', taskId='" + this.taskId 
+				+ "', parentTaskId='" + this.parentTaskId 
+				+ "', completed=" + this.completed 
+				+ ", players = [" + this.playerList + "]}";
+	}
+
+}
@@ -0,0 +1,94 @@
+package eu.fbk.interlink.gamification.domain;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Score of a player for a point concept in a period instance, kept in sync
+ * with the player state. The global score has period and periodKey global.
+ */
+@Document(collection = "leaderboard")
+@CompoundIndexes({
+		@CompoundIndex(name = "leaderboard_player", def = "{'gameId': 1, 'pointConcept': 1, 'period': 1, 'periodKey': 1, 'playerId': 1}", unique = true),
+		@CompoundIndex(name = "leaderboard_rank", def = "{'gameId': 1, 'pointConcept': 1, 'period': 1, 'periodKey': 1, 'score': -1, 'playerId': 1}") })
+public class LeaderboardEntry {
+
+	public static final String GLOBAL = "global";
+
+	private @Id String id;
+	private String gameId;
+	private String pointConcept;
+	private String period;
+	private String periodKey;
+	private String playerId;
+	private double score;
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getGameId() {
+		return gameId;
+	}
+
+	public void setGameId(String gameId) {
+		this.gameId = gameId;
+	}
+
+	public String getPointConcept() {
+		return pointConcept;
+	}
+
+	public void setPointConcept(String pointConcept) {
+		this.pointConcept = pointConcept;
+	}
+
+	public String getPeriod() {
+		return period;
+	}
+
+	public void setPeriod(String period) {
+		this.period = period;
+	}
+
+	public String getPeriodKey() {
+		return periodKey;
+	}
+
+	public void setPeriodKey(String periodKey) {
+		this.periodKey = periodKey;
+	}
+
+	public String getPlayerId() {
+		return playerId;
+	}
+
+	public void setPlayerId(String playerId) {
+		this.playerId = playerId;
+	}
+
+	public double getScore() {
+		return score;
+	}
+
+	public void setScore(double score) {
+		this.score = score;
+	}
+
+	@Override
+	public String toString() {
+		return "{gameId='" + this.gameId 
+				+ "', pointConcept='" + this.pointConcept 
+				+ "', period='" + this.period 
+				+ "', periodKey='" + this.periodKey 
+				+ "', playerId='" + this.playerId 
+				+ "', score=" + this.score + "}";
+	}
+
+}
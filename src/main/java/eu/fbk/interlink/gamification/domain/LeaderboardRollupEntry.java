@@ -0,0 +1,92 @@
+package eu.fbk.interlink.gamification.domain;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Score of a player summed over the games of a {@link LeaderboardRollupScope},
+ * for a point concept in a period instance. games counts the games where the
+ * player has a score.
+ */
+@Document(collection = "leaderboardRollup")
+@CompoundIndexes({
+		@CompoundIndex(name = "rollup_player", def = "{'scope': 1, 'pointConcept': 1, 'period': 1, 'periodKey': 1, 'playerId': 1}", unique = true),
+		@CompoundIndex(name = "rollup_rank", def = "{'scope': 1, 'pointConcept': 1, 'period': 1, 'periodKey': 1, 'score': -1, 'playerId': 1}") })
+public class LeaderboardRollupEntry {
+
+	private @Id String id;
+	private String scope;
+	private String pointConcept;
+	private String period;
+	private String periodKey;
+	private String playerId;
+	private double score;
+	private int games;
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getScope() {
+		return scope;
+	}
+
+	public void setScope(String scope) {
+		this.scope = scope;
+	}
+
+	public String getPointConcept() {
+		return pointConcept;
+	}
+
+	public void setPointConcept(String pointConcept) {
+		this.pointConcept = pointConcept;
+	}
+
+	public String getPeriod() {
+		return period;
+	}
+
+	public void setPeriod(String period) {
+		this.period = period;
+	}
+
+	public String getPeriodKey() {
+		return periodKey;
+	}
+
+	public void setPeriodKey(String periodKey) {
+		this.periodKey = periodKey;
+	}
+
+	public String getPlayerId() {
+		return playerId;
+	}
+
+	public void setPlayerId(String playerId) {
+		this.playerId = playerId;
+	}
+
+	public double getScore() {
+		return score;
+	}
+
+	public void setScore(double score) {
+		this.score = score;
+	}
+
+	public int getGames() {
+		return games;
+	}
+
+	public void setGames(int games) {
+		this.games = games;
+	}
+
+}
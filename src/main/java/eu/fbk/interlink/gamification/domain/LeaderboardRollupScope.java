@@ -0,0 +1,96 @@
+package eu.fbk.interlink.gamification.domain;
+
+import java.util.Date;
+import java.util.List;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Games summed by a cross-game leaderboard: the games of a process, id
+ * process:{processId}, or the games with a tag, id tag:{tag}. The rollup rows
+ * are served only once complete and while the games are the same. A scope is
+ * built by the node owning its lease, dirty when a score of its games changed
+ * while it was being built.
+ */
+@Document(collection = "leaderboardRollupScope")
+public class LeaderboardRollupScope {
+
+	private @Id String id;
+	@Indexed(name = "rollup_scope_game")
+	private List<String> gameIds;
+	private boolean complete;
+	private Date builtAt;
+	private String owner;
+	private Date claimedAt;
+	private boolean dirty;
+
+	public static String process(String processId) {
+		return "process:" + processId;
+	}
+
+	public static String tag(String tag) {
+		return "tag:" + tag;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	/**
+	 * @return core game ids, sorted
+	 */
+	public List<String> getGameIds() {
+		return gameIds;
+	}
+
+	public void setGameIds(List<String> gameIds) {
+		this.gameIds = gameIds;
+	}
+
+	public boolean isComplete() {
+		return complete;
+	}
+
+	public void setComplete(boolean complete) {
+		this.complete = complete;
+	}
+
+	public Date getBuiltAt() {
+		return builtAt;
+	}
+
+	public void setBuiltAt(Date builtAt) {
+		this.builtAt = builtAt;
+	}
+
+	public String getOwner() {
+		return owner;
+	}
+
+	public void setOwner(String owner) {
+		this.owner = owner;
+	}
+
+	public Date getClaimedAt() {
+		return claimedAt;
+	}
+
+	public void setClaimedAt(Date claimedAt) {
+		this.claimedAt = claimedAt;
+	}
+
+	public boolean isDirty() {
+		return dirty;
+	}
+
+	public void setDirty(boolean dirty) {
+		this.dirty = dirty;
+	}
+
+}
@@ -0,0 +1,133 @@
+package eu.fbk.interlink.gamification.domain;
+
+import java.util.Date;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Leaderboard of a closed period instance, frozen when the period rolled over.
+ * The ranked players are stored as {@link LeaderboardSnapshotEntry}, the
+ * snapshot is served only once complete.
+ */
+@Document(collection = "leaderboardSnapshot")
+@CompoundIndexes({
+		@CompoundIndex(name = "snapshot_game", def = "{'gameId': 1, 'pointConcept': 1, 'period': 1, 'periodKey': -1}") })
+public class LeaderboardSnapshot {
+
+	private @Id String id;
+	private String gameId;
+	private String pointConcept;
+	private String period;
+	private String periodKey;
+	private long start;
+	private long end;
+	private long players;
+	private boolean complete;
+	private Date createdAt;
+	private String owner;
+	private Date claimedAt;
+
+	public static String id(String gameId, String pointConcept, String period, String periodKey) {
+		return String.join("|", gameId, pointConcept, period, periodKey);
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getGameId() {
+		return gameId;
+	}
+
+	public void setGameId(String gameId) {
+		this.gameId = gameId;
+	}
+
+	public String getPointConcept() {
+		return pointConcept;
+	}
+
+	public void setPointConcept(String pointConcept) {
+		this.pointConcept = pointConcept;
+	}
+
+	public String getPeriod() {
+		return period;
+	}
+
+	public void setPeriod(String period) {
+		this.period = period;
+	}
+
+	public String getPeriodKey() {
+		return periodKey;
+	}
+
+	public void setPeriodKey(String periodKey) {
+		this.periodKey = periodKey;
+	}
+
+	public long getStart() {
+		return start;
+	}
+
+	public void setStart(long start) {
+		this.start = start;
+	}
+
+	public long getEnd() {
+		return end;
+	}
+
+	public void setEnd(long end) {
+		this.end = end;
+	}
+
+	public long getPlayers() {
+		return players;
+	}
+
+	public void setPlayers(long players) {
+		this.players = players;
+	}
+
+	public boolean isComplete() {
+		return complete;
+	}
+
+	public void setComplete(boolean complete) {
+		this.complete = complete;
+	}
+
+	public Date getCreatedAt() {
+		return createdAt;
+	}
+
+	public void setCreatedAt(Date createdAt) {
+		this.createdAt = createdAt;
+	}
+
+	public String getOwner() {
+		return owner;
+	}
+
+	public void setOwner(String owner) {
+		this.owner = owner;
+	}
+
+	public Date getClaimedAt() {
+		return claimedAt;
+	}
+
+	public void setClaimedAt(Date claimedAt) {
+		this.claimedAt = claimedAt;
+	}
+
+}
@@ -0,0 +1,91 @@
+package eu.fbk.interlink.gamification.domain;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * A player of a {@link LeaderboardSnapshot} with the rank, 1-based, frozen at
+ * the time of the snapshot
+ */
+@Document(collection = "leaderboardSnapshotEntry")
+@CompoundIndexes({
+		@CompoundIndex(name = "snapshot_rank", def = "{'gameId': 1, 'pointConcept': 1, 'period': 1, 'periodKey': 1, 'rank': 1}", unique = true),
+		@CompoundIndex(name = "snapshot_player", def = "{'gameId': 1, 'pointConcept': 1, 'period': 1, 'periodKey': 1, 'playerId': 1}", unique = true) })
+public class LeaderboardSnapshotEntry {
+
+	private @Id String id;
+	private String gameId;
+	private String pointConcept;
+	private String period;
+	private String periodKey;
+	private long rank;
+	private String playerId;
+	private double score;
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getGameId() {
+		return gameId;
+	}
+
+	public void setGameId(String gameId) {
+		this.gameId = gameId;
+	}
+
+	public String getPointConcept() {
+		return pointConcept;
+	}
+
+	public void setPointConcept(String pointConcept) {
+		this.pointConcept = pointConcept;
+	}
+
+	public String getPeriod() {
+		return period;
+	}
+
+	public void setPeriod(String period) {
+		this.period = period;
+	}
+
+	public String getPeriodKey() {
+		return periodKey;
+	}
+
+	public void setPeriodKey(String periodKey) {
+		this.periodKey = periodKey;
+	}
+
+	public long getRank() {
+		return rank;
+	}
+
+	public void setRank(long rank) {
+		this.rank = rank;
+	}
+
+	public String getPlayerId() {
+		return playerId;
+	}
+
+	public void setPlayerId(String playerId) {
+		this.playerId = playerId;
+	}
+
+	public double getScore() {
+		return score;
+	}
+
+	public void setScore(double score) {
+		this.score = score;
+	}
+
+}
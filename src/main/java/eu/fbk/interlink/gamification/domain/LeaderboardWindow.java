@@ -0,0 +1,107 @@
+package eu.fbk.interlink.gamification.domain;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The scores ranked by a leaderboard: the global score of a point concept, an
+ * instance of one of its periods or the sum of a range of instances.
+ */
+public class LeaderboardWindow {
+
+	private final String pointConcept;
+	private final String period;
+	private final List<String> keys;
+	private final boolean range;
+	private final boolean closed;
+
+	private LeaderboardWindow(String pointConcept, String period, List<String> keys, boolean range,
+			boolean closed) {
+		this.pointConcept = pointConcept;
+		this.period = period;
+		this.keys = keys;
+		this.range = range;
+		this.closed = closed;
+	}
+
+	public static LeaderboardWindow global(String pointConcept) {
+		return new LeaderboardWindow(pointConcept, LeaderboardEntry.GLOBAL, List.of(LeaderboardEntry.GLOBAL), false,
+				false);
+	}
+
+	public static LeaderboardWindow instance(String pointConcept, String period, String key, boolean closed) {
+		return new LeaderboardWindow(pointConcept, period, List.of(key), false, closed);
+	}
+
+	public static LeaderboardWindow range(String pointConcept, String period, List<String> keys) {
+		return new LeaderboardWindow(pointConcept, period, new ArrayList<String>(keys), true, false);
+	}
+
+	public String getPointConcept() {
+		return pointConcept;
+	}
+
+	/**
+	 * @return the period name, or global
+	 */
+	public String getPeriod() {
+		return period;
+	}
+
+	/**
+	 * @return the keys of the period instances, global for the global score
+	 */
+	public List<String> getKeys() {
+		return keys;
+	}
+
+	/**
+	 * @return true if the scores are summed over several period instances
+	 */
+	public boolean isRange() {
+		return range;
+	}
+
+	/**
+	 * @return true if the window is a single period instance already ended
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * @return the key of the single period instance, global for the global score
+	 */
+	public String getKey() {
+		return range ? null : keys.get(0);
+	}
+
+	/**
+	 * @return path of the score in the player state of a single window
+	 */
+	public String getScorePath() {
+		return range ? null : scorePath(keys.get(0));
+	}
+
+	/**
+	 * @param key
+	 * @return path of the score of a period instance in the player state
+	 */
+	public String scorePath(String key) {
+		String obj = "concepts.PointConcept." + pointConcept + ".obj";
+		if (LeaderboardEntry.GLOBAL.equals(period)) {
+			return obj + ".score";
+		}
+		return obj + ".periods." + period + ".instances." + key + ".score";
+	}
+
+	@Override
+	public String toString() {
+		return "{pointConcept='" + this.pointConcept 
+				+ "', period='" + this.period 
+				+ "', keys=" + this.keys 
+				+ ", range=" + this.range 
+				+ ", closed=" + this.closed + "}";
+	}
+
+}
@@ -0,0 +1,76 @@
+package eu.fbk.interlink.gamification.domain;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Position of a player in a leaderboard with the players right above and
+ * below
+ */
+public class PlayerRank {
+
+	private String playerId;
+	private Double score;
+	private long rank;
+	private long total;
+	private List<PlayerScore> above = new ArrayList<PlayerScore>();
+	private List<PlayerScore> below = new ArrayList<PlayerScore>();
+
+	public String getPlayerId() {
+		return playerId;
+	}
+
+	public void setPlayerId(String playerId) {
+		this.playerId = playerId;
+	}
+
+	public Double getScore() {
+		return score;
+	}
+
+	public void setScore(Double score) {
+		this.score = score;
+	}
+
+	/**
+	 * @return position of the player, starting from 1
+	 */
+	public long getRank() {
+		return rank;
+	}
+
+	public void setRank(long rank) {
+		this.rank = rank;
+	}
+
+	public long getTotal() {
+		return total;
+	}
+
+	public void setTotal(long total) {
+		this.total = total;
+	}
+
+	/**
+	 * @return the players sorted right before, the closest last
+	 */
+	public List<PlayerScore> getAbove() {
+		return above;
+	}
+
+	public void setAbove(List<PlayerScore> above) {
+		this.above = above;
+	}
+
+	/**
+	 * @return the players sorted right after, the closest first
+	 */
+	public List<PlayerScore> getBelow() {
+		return below;
+	}
+
+	public void setBelow(List<PlayerScore> below) {
+		this.below = below;
+	}
+
+}
@@ -1,9 +1,19 @@
 package eu.fbk.interlink.gamification.domain;
 
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
 public class PlayerScore {
 
 	private String playerId;
 	private Double score;
+	/**
+	 * Unweighted score of each point concept of a composite leaderboard
+	 */
+	@JsonInclude(Include.NON_NULL)
+	private Map<String, Double> breakdown;
 
 	public String getPlayerId() {
 		return playerId;
@@ -21,4 +31,12 @@ public class PlayerScore {
 		this.score = score;
 	}
 
+	public Map<String, Double> getBreakdown() {
+		return breakdown;
+	}
+
+	public void setBreakdown(Map<String, Double> breakdown) {
+		this.breakdown = breakdown;
+	}
+
 }
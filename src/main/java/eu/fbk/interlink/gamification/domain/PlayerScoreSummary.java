@@ -0,0 +1,89 @@
+package eu.fbk.interlink.gamification.domain;
+
+/**
+ * Point totals of a player and the scores of the current week, read straight
+ * from the player state
+ */
+public class PlayerScoreSummary {
+
+	public static final String DEVELOPMENT = "development";
+	public static final String MANAGEMENT = "management";
+	public static final String EXPLOITATION = "exploitation";
+
+	private String playerId;
+	private String weekKey;
+	private double development;
+	private double management;
+	private double exploitation;
+	private double developmentWeek;
+	private double managementWeek;
+	private double exploitationWeek;
+
+	public String getPlayerId() {
+		return playerId;
+	}
+
+	public void setPlayerId(String playerId) {
+		this.playerId = playerId;
+	}
+
+	/**
+	 * @return key of the current week, null if the game has no weekly period
+	 */
+	public String getWeekKey() {
+		return weekKey;
+	}
+
+	public void setWeekKey(String weekKey) {
+		this.weekKey = weekKey;
+	}
+
+	public double getDevelopment() {
+		return development;
+	}
+
+	public void setDevelopment(double development) {
+		this.development = development;
+	}
+
+	public double getManagement() {
+		return management;
+	}
+
+	public void setManagement(double management) {
+		this.management = management;
+	}
+
+	public double getExploitation() {
+		return exploitation;
+	}
+
+	public void setExploitation(double exploitation) {
+		this.exploitation = exploitation;
+	}
+
+	public double getDevelopmentWeek() {
+		return developmentWeek;
+	}
+
+	public void setDevelopmentWeek(double developmentWeek) {
+		this.developmentWeek = developmentWeek;
+	}
+
+	public double getManagementWeek() {
+		return managementWeek;
+	}
+
+	public void setManagementWeek(double managementWeek) {
+		this.managementWeek = managementWeek;
+	}
+
+	public double getExploitationWeek() {
+		return exploitationWeek;
+	}
+
+	public void setExploitationWeek(double exploitationWeek) {
+		this.exploitationWeek = exploitationWeek;
+	}
+
+}
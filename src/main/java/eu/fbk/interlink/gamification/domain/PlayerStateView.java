@@ -0,0 +1,25 @@
+package eu.fbk.interlink.gamification.domain;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import eu.fbk.interlink.gamification.util.PlayerStateSerializer;
+import eu.trentorise.game.model.PlayerState;
+
+/**
+ * A player state written as a {@link PlayerStateDTO}, straight from the engine
+ * state without building the DTO
+ */
+@JsonSerialize(using = PlayerStateSerializer.class)
+public class PlayerStateView {
+
+	private final PlayerState state;
+
+	public PlayerStateView(PlayerState state) {
+		this.state = state;
+	}
+
+	public PlayerState getState() {
+		return state;
+	}
+
+}
@@ -0,0 +1,40 @@
+package eu.fbk.interlink.gamification.domain;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Counter of the changes of the player states of a game, id game:{gameId}, or
+ * of the state of a player, id player:{gameId}|{playerId}
+ */
+@Document(collection = "stateVersion")
+public class StateVersion {
+
+	private @Id String id;
+	private long version;
+
+	public static String game(String gameId) {
+		return "game:" + gameId;
+	}
+
+	public static String player(String gameId, String playerId) {
+		return "player:" + gameId + "|" + playerId;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public void setVersion(long version) {
+		this.version = version;
+	}
+
+}
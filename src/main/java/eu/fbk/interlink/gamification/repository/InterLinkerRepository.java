@@ -1,30 +1,62 @@
 package eu.fbk.interlink.gamification.repository;
 
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
+import javax.annotation.PostConstruct;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
-import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.UncategorizedMongoDbException;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.support.PageableExecutionUtils;
 import org.springframework.stereotype.Component;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
 
+import eu.fbk.interlink.gamification.component.CollectionChangedEvent;
+import eu.fbk.interlink.gamification.component.LeaderboardComponent;
+import eu.fbk.interlink.gamification.component.LeaderboardRollupComponent;
+import eu.fbk.interlink.gamification.component.LeaderboardSnapshotComponent;
+import eu.fbk.interlink.gamification.component.LeaderboardWindowComponent;
+import eu.fbk.interlink.gamification.component.LiveLeaderboardComponent;
+import eu.fbk.interlink.gamification.domain.LeaderboardRollupScope;
+import eu.fbk.interlink.gamification.domain.LeaderboardSnapshot;
+import eu.fbk.interlink.gamification.domain.LeaderboardWindow;
+import eu.fbk.interlink.gamification.domain.PlayerRank;
 import eu.fbk.interlink.gamification.domain.PlayerScore;
-import eu.fbk.interlink.gamification.util.ControllerUtils;
+import eu.fbk.interlink.gamification.domain.PlayerScoreSummary;
+import eu.fbk.interlink.gamification.util.InvalidRequestException;
 import eu.trentorise.game.core.LogHub;
-import eu.trentorise.game.managers.ClassificationUtils;
 import eu.trentorise.game.managers.GameManager;
-import eu.trentorise.game.model.PointConcept.PeriodInstance;
+import eu.trentorise.game.model.PlayerState;
 import eu.trentorise.game.repo.GamePersistence;
 import eu.trentorise.game.repo.StatePersistence;
 
@@ -42,74 +74,646 @@ public class InterLinkerRepository {
 	@Autowired
 	private GameManager gameManager;
 
-	public Page<PlayerScore> search(String gameId, String pcName, String period, Pageable pageable) {
+	@Autowired
+	private ApplicationEventPublisher publisher;
+
+	@Autowired
+	private LeaderboardComponent leaderboard;
+
+	@Autowired
+	private LiveLeaderboardComponent liveLeaderboard;
+
+	@Autowired
+	private LeaderboardWindowComponent windows;
+
+	@Autowired
+	private LeaderboardSnapshotComponent snapshots;
+
+	@Autowired
+	private LeaderboardRollupComponent rollup;
+
+	@Value("${game.cache.player-count-ttl-seconds:30}")
+	private long playerCountTtlSeconds;
+
+	private Cache<String, Long> playerCounts;
+
+	@PostConstruct
+	public void initCache() {
+		playerCounts = Caffeine.newBuilder().maximumSize(1000)
+				.expireAfterWrite(Duration.ofSeconds(playerCountTtlSeconds)).build();
+	}
+
+	/**
+	 * Search the players of a game sorted by score. A closed period instance is
+	 * read from its snapshot by rank. Otherwise the page is computed by a single
+	 * aggregation on the player states, or after the last player of the
+	 * previous page when afterScore or afterPlayerId are given, which does not
+	 * scan the skipped players on deep pages. The total is not counted when the
+	 * page is the last one, and cached otherwise. A player without a score in
+	 * the period has score 0.
+	 * 
+	 * @param gameId
+	 * @param pcName
+	 * @param period        global, a period of the point concept with an
+	 *                      optional offset, e.g. weekly:-1, currentWeek or
+	 *                      previousWeek
+	 * @param from          start of a range of period instances, in millis
+	 * @param to            end of a range of period instances, in millis
+	 * @param pageable
+	 * @param afterScore    score of the last player of the previous page
+	 * @param afterPlayerId id of the last player of the previous page
+	 * @return players of the page
+	 */
+	public Page<PlayerScore> search(String gameId, String pcName, String period, Long from, Long to,
+			Pageable pageable, Double afterScore, String afterPlayerId) {
 		List<PlayerScore> result = new ArrayList<PlayerScore>();
-		List<StatePersistence> states = null;
-		long totalSize = 0;
-		GamePersistence g = gameRepo.findById(gameId).get();
+		boolean keyset = afterScore != null || afterPlayerId != null;
 		try {
-			Query q = new Query();
-			q.addCriteria(Criteria.where("gameId").is(gameId));
-			q.fields().include("playerId");
-			/**
-			 * db.playerState.find( { "gameId":"57ac710fd4c6ac7872b0e7a1" }, {
-			 * "concepts.PointConcept.green
-			 * leaves.obj.periods.weekly.instances.2016-09-03T00:00:00.score" : 1,
-			 * "playerId": 1 } ).sort( { "concepts.PointConcept.green
-			 * leaves.obj.periods.weekly.instances.2016-09-10T00:00:00.score": -1 } );
-			 **/
-			if (period.equalsIgnoreCase("global")) {
-				q.fields().include("concepts.PointConcept." + pcName + ".obj.score");
-				q.with(Sort.by(Sort.Order.desc("concepts.PointConcept." + pcName + ".obj.score")));
-				states = mongo.find(q, StatePersistence.class);
-				totalSize = mongo.count(q, StatePersistence.class);
-				for (StatePersistence sp : states) {
-					result.add(ControllerUtils.convertPlayerState(sp, pcName, period, null));
+			Optional<LeaderboardWindow> resolved = windows.resolve(gameId, pcName, period, from, to);
+			if (resolved.isEmpty()) {
+				return new PageImpl<>(result, pageable, 0);
+			}
+			LeaderboardWindow window = resolved.get();
+			if (window.isClosed()) {
+				Optional<LeaderboardSnapshot> snapshot = snapshots.find(gameId, pcName, window.getPeriod(),
+						window.getKey());
+				if (snapshot.isPresent()) {
+					return snapshots.search(snapshot.get(), pageable, afterScore, afterPlayerId);
 				}
-			} else if (period.equalsIgnoreCase("currentWeek")) {
-				Calendar cal = Calendar.getInstance();
-				long moment = cal.getTimeInMillis();
-				PeriodInstance periodInstance = ClassificationUtils.retrieveWindow(g.toGame(), "weekly", pcName, moment,
-						-1);
-				if (periodInstance != null) {
-					String key = ClassificationUtils.generateKey(periodInstance);
-					q.fields().include(
-							"concepts.PointConcept." + pcName + ".obj.periods.weekly.instances." + key + ".score");
-					q.with(Sort.by(Sort.Order.desc(
-							"concepts.PointConcept." + pcName + ".obj.periods.weekly.instances." + key + ".score")));
-					states = mongo.find(q, StatePersistence.class);
-					totalSize = mongo.count(q, StatePersistence.class);
-					for (StatePersistence sp : states) {
-						result.add(ControllerUtils.convertPlayerState(sp, pcName, period, key));
-					}
+			}
+			if (!window.isRange()) {
+				if (liveLeaderboard.hasBoard(gameId, pcName, window.getPeriod(), window.getKey())) {
+					return liveLeaderboard.search(gameId, pcName, window.getPeriod(), window.getKey(), pageable,
+							afterScore, afterPlayerId);
 				}
-			} else if (period.equalsIgnoreCase("previousWeek")) {
-				Calendar cal = Calendar.getInstance();
-				cal.add(Calendar.DAY_OF_WEEK, -7);
-				long moment = cal.getTimeInMillis();
-				PeriodInstance periodInstance = ClassificationUtils.retrieveWindow(g.toGame(), "weekly", pcName, moment,
-						-1);
-				if (periodInstance != null) {
-					String key = ClassificationUtils.generateKey(periodInstance);
-					q.fields().include(
-							"concepts.PointConcept." + pcName + ".obj.periods.weekly.instances." + key + ".score");
-					q.with(Sort.by(Sort.Order.desc(
-							"concepts.PointConcept." + pcName + ".obj.periods.weekly.instances." + key + ".score")));
-					states = mongo.find(q, StatePersistence.class);
-					totalSize = mongo.count(q, StatePersistence.class);
-					for (StatePersistence sp : states) {
-						result.add(ControllerUtils.convertPlayerState(sp, pcName, period, key));
-					}
+				if (leaderboard.isEnabled()) {
+					return leaderboard.search(gameId, pcName, window.getPeriod(), window.getKey(), pageable,
+							afterScore, afterPlayerId);
 				}
 			}
+			long skip = pageable.isPaged() && !keyset ? pageable.getOffset() : 0;
+			int limit = pageable.isPaged() ? pageable.getPageSize() : 0;
+			result = aggregate(gameId, window,
+					keyset ? scoreField -> after(scoreField, afterScore, afterPlayerId) : null, false, skip, limit);
 		} catch (UncategorizedMongoDbException | MongoException e) {
 			exceptionHandler(gameId, e);
 		}
-		return new PageImpl<>(result, pageable, totalSize);
+		if (keyset) {
+			// the offset of a keyset page is unknown, the total can not be inferred
+			return new PageImpl<>(result, pageable, countPlayers(gameId));
+		}
+		return PageableExecutionUtils.getPage(result, pageable, () -> countPlayers(gameId));
 	}
-	
+
+	/**
+	 * Rank of a player with the players right above and below. The rank is the
+	 * number of players sorted before, counted on the leaderboard index, and
+	 * the neighbours are read with two bounded range queries.
+	 * 
+	 * @param gameId
+	 * @param pcName
+	 * @param period     as in {@link #search}
+	 * @param from       start of a range of period instances, in millis
+	 * @param to         end of a range of period instances, in millis
+	 * @param playerId
+	 * @param neighbours number of players read above and below
+	 * @return the rank, empty if the player has no score in the window
+	 */
+	public Optional<PlayerRank> rank(String gameId, String pcName, String period, Long from, Long to,
+			String playerId, int neighbours) {
+		try {
+			Optional<LeaderboardWindow> resolved = windows.resolve(gameId, pcName, period, from, to);
+			if (resolved.isEmpty()) {
+				return Optional.empty();
+			}
+			LeaderboardWindow window = resolved.get();
+			if (window.isClosed()) {
+				Optional<LeaderboardSnapshot> snapshot = snapshots.find(gameId, pcName, window.getPeriod(),
+						window.getKey());
+				if (snapshot.isPresent()) {
+					return snapshots.rank(snapshot.get(), playerId, neighbours);
+				}
+			}
+			if (!window.isRange()) {
+				if (liveLeaderboard.hasBoard(gameId, pcName, window.getPeriod(), window.getKey())) {
+					return liveLeaderboard.rank(gameId, pcName, window.getPeriod(), window.getKey(), playerId,
+							neighbours);
+				}
+				if (leaderboard.isEnabled()) {
+					return leaderboard.rank(gameId, pcName, window.getPeriod(), window.getKey(), playerId,
+							neighbours);
+				}
+			}
+			Double score;
+			if (window.isRange()) {
+				Document own = stateCollection()
+						.aggregate(List.of(
+								new Document("$match", new Document("gameId", gameId).append("playerId", playerId)),
+								project(window)))
+						.first();
+				score = own != null ? readScore(own, "score") : null;
+			} else {
+				Document own = stateCollection()
+						.find(Filters.and(Filters.eq("gameId", gameId), Filters.eq("playerId", playerId)))
+						.projection(Projections.include(window.getScorePath())).first();
+				score = own != null ? readScore(own, window.getScorePath()) : null;
+			}
+			// a player without a score in the window is not ranked, as in the live
+			// leaderboard
+			if (score == null) {
+				return Optional.empty();
+			}
+
+			PlayerRank rank = new PlayerRank();
+			rank.setPlayerId(playerId);
+			rank.setScore(score);
+			rank.setTotal(countPlayers(gameId));
+			if (window.isRange()) {
+				List<Document> count = new ArrayList<Document>();
+				count.add(new Document("$match", new Document("gameId", gameId)));
+				count.add(project(window));
+				count.add(new Document("$match", before("score", score, playerId).getCriteriaObject()));
+				count.add(new Document("$count", "n"));
+				Document counted = stateCollection().aggregate(count).first();
+				rank.setRank((counted != null ? ((Number) counted.get("n")).longValue() : 0) + 1);
+			} else {
+				rank.setRank(mongo.count(new Query(Criteria.where("gameId").is(gameId))
+						.addCriteria(before(window.getScorePath(), score, playerId)), StatePersistence.class) + 1);
+			}
+			// a limit of 0 would read the whole leaderboard
+			if (neighbours > 0) {
+				List<PlayerScore> above = aggregate(gameId, window, scoreField -> before(scoreField, score, playerId),
+						true, 0, neighbours);
+				Collections.reverse(above);
+				rank.setAbove(above);
+				rank.setBelow(aggregate(gameId, window, scoreField -> after(scoreField, score, playerId), false, 0,
+						neighbours));
+			}
+			return Optional.of(rank);
+		} catch (UncategorizedMongoDbException | MongoException e) {
+			exceptionHandler(gameId, e);
+			return Optional.empty();
+		}
+	}
+
+	/**
+	 * Search the players of a game sorted by the weighted sum of the scores of
+	 * several point concepts, in the same window. The sum is computed by a
+	 * single aggregation on the player states and each player carries the
+	 * unweighted score of every point concept in the breakdown. A missing
+	 * score counts as 0.
+	 * 
+	 * @param gameId
+	 * @param weights       weight of each point concept
+	 * @param period        as in {@link #search}
+	 * @param from          start of a range of period instances, in millis
+	 * @param to            end of a range of period instances, in millis
+	 * @param pageable
+	 * @param afterScore    score of the last player of the previous page
+	 * @param afterPlayerId id of the last player of the previous page
+	 * @return players of the page
+	 */
+	public Page<PlayerScore> searchComposite(String gameId, Map<String, Double> weights, String period, Long from,
+			Long to, Pageable pageable, Double afterScore, String afterPlayerId) {
+		List<PlayerScore> result = new ArrayList<PlayerScore>();
+		boolean keyset = afterScore != null || afterPlayerId != null;
+		try {
+			List<String> pcNames = new ArrayList<String>(weights.keySet());
+			Document dimensions = new Document("_id", 0).append("playerId", 1);
+			List<Object> terms = new ArrayList<Object>();
+			for (int i = 0; i < pcNames.size(); i++) {
+				Optional<LeaderboardWindow> window = windows.resolve(gameId, pcNames.get(i), period, from, to);
+				if (window.isEmpty()) {
+					return new PageImpl<>(result, pageable, 0);
+				}
+				// positional fields, point concept names are not safe as field names
+				dimensions.append("d" + i, new Document("$ifNull", List.of(scoreExpression(window.get()), 0)));
+				terms.add(new Document("$multiply", List.of("$d" + i, weights.get(pcNames.get(i)))));
+			}
+
+			List<Document> pipeline = new ArrayList<Document>();
+			pipeline.add(new Document("$match", new Document("gameId", gameId)));
+			pipeline.add(new Document("$project", dimensions));
+			pipeline.add(new Document("$addFields", new Document("score", new Document("$add", terms))));
+			if (keyset) {
+				pipeline.add(
+						new Document("$match", after("score", afterScore, afterPlayerId).getCriteriaObject()));
+			}
+			pipeline.add(new Document("$sort", new Document("score", -1).append("playerId", 1)));
+			if (pageable.isPaged()) {
+				if (!keyset && pageable.getOffset() > 0) {
+					pipeline.add(new Document("$skip", pageable.getOffset()));
+				}
+				pipeline.add(new Document("$limit", pageable.getPageSize()));
+			}
+			for (Document doc : stateCollection().aggregate(pipeline).allowDiskUse(true)) {
+				PlayerScore ps = toPlayerScore(doc);
+				Map<String, Double> breakdown = new LinkedHashMap<String, Double>();
+				for (int i = 0; i < pcNames.size(); i++) {
+					breakdown.put(pcNames.get(i), ((Number) doc.get("d" + i)).doubleValue());
+				}
+				ps.setBreakdown(breakdown);
+				result.add(ps);
+			}
+		} catch (UncategorizedMongoDbException | MongoException e) {
+			exceptionHandler(gameId, e);
+		}
+		if (keyset) {
+			return new PageImpl<>(result, pageable, countPlayers(gameId));
+		}
+		return PageableExecutionUtils.getPage(result, pageable, () -> countPlayers(gameId));
+	}
+
+	/**
+	 * @param gameId
+	 * @param pcName
+	 * @param period as in {@link #search}
+	 * @param from   start of a range of period instances, in millis
+	 * @param to     end of a range of period instances, in millis
+	 * @return the window, empty if the point concept or the period are unknown
+	 * @throws InvalidRequestException if the period is malformed
+	 */
+	public Optional<LeaderboardWindow> window(String gameId, String pcName, String period, Long from, Long to) {
+		return windows.resolve(gameId, pcName, period, from, to);
+	}
+
+	/**
+	 * Read the whole leaderboard of a window sorted by score, with a cursor
+	 * 
+	 * @param gameId
+	 * @param window
+	 * @param batchSize players read from the cursor at a time
+	 * @param consumer  called for each player, best first
+	 */
+	public void forEachScore(String gameId, LeaderboardWindow window, int batchSize, Consumer<PlayerScore> consumer) {
+		try (MongoCursor<Document> cursor = stateCollection().aggregate(pipeline(gameId, window, null, false, 0, 0))
+				.allowDiskUse(true).batchSize(batchSize).cursor()) {
+			while (cursor.hasNext()) {
+				consumer.accept(toPlayerScore(cursor.next()));
+			}
+		}
+	}
+
+	/**
+	 * Search the players of several games sorted by the sum of their scores, for
+	 * the leaderboards of a process or of a tag. The sum is read from the rollup
+	 * of the scope when the window is the same instance in every game, and
+	 * computed by a single aggregation on the player states otherwise.
+	 * 
+	 * @param scope         id of the group of games, see
+	 *                      {@link LeaderboardRollupScope}
+	 * @param gameIds       core game ids
+	 * @param pcName
+	 * @param period        as in {@link #search}
+	 * @param from          start of a range of period instances, in millis
+	 * @param to            end of a range of period instances, in millis
+	 * @param pageable
+	 * @param afterScore    score of the last player of the previous page
+	 * @param afterPlayerId id of the last player of the previous page
+	 * @return players of the page
+	 */
+	public Page<PlayerScore> searchGroup(String scope, List<String> gameIds, String pcName, String period,
+			Long from, Long to, Pageable pageable, Double afterScore, String afterPlayerId) {
+		List<PlayerScore> result = new ArrayList<PlayerScore>();
+		boolean keyset = afterScore != null || afterPlayerId != null;
+		try {
+			List<Object> branches = new ArrayList<Object>();
+			Set<String> instanceKeys = new HashSet<String>();
+			LeaderboardWindow single = null;
+			for (String gameId : gameIds) {
+				Optional<LeaderboardWindow> window = windows.resolve(gameId, pcName, period, from, to);
+				if (window.isEmpty()) {
+					continue;
+				}
+				branches.add(new Document("case", new Document("$eq", List.of("$gameId", gameId))).append("then",
+						new Document("$ifNull", List.of(scoreExpression(window.get()), 0))));
+				instanceKeys.add(
+						window.get().isRange() ? null : window.get().getPeriod() + "|" + window.get().getKey());
+				single = window.get();
+			}
+			if (branches.isEmpty()) {
+				return new PageImpl<>(result, pageable, 0);
+			}
+			if (instanceKeys.size() == 1 && !single.isRange()) {
+				Optional<Page<PlayerScore>> rolledUp = rollup.search(scope, gameIds, pcName, single.getPeriod(),
+						single.getKey(), pageable, afterScore, afterPlayerId);
+				if (rolledUp.isPresent()) {
+					return rolledUp.get();
+				}
+			}
+
+			List<Document> pipeline = new ArrayList<Document>();
+			pipeline.add(new Document("$match", new Document("gameId", new Document("$in", gameIds))));
+			pipeline.add(new Document("$group", new Document("_id", "$playerId").append("score", new Document("$sum",
+					new Document("$switch", new Document("branches", branches).append("default", 0))))));
+			pipeline.add(
+					new Document("$project", new Document("_id", 0).append("playerId", "$_id").append("score", 1)));
+			if (keyset) {
+				pipeline.add(
+						new Document("$match", after("score", afterScore, afterPlayerId).getCriteriaObject()));
+			}
+			pipeline.add(new Document("$sort", new Document("score", -1).append("playerId", 1)));
+			if (pageable.isPaged()) {
+				if (!keyset && pageable.getOffset() > 0) {
+					pipeline.add(new Document("$skip", pageable.getOffset()));
+				}
+				pipeline.add(new Document("$limit", pageable.getPageSize()));
+			}
+			for (Document doc : stateCollection().aggregate(pipeline).allowDiskUse(true)) {
+				result.add(toPlayerScore(doc));
+			}
+		} catch (UncategorizedMongoDbException | MongoException e) {
+			exceptionHandler(scope, e);
+		}
+		if (keyset) {
+			return new PageImpl<>(result, pageable, countGroupPlayers(gameIds));
+		}
+		return PageableExecutionUtils.getPage(result, pageable, () -> countGroupPlayers(gameIds));
+	}
+
+	/**
+	 * @param gameIds core game ids
+	 * @return number of distinct players of the games
+	 */
+	private long countGroupPlayers(List<String> gameIds) {
+		if (gameIds.size() == 1) {
+			return countPlayers(gameIds.get(0));
+		}
+		return playerCounts.get(String.join("|", gameIds), key -> {
+			Document counted = stateCollection().aggregate(List.of(
+					new Document("$match", new Document("gameId", new Document("$in", gameIds))),
+					new Document("$group", new Document("_id", "$playerId")), new Document("$count", "n"))).first();
+			return counted != null ? ((Number) counted.get("n")).longValue() : 0L;
+		});
+	}
+
+	/**
+	 * Sorted scores of the players of a game. A single period instance is
+	 * filtered and sorted on its path in the player state, so that the
+	 * leaderboard index is used, and projected last. A range is summed first.
+	 * 
+	 * @param position  filter on the position of the players, given the score
+	 *                  field, or null
+	 * @param ascending true to read the players from the lowest ranks
+	 * @param limit     0 for no limit
+	 */
+	private List<PlayerScore> aggregate(String gameId, LeaderboardWindow window,
+			Function<String, Criteria> position, boolean ascending, long skip, int limit) {
+		List<PlayerScore> result = new ArrayList<PlayerScore>();
+		for (Document doc : stateCollection().aggregate(pipeline(gameId, window, position, ascending, skip, limit))
+				.allowDiskUse(true)) {
+			result.add(toPlayerScore(doc));
+		}
+		return result;
+	}
+
+	private static List<Document> pipeline(String gameId, LeaderboardWindow window,
+			Function<String, Criteria> position, boolean ascending, long skip, int limit) {
+		int direction = ascending ? 1 : -1;
+		List<Document> pipeline = new ArrayList<Document>();
+		if (window.isRange()) {
+			pipeline.add(new Document("$match", new Document("gameId", gameId)));
+			pipeline.add(project(window));
+			if (position != null) {
+				pipeline.add(new Document("$match", position.apply("score").getCriteriaObject()));
+			}
+			pipeline.add(new Document("$sort", new Document("score", direction).append("playerId", -direction)));
+		} else {
+			Document match = new Document("gameId", gameId);
+			if (position != null) {
+				match = new Document("$and",
+						List.of(match, position.apply(window.getScorePath()).getCriteriaObject()));
+			}
+			pipeline.add(new Document("$match", match));
+			pipeline.add(new Document("$sort",
+					new Document(window.getScorePath(), direction).append("playerId", -direction)));
+		}
+		if (skip > 0) {
+			pipeline.add(new Document("$skip", skip));
+		}
+		if (limit > 0) {
+			pipeline.add(new Document("$limit", limit));
+		}
+		if (!window.isRange()) {
+			pipeline.add(project(window));
+		}
+		return pipeline;
+	}
+
+	/**
+	 * @return the stage projecting the player id and the score of the window,
+	 *         the sum of the instances of a range
+	 */
+	private static Document project(LeaderboardWindow window) {
+		return new Document("$project",
+				new Document("_id", 0).append("playerId", 1).append("score", scoreExpression(window)));
+	}
+
+	private static Object scoreExpression(LeaderboardWindow window) {
+		if (!window.isRange()) {
+			return "$" + window.getScorePath();
+		}
+		if (window.getKeys().isEmpty()) {
+			return new Document("$literal", 0);
+		}
+		List<Object> terms = new ArrayList<Object>();
+		for (String key : window.getKeys()) {
+			terms.add(new Document("$ifNull", List.of("$" + window.scorePath(key), 0)));
+		}
+		return new Document("$add", terms);
+	}
+
+	private static PlayerScore toPlayerScore(Document doc) {
+		PlayerScore ps = new PlayerScore();
+		ps.setPlayerId(doc.getString("playerId"));
+		Double score = readScore(doc, "score");
+		ps.setScore(score != null ? score : 0);
+		return ps;
+	}
+
+	private MongoCollection<Document> stateCollection() {
+		return mongo.getCollection(mongo.getCollectionName(StatePersistence.class));
+	}
+
+	/**
+	 * Players sorted before the given one: higher score, or same score and lower
+	 * player id. Players without score are sorted last.
+	 */
+	private static Criteria before(String scoreField, Double score, String playerId) {
+		if (score == null) {
+			return new Criteria().orOperator(Criteria.where(scoreField).ne(null),
+					new Criteria().andOperator(Criteria.where(scoreField).is(null),
+							Criteria.where("playerId").lt(playerId)));
+		}
+		return new Criteria().orOperator(Criteria.where(scoreField).gt(score),
+				new Criteria().andOperator(Criteria.where(scoreField).is(score),
+						Criteria.where("playerId").lt(playerId)));
+	}
+
+	/**
+	 * Players sorted after the given one: lower score, or same score and greater
+	 * player id. Players without score are sorted last.
+	 */
+	private static Criteria after(String scoreField, Double afterScore, String afterPlayerId) {
+		String playerId = afterPlayerId != null ? afterPlayerId : "";
+		if (afterScore == null) {
+			return new Criteria().andOperator(Criteria.where(scoreField).is(null),
+					Criteria.where("playerId").gt(playerId));
+		}
+		return new Criteria().orOperator(Criteria.where(scoreField).lt(afterScore),
+				Criteria.where(scoreField).is(null),
+				new Criteria().andOperator(Criteria.where(scoreField).is(afterScore),
+						Criteria.where("playerId").gt(playerId)));
+	}
+
+	/**
+	 * Page of the players of a game sorted by id, read from the (gameId,
+	 * playerId) index
+	 * 
+	 * @param gameId
+	 * @param after  id of the last player of the previous page, null for the
+	 *               first page
+	 * @param limit
+	 * @return player ids
+	 */
+	public List<String> players(String gameId, String after, int limit) {
+		Bson filter = Filters.eq("gameId", gameId);
+		if (after != null) {
+			filter = Filters.and(filter, Filters.gt("playerId", after));
+		}
+		List<String> players = new ArrayList<String>();
+		for (Document state : stateCollection().find(filter).projection(Projections.include("playerId"))
+				.sort(Sorts.ascending("playerId")).limit(limit)) {
+			players.add(state.getString("playerId"));
+		}
+		return players;
+	}
+
+	/**
+	 * Read all the players of a game sorted by id, with a cursor
+	 * 
+	 * @param gameId
+	 * @param batchSize players read from the cursor at a time
+	 * @param consumer  called for each player id
+	 */
+	public void forEachPlayer(String gameId, int batchSize, Consumer<String> consumer) {
+		try (MongoCursor<Document> cursor = stateCollection().find(Filters.eq("gameId", gameId))
+				.projection(Projections.include("playerId")).sort(Sorts.ascending("playerId")).batchSize(batchSize)
+				.cursor()) {
+			while (cursor.hasNext()) {
+				consumer.accept(cursor.next().getString("playerId"));
+			}
+		}
+	}
+
+	/**
+	 * Point totals and current week scores of a player, read with a projection
+	 * on the player state, without loading the engine state
+	 * 
+	 * @param gameId
+	 * @param playerId
+	 * @return the summary, empty if the player state is not present
+	 */
+	public Optional<PlayerScoreSummary> summary(String gameId, String playerId) {
+		return Optional.ofNullable(summaries(gameId, List.of(playerId)).get(playerId));
+	}
+
+	/**
+	 * Point totals and current week scores of several players, read with a
+	 * single query
+	 * 
+	 * @param gameId
+	 * @param playerIds
+	 * @return summaries by player id, players without state are missing
+	 */
+	public Map<String, PlayerScoreSummary> summaries(String gameId, Collection<String> playerIds) {
+		String[] pcNames = { PlayerScoreSummary.DEVELOPMENT, PlayerScoreSummary.MANAGEMENT,
+				PlayerScoreSummary.EXPLOITATION };
+		String[] globalPaths = new String[pcNames.length];
+		String[] weekPaths = new String[pcNames.length];
+		String weekKey = null;
+		List<String> fields = new ArrayList<String>();
+		fields.add("playerId");
+		for (int i = 0; i < pcNames.length; i++) {
+			globalPaths[i] = LeaderboardWindow.global(pcNames[i]).getScorePath();
+			fields.add(globalPaths[i]);
+			Optional<LeaderboardWindow> week = windows.resolve(gameId, pcNames[i], "weekly", null, null);
+			if (week.isPresent()) {
+				weekKey = week.get().getKey();
+				weekPaths[i] = week.get().getScorePath();
+				fields.add(weekPaths[i]);
+			}
+		}
+		Map<String, PlayerScoreSummary> summaries = new LinkedHashMap<String, PlayerScoreSummary>();
+		for (Document state : stateCollection()
+				.find(Filters.and(Filters.eq("gameId", gameId), Filters.in("playerId", playerIds)))
+				.projection(Projections.include(fields))) {
+			double[] scores = new double[pcNames.length * 2];
+			for (int i = 0; i < pcNames.length; i++) {
+				Double global = readScore(state, globalPaths[i]);
+				Double week = weekPaths[i] != null ? readScore(state, weekPaths[i]) : null;
+				scores[i] = global != null ? global : 0;
+				scores[pcNames.length + i] = week != null ? week : 0;
+			}
+			PlayerScoreSummary summary = new PlayerScoreSummary();
+			summary.setPlayerId(state.getString("playerId"));
+			summary.setWeekKey(weekKey);
+			summary.setDevelopment(scores[0]);
+			summary.setManagement(scores[1]);
+			summary.setExploitation(scores[2]);
+			summary.setDevelopmentWeek(scores[3]);
+			summary.setManagementWeek(scores[4]);
+			summary.setExploitationWeek(scores[5]);
+			summaries.put(summary.getPlayerId(), summary);
+		}
+		return summaries;
+	}
+
+	/**
+	 * States of several players, read with a single query
+	 * 
+	 * @param gameId
+	 * @param playerIds
+	 * @return states by player id, players without state are missing
+	 */
+	public Map<String, PlayerState> states(String gameId, Collection<String> playerIds) {
+		Map<String, PlayerState> states = new LinkedHashMap<String, PlayerState>();
+		for (StatePersistence state : mongo.find(
+				new Query(Criteria.where("gameId").is(gameId).and("playerId").in(playerIds)),
+				StatePersistence.class)) {
+			states.put(state.getPlayerId(), new PlayerState(state));
+		}
+		return states;
+	}
+
+	/**
+	 * @return the number at a dotted path of a document, null if missing
+	 */
+	private static Double readScore(Document doc, String path) {
+		Object value = doc;
+		for (String field : path.split("\\.")) {
+			if (!(value instanceof Document)) {
+				return null;
+			}
+			value = ((Document) value).get(field);
+		}
+		return value instanceof Number ? ((Number) value).doubleValue() : null;
+	}
+
+	/**
+	 * Number of players of a game, the same for every point concept and period
+	 * 
+	 * @param gameId
+	 * @return player count, cached for a short time
+	 */
+	public long countPlayers(String gameId) {
+		return playerCounts.get(gameId,
+				id -> mongo.count(new Query(Criteria.where("gameId").is(id)), StatePersistence.class));
+	}
+
 	public void deleteGameRule(String gameId) {
 		gameManager.deleteGame(gameId);
+		publisher.publishEvent(new CollectionChangedEvent(mongo.getCollectionName(GamePersistence.class), gameId));
 	}
 	
 	private void exceptionHandler(String gameId, Exception e) {
@@ -2,10 +2,16 @@ package eu.fbk.interlink.gamification.util;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import eu.fbk.interlink.gamification.domain.LeaderboardWindow;
 import eu.fbk.interlink.gamification.domain.PlayerScore;
 import eu.fbk.interlink.gamification.domain.PlayerStateDTO;
 import eu.trentorise.game.model.PlayerState;
@@ -64,6 +70,75 @@ public class ControllerUtils {
 		return processId.concat("-").concat(name);
 	}
 
+	/**
+	 * @param version
+	 * @return the version as an entity tag value, without quotes
+	 */
+	public static String etag(long version) {
+		return "v" + version;
+	}
+
+	/**
+	 * @param version changes of the player states of the game
+	 * @param window  leaderboard read
+	 * @return the version and the period instances of the window as an entity
+	 *         tag value, without quotes
+	 */
+	public static String etag(long version, LeaderboardWindow window) {
+		StringBuilder etag = new StringBuilder(etag(version)).append('-').append(window.getPointConcept())
+				.append('-').append(window.getPeriod());
+		List<String> keys = window.getKeys();
+		if (window.isRange()) {
+			// the keys of a range are consecutive instances
+			etag.append("-range-").append(keys.size());
+		}
+		if (!keys.isEmpty()) {
+			etag.append('-').append(keys.get(0));
+		}
+		if (keys.size() > 1) {
+			etag.append('-').append(keys.get(keys.size() - 1));
+		}
+		return etag.toString();
+	}
+
+	/**
+	 * Start of a day in the default time zone
+	 * 
+	 * @param date
+	 * @return millis, null if date is null
+	 */
+	public static Long toMillis(LocalDate date) {
+		return date != null ? date.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli() : null;
+	}
+
+	/**
+	 * Parse the weights of a composite leaderboard, e.g.
+	 * development:2,management:1,exploitation. A point concept without weight
+	 * counts 1.
+	 * 
+	 * @param weights
+	 * @return weight of each point concept, in the given order
+	 * @throws InvalidRequestException if a weight is not a number
+	 */
+	public static Map<String, Double> parseWeights(String weights) {
+		Map<String, Double> res = new LinkedHashMap<String, Double>();
+		for (String item : weights.split(",")) {
+			String[] parts = item.trim().split(":", 2);
+			if (parts[0].isEmpty()) {
+				continue;
+			}
+			try {
+				res.put(parts[0], parts.length > 1 ? Double.parseDouble(parts[1].trim()) : 1d);
+			} catch (NumberFormatException e) {
+				throw new InvalidRequestException("Weight of " + parts[0] + " is not a number");
+			}
+		}
+		if (res.isEmpty()) {
+			throw new InvalidRequestException("No point concept in the weights");
+		}
+		return res;
+	}
+
 	public static PlayerScore convertPlayerState(StatePersistence state, String pcName, String period, String key) {
 		PlayerScore res = null;
 		if (state != null) {
@@ -0,0 +1,15 @@
+package eu.fbk.interlink.gamification.util;
+
+/**
+ * A request parameter that can not be accepted, e.g. a malformed period or an
+ * unsupported export format. Answered with 400.
+ */
+public class InvalidRequestException extends IllegalArgumentException {
+
+	private static final long serialVersionUID = 1L;
+
+	public InvalidRequestException(String message) {
+		super(message);
+	}
+
+}
@@ -0,0 +1,87 @@
+package eu.fbk.interlink.gamification.util;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import eu.fbk.interlink.gamification.domain.PlayerStateView;
+import eu.trentorise.game.model.PlayerState;
+import eu.trentorise.game.model.core.GameConcept;
+
+/**
+ * Writes a player state with the same JSON of
+ * {@link ControllerUtils#convertPlayerState(PlayerState)}: the concepts
+ * grouped by type under state, and empty levels and customData. Concepts are
+ * grouped by scanning the state again for each type, which is cheaper than
+ * hashing them for the few concepts of a player, and written as they are
+ * found.
+ */
+public class PlayerStateSerializer extends StdSerializer<PlayerStateView> {
+
+	private static final long serialVersionUID = 1L;
+
+	public PlayerStateSerializer() {
+		super(PlayerStateView.class);
+	}
+
+	@Override
+	public void serialize(PlayerStateView value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+		PlayerState ps = value.getState();
+		gen.writeStartObject();
+		if (ps.getPlayerId() != null) {
+			gen.writeStringField("playerId", ps.getPlayerId());
+		}
+		if (ps.getGameId() != null) {
+			gen.writeStringField("gameId", ps.getGameId());
+		}
+		gen.writeObjectFieldStart("state");
+		if (ps.getState() != null) {
+			writeConcepts(ps.getState(), gen, provider);
+		}
+		gen.writeEndObject();
+		gen.writeArrayFieldStart("levels");
+		gen.writeEndArray();
+		gen.writeObjectFieldStart("customData");
+		gen.writeEndObject();
+		gen.writeEndObject();
+	}
+
+	private static void writeConcepts(Collection<GameConcept> concepts, JsonGenerator gen,
+			SerializerProvider provider) throws IOException {
+		int index = 0;
+		for (GameConcept concept : concepts) {
+			String type = concept.getClass().getSimpleName();
+			if (!foundBefore(concepts, type, index)) {
+				gen.writeArrayFieldStart(type);
+				int other = 0;
+				for (GameConcept same : concepts) {
+					if (other++ >= index && same.getClass().getSimpleName().equals(type)) {
+						provider.defaultSerializeValue(same, gen);
+					}
+				}
+				gen.writeEndArray();
+			}
+			index++;
+		}
+	}
+
+	/**
+	 * @return true if a concept of the type comes before the index
+	 */
+	private static boolean foundBefore(Collection<GameConcept> concepts, String type, int index) {
+		int i = 0;
+		for (GameConcept concept : concepts) {
+			if (i++ >= index) {
+				return false;
+			}
+			if (concept.getClass().getSimpleName().equals(type)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
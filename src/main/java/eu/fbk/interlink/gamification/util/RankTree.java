@@ -0,0 +1,284 @@
+package eu.fbk.interlink.gamification.util;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Players sorted by score, highest first, and by player id on equal scores,
+ * with rank lookups in O(log n). It is a treap stored in parallel arrays, each
+ * node keeps the size of its subtree. Not thread safe.
+ */
+public class RankTree {
+
+	private static final int NIL = -1;
+
+	private double[] score;
+	private String[] player;
+	private int[] priority;
+	private int[] left;
+	private int[] right;
+	private int[] size;
+
+	private int root = NIL;
+	private int used;
+	private int free = NIL;
+
+	public RankTree() {
+		this(16);
+	}
+
+	public RankTree(int capacity) {
+		capacity = Math.max(capacity, 1);
+		score = new double[capacity];
+		player = new String[capacity];
+		priority = new int[capacity];
+		left = new int[capacity];
+		right = new int[capacity];
+		size = new int[capacity];
+	}
+
+	public int size() {
+		return size(root);
+	}
+
+	/**
+	 * Add a player, a player already present with the same score is added twice
+	 * 
+	 * @param playerScore
+	 * @param playerId
+	 */
+	public void add(double playerScore, String playerId) {
+		int node = allocate(playerScore, playerId);
+		int[] parts = split(root, playerScore, playerId);
+		root = merge(merge(parts[0], node), parts[1]);
+	}
+
+	/**
+	 * Remove a player with the given score
+	 * 
+	 * @param playerScore
+	 * @param playerId
+	 * @return false if not present
+	 */
+	public boolean remove(double playerScore, String playerId) {
+		int parent = NIL;
+		int node = root;
+		while (node != NIL) {
+			int cmp = compare(playerScore, playerId, node);
+			if (cmp == 0) {
+				break;
+			}
+			parent = node;
+			node = cmp < 0 ? left[node] : right[node];
+		}
+		if (node == NIL) {
+			return false;
+		}
+		int merged = merge(left[node], right[node]);
+		if (parent == NIL) {
+			root = merged;
+		} else if (left[parent] == node) {
+			left[parent] = merged;
+		} else {
+			right[parent] = merged;
+		}
+		// the nodes on the path lost one descendant
+		for (int n = root; n != merged;) {
+			size[n]--;
+			n = compare(playerScore, playerId, n) < 0 ? left[n] : right[n];
+			if (n == NIL) {
+				break;
+			}
+		}
+		release(node);
+		return true;
+	}
+
+	/**
+	 * @param playerScore
+	 * @param playerId
+	 * @return number of players sorted before the given score and player
+	 */
+	public int rank(double playerScore, String playerId) {
+		int rank = 0;
+		int node = root;
+		while (node != NIL) {
+			if (compare(playerScore, playerId, node) <= 0) {
+				node = left[node];
+			} else {
+				rank += size(left[node]) + 1;
+				node = right[node];
+			}
+		}
+		return rank;
+	}
+
+	/**
+	 * @param playerScore
+	 * @return number of players with a score higher than the given one
+	 */
+	public int countHigher(double playerScore) {
+		int count = 0;
+		int node = root;
+		while (node != NIL) {
+			if (score[node] > playerScore) {
+				count += size(left[node]) + 1;
+				node = right[node];
+			} else {
+				node = left[node];
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Visit the players sorted from a rank, in O(log n + count)
+	 * 
+	 * @param fromRank first rank visited, starting from 0
+	 * @param count    maximum number of players visited
+	 * @param visitor
+	 */
+	public void visit(int fromRank, int count, Visitor visitor) {
+		if (fromRank < 0 || count <= 0 || fromRank >= size()) {
+			return;
+		}
+		int[] stack = new int[64];
+		int depth = 0;
+		int node = root;
+		int skip = fromRank;
+		// descend to the node of the first rank, keeping the nodes still to visit
+		while (node != NIL) {
+			int leftSize = size(left[node]);
+			if (skip < leftSize) {
+				stack = push(stack, depth++, node);
+				node = left[node];
+			} else if (skip == leftSize) {
+				stack = push(stack, depth++, node);
+				break;
+			} else {
+				skip -= leftSize + 1;
+				node = right[node];
+			}
+		}
+		int rank = fromRank;
+		while (depth > 0 && count > 0) {
+			node = stack[--depth];
+			visitor.visit(rank++, score[node], player[node]);
+			count--;
+			for (int n = right[node]; n != NIL; n = left[n]) {
+				stack = push(stack, depth++, n);
+			}
+		}
+	}
+
+	public void clear() {
+		root = NIL;
+		used = 0;
+		free = NIL;
+		Arrays.fill(player, null);
+	}
+
+	private int compare(double playerScore, String playerId, int node) {
+		if (playerScore != score[node]) {
+			return playerScore > score[node] ? -1 : 1;
+		}
+		return playerId.compareTo(player[node]);
+	}
+
+	/**
+	 * @return the nodes sorted before the key and the others
+	 */
+	private int[] split(int node, double playerScore, String playerId) {
+		if (node == NIL) {
+			return new int[] { NIL, NIL };
+		}
+		if (compare(playerScore, playerId, node) <= 0) {
+			int[] parts = split(left[node], playerScore, playerId);
+			left[node] = parts[1];
+			update(node);
+			parts[1] = node;
+			return parts;
+		}
+		int[] parts = split(right[node], playerScore, playerId);
+		right[node] = parts[0];
+		update(node);
+		parts[0] = node;
+		return parts;
+	}
+
+	private int merge(int a, int b) {
+		if (a == NIL) {
+			return b;
+		}
+		if (b == NIL) {
+			return a;
+		}
+		if (priority[a] > priority[b]) {
+			right[a] = merge(right[a], b);
+			update(a);
+			return a;
+		}
+		left[b] = merge(a, left[b]);
+		update(b);
+		return b;
+	}
+
+	private void update(int node) {
+		size[node] = size(left[node]) + size(right[node]) + 1;
+	}
+
+	private int size(int node) {
+		return node == NIL ? 0 : size[node];
+	}
+
+	private int allocate(double playerScore, String playerId) {
+		int node;
+		if (free != NIL) {
+			node = free;
+			free = left[node];
+		} else {
+			if (used == score.length) {
+				grow();
+			}
+			node = used++;
+		}
+		score[node] = playerScore;
+		player[node] = playerId;
+		priority[node] = ThreadLocalRandom.current().nextInt();
+		left[node] = NIL;
+		right[node] = NIL;
+		size[node] = 1;
+		return node;
+	}
+
+	private void release(int node) {
+		player[node] = null;
+		left[node] = free;
+		free = node;
+	}
+
+	private void grow() {
+		int capacity = score.length * 2;
+		score = Arrays.copyOf(score, capacity);
+		player = Arrays.copyOf(player, capacity);
+		priority = Arrays.copyOf(priority, capacity);
+		left = Arrays.copyOf(left, capacity);
+		right = Arrays.copyOf(right, capacity);
+		size = Arrays.copyOf(size, capacity);
+	}
+
+	private static int[] push(int[] stack, int depth, int node) {
+		if (depth == stack.length) {
+			stack = Arrays.copyOf(stack, depth * 2);
+		}
+		stack[depth] = node;
+		return stack;
+	}
+
+	@FunctionalInterface
+	public interface Visitor {
+
+		void visit(int rank, double score, String playerId);
+	}
+
+}
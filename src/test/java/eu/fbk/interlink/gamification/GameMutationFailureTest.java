@@ -0,0 +1,84 @@
+package eu.fbk.interlink.gamification;
+
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import eu.fbk.interlink.gamification.component.GameComponent;
+import eu.fbk.interlink.gamification.component.GameMutation;
+import eu.fbk.interlink.gamification.component.GameMutationResult;
+import eu.fbk.interlink.gamification.component.TaskStorageComponent;
+import eu.fbk.interlink.gamification.domain.InterlinkGame;
+import eu.fbk.interlink.gamification.repository.GameRepository;
+
+public class GameMutationFailureTest {
+
+	private static final String GAME = "game";
+
+	private GameComponent gameComponent;
+	private GameRepository gameRepository;
+
+	@Before
+	public void setup() {
+		gameRepository = Mockito.mock(GameRepository.class);
+		// a fresh copy at every read, as from Mongo
+		Mockito.when(gameRepository.findById(GAME)).thenAnswer(invocation -> {
+			InterlinkGame game = new InterlinkGame();
+			game.setId(GAME);
+			game.setName("original");
+			game.setActive(true);
+			return Optional.of(game);
+		});
+		Mockito.when(gameRepository.save(ArgumentMatchers.any(InterlinkGame.class)))
+				.thenAnswer(invocation -> invocation.getArgument(0));
+		gameComponent = new GameComponent();
+		ReflectionTestUtils.setField(gameComponent, "gameRepository", gameRepository);
+		ReflectionTestUtils.setField(gameComponent, "taskStorage", Mockito.mock(TaskStorageComponent.class));
+		ReflectionTestUtils.setField(gameComponent, "maxAttempts", 5);
+		ReflectionTestUtils.setField(gameComponent, "cacheMaxSize", 10L);
+		ReflectionTestUtils.setField(gameComponent, "cacheTtlSeconds", 60L);
+		gameComponent.initCache();
+	}
+
+	@Test
+	public void partialChangesOfAFailedMutationNotSaved() {
+		GameMutation<String> rename = game -> {
+			game.get().setName("renamed");
+			return GameMutationResult.changed("renamed");
+		};
+		GameMutation<String> failing = game -> {
+			game.get().setActive(false);
+			throw new IllegalStateException("failed after changing the game");
+		};
+
+		List<GameMutationResult<?>> results = gameComponent.applyMutations(GAME, List.of(rename, failing));
+
+		Assert.assertEquals("renamed", results.get(0).getValue());
+		Assert.assertNull(results.get(0).getError());
+		Assert.assertTrue(results.get(1).getError() instanceof IllegalStateException);
+		ArgumentCaptor<InterlinkGame> saved = ArgumentCaptor.forClass(InterlinkGame.class);
+		Mockito.verify(gameRepository).save(saved.capture());
+		Assert.assertEquals("renamed", saved.getValue().getName());
+		Assert.assertTrue(saved.getValue().isActive());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void failedSingleMutationThrownAndNotSaved() {
+		try {
+			gameComponent.mutateGame(GAME, game -> {
+				game.get().setActive(false);
+				throw new IllegalStateException("failed after changing the game");
+			});
+		} finally {
+			Mockito.verify(gameRepository, Mockito.never()).save(ArgumentMatchers.any(InterlinkGame.class));
+		}
+	}
+
+}
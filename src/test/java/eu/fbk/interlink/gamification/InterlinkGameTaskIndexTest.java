@@ -0,0 +1,60 @@
+package eu.fbk.interlink.gamification;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import eu.fbk.interlink.gamification.domain.InterlinkGame;
+import eu.fbk.interlink.gamification.domain.InterlinkTask;
+
+public class InterlinkGameTaskIndexTest {
+
+	private InterlinkGame defineGame() {
+		InterlinkGame game = new InterlinkGame();
+		InterlinkTask one = new InterlinkTask("one");
+		one.addSubtask(new InterlinkTask("sub"));
+		game.addTask(one);
+		game.addTask(new InterlinkTask("two"));
+		return game;
+	}
+
+	@Test
+	public void findTaskAndSubtask() {
+		InterlinkGame game = defineGame();
+		Assert.assertEquals("one", game.findTask("one").get().getId());
+		Assert.assertEquals("sub", game.findSubtask("one", "sub").get().getId());
+		Assert.assertFalse(game.findSubtask("two", "sub").isPresent());
+		Assert.assertFalse(game.findTask("sub").isPresent());
+	}
+
+	@Test
+	public void indexFollowsChanges() {
+		InterlinkGame game = defineGame();
+		game.findTask("one");
+
+		game.addTask(new InterlinkTask("three"));
+		Assert.assertTrue(game.findTask("three").isPresent());
+
+		Assert.assertTrue(game.addSubtask("two", new InterlinkTask("sub")));
+		Assert.assertTrue(game.findSubtask("two", "sub").isPresent());
+		Assert.assertFalse(game.addSubtask("missing", new InterlinkTask("sub")));
+
+		game.removeSubtask("one", "sub");
+		Assert.assertFalse(game.findSubtask("one", "sub").isPresent());
+		Assert.assertTrue(game.findTask("one").get().getSubtaskList().isEmpty());
+
+		game.removeTask("two");
+		Assert.assertFalse(game.findTask("two").isPresent());
+		Assert.assertFalse(game.findSubtask("two", "sub").isPresent());
+		Assert.assertEquals(2, game.getTaskList().size());
+	}
+
+	@Test
+	public void invalidateAfterExternalChange() {
+		InterlinkGame game = defineGame();
+		game.findTask("one");
+		game.findTask("one").get().getSubtaskList().add(new InterlinkTask("other"));
+		game.invalidateTaskIndex();
+		Assert.assertTrue(game.findSubtask("one", "other").isPresent());
+	}
+
+}
@@ -15,6 +15,9 @@ import org.springframework.test.context.support.AnnotationConfigContextLoader;
 
 import eu.fbk.interlink.gamification.component.GameComponent;
 import eu.fbk.interlink.gamification.component.GamificationEngineFacadeComponent;
+import eu.fbk.interlink.gamification.component.LeaderboardComponent;
+import eu.fbk.interlink.gamification.component.LeaderboardIndexComponent;
+import eu.fbk.interlink.gamification.component.TaskStorageComponent;
 import eu.fbk.interlink.gamification.domain.InterlinkGame;
 import eu.fbk.interlink.gamification.domain.InterlinkGameTemplate;
 import eu.fbk.interlink.gamification.domain.InterlinkPlayer;
@@ -36,7 +39,8 @@ import eu.trentorise.game.services.PlayerService;
 
 @RunWith(SpringJUnit4ClassRunner.class)
 @ContextConfiguration(classes = { AppConfig.class, TestCoreConfiguration.class, GameComponent.class,
-		GamificationEngineFacadeComponent.class,
+		GamificationEngineFacadeComponent.class, TaskStorageComponent.class, LeaderboardIndexComponent.class,
+		LeaderboardComponent.class,
 		IdentityLookupComponent.class }, loader = AnnotationConfigContextLoader.class)
 @EnableMongoRepositories("eu.fbk.interlink.gamification.repository")
 public class InterlinkTemplateComplexityTest {
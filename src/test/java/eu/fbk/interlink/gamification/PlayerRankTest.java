@@ -0,0 +1,139 @@
+package eu.fbk.interlink.gamification;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+
+import org.bson.Document;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.AnnotationConfigContextLoader;
+
+import eu.fbk.interlink.gamification.component.LeaderboardComponent;
+import eu.fbk.interlink.gamification.component.LeaderboardRollupComponent;
+import eu.fbk.interlink.gamification.component.LeaderboardSnapshotComponent;
+import eu.fbk.interlink.gamification.component.LeaderboardWindowComponent;
+import eu.fbk.interlink.gamification.component.LiveLeaderboardComponent;
+import eu.fbk.interlink.gamification.component.PlayerStateChangedEvent;
+import eu.fbk.interlink.gamification.domain.PlayerRank;
+import eu.fbk.interlink.gamification.repository.InterLinkerRepository;
+import eu.trentorise.game.config.AppConfig;
+import eu.trentorise.game.config.MongoConfig;
+import eu.trentorise.game.core.config.TestCoreConfiguration;
+import eu.trentorise.game.managers.GameManager;
+import eu.trentorise.game.managers.GameWorkflow;
+import eu.trentorise.game.model.Game;
+import eu.trentorise.game.model.PointConcept;
+import eu.trentorise.game.model.core.ClasspathRule;
+import eu.trentorise.game.model.core.GameConcept;
+import eu.trentorise.game.model.core.GameTask;
+import eu.trentorise.game.repo.GamePersistence;
+import eu.trentorise.game.repo.StatePersistence;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = { AppConfig.class, MongoConfig.class, TestCoreConfiguration.class,
+		InterLinkerRepository.class, LeaderboardComponent.class, LiveLeaderboardComponent.class,
+		LeaderboardWindowComponent.class, LeaderboardSnapshotComponent.class,
+		LeaderboardRollupComponent.class }, loader = AnnotationConfigContextLoader.class)
+@TestPropertySource(properties = "game.leaderboard.live.enabled=true")
+public class PlayerRankTest {
+
+	private static final String GAME = "interLinkGameTest";
+	private static final String ACTION = "update_player_points";
+	private static final String MANAGEMENT = "management";
+	private static final String UNSCORED = "unscored";
+
+	@Autowired
+	private GameManager gameManager;
+
+	@Autowired
+	private GameWorkflow workflow;
+
+	@Autowired
+	private InterLinkerRepository interlinkRepo;
+
+	@Autowired
+	private LiveLeaderboardComponent liveLeaderboard;
+
+	@Autowired
+	private ApplicationEventPublisher publisher;
+
+	@Autowired
+	private MongoTemplate mongo;
+
+	@Before
+	public void initGame() {
+		mongo.dropCollection(StatePersistence.class);
+		mongo.dropCollection(GamePersistence.class);
+
+		Game game = new Game();
+		game.setId(GAME);
+		game.setName(GAME);
+		game.setOwner("chewbecca");
+		game.setDomain("my-domain");
+		game.setActions(new HashSet<String>());
+		game.getActions().add(ACTION);
+		game.setConcepts(new HashSet<GameConcept>());
+		game.getConcepts().add(new PointConcept("management"));
+		game.getConcepts().add(new PointConcept("development"));
+		game.getConcepts().add(new PointConcept("exploitation"));
+		game.setTasks(new HashSet<GameTask>());
+		gameManager.saveGameDefinition(game);
+		gameManager.addRule(new ClasspathRule(GAME, "rules/" + GAME + "/update_exploitation_points.drl"));
+		gameManager.addRule(new ClasspathRule(GAME, "rules/" + GAME + "/update_management_points.drl"));
+		gameManager.addRule(new ClasspathRule(GAME, "rules/" + GAME + "/update_development_points.drl"));
+
+		score("1", 3.0);
+		score("2", 2.0);
+		score("3", 1.0);
+		// a state without any point concept
+		mongo.insert(new Document("gameId", GAME).append("playerId", UNSCORED).append("concepts", new Document()),
+				mongo.getCollectionName(StatePersistence.class));
+	}
+
+	private void score(String playerId, double management) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("development", 0.0);
+		params.put("management", management);
+		params.put("exploitation", 0.0);
+		workflow.apply(GAME, ACTION, playerId, params, null);
+	}
+
+	private Optional<PlayerRank> rank(String playerId, int neighbours) {
+		return interlinkRepo.rank(GAME, MANAGEMENT, "global", null, null, playerId, neighbours);
+	}
+
+	@Test
+	public void noNeighboursReadsOnlyThePlayer() {
+		PlayerRank rank = rank("2", 0).get();
+		Assert.assertEquals(2, rank.getRank());
+		Assert.assertTrue(rank.getAbove().isEmpty());
+		Assert.assertTrue(rank.getBelow().isEmpty());
+
+		rank = rank("2", 1).get();
+		Assert.assertEquals("1", rank.getAbove().get(0).getPlayerId());
+		Assert.assertEquals(1, rank.getBelow().size());
+	}
+
+	@Test
+	public void unscoredPlayerNotRanked() {
+		// no leaderboard in memory yet, read from the player states
+		Assert.assertFalse(liveLeaderboard.hasBoard(GAME, MANAGEMENT, "global", "global"));
+		Assert.assertFalse(rank(UNSCORED, 5).isPresent());
+
+		publisher.publishEvent(new PlayerStateChangedEvent(GAME, "1"));
+		Assert.assertTrue(liveLeaderboard.hasBoard(GAME, MANAGEMENT, "global", "global"));
+		Assert.assertFalse(rank(UNSCORED, 5).isPresent());
+		Assert.assertTrue(rank("1", 0).isPresent());
+	}
+
+}
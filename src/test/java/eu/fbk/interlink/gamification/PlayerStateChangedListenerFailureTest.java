@@ -0,0 +1,52 @@
+package eu.fbk.interlink.gamification;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import eu.fbk.interlink.gamification.component.GamificationEngineFacadeComponent;
+import eu.fbk.interlink.gamification.component.PlayerStateChangedEvent;
+import eu.fbk.interlink.gamification.domain.InterlinkPlayer;
+import eu.fbk.interlink.gamification.domain.InterlinkTask;
+import eu.trentorise.game.services.Workflow;
+
+public class PlayerStateChangedListenerFailureTest {
+
+	private GamificationEngineFacadeComponent facade;
+	private Workflow workflow;
+
+	@Before
+	public void setup() {
+		facade = new GamificationEngineFacadeComponent();
+		workflow = Mockito.mock(Workflow.class);
+		ApplicationEventPublisher publisher = Mockito.mock(ApplicationEventPublisher.class);
+		// e.g. the leaderboard upsert failing
+		Mockito.doThrow(new IllegalStateException("leaderboard write failed")).when(publisher)
+				.publishEvent(ArgumentMatchers.any(PlayerStateChangedEvent.class));
+		ReflectionTestUtils.setField(facade, "workflow", workflow);
+		ReflectionTestUtils.setField(facade, "publisher", publisher);
+	}
+
+	@Test
+	public void everyPlayerGetsPointsWhenAListenerFails() {
+		InterlinkTask task = new InterlinkTask("task");
+		List<InterlinkPlayer> players = List.of(new InterlinkPlayer("p1", "p1", 1, 2, 3),
+				new InterlinkPlayer("p2", "p2", 3, 2, 1));
+
+		for (InterlinkPlayer player : players) {
+			facade.triggerAction("process", "game", "update_player_points", player, task);
+		}
+
+		for (InterlinkPlayer player : players) {
+			Mockito.verify(workflow).apply(ArgumentMatchers.anyString(),
+					ArgumentMatchers.eq("update_player_points"), ArgumentMatchers.eq(player.getId()),
+					ArgumentMatchers.anyMap(), ArgumentMatchers.isNull());
+		}
+	}
+
+}
@@ -0,0 +1,80 @@
+package eu.fbk.interlink.gamification;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import eu.fbk.interlink.gamification.domain.PlayerStateView;
+import eu.fbk.interlink.gamification.util.ControllerUtils;
+import eu.trentorise.game.model.PlayerState;
+import eu.trentorise.game.model.PointConcept;
+
+/**
+ * Player state written through the PlayerStateDTO and straight by the
+ * PlayerStateSerializer, with the point concepts of an InterLink game and
+ * with a larger state. Run with mvn -Pbenchmark test-compile exec:java, or
+ * the main method from the test classpath; the gc profiler reports the
+ * allocation of each path (gc.alloc.rate.norm).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PlayerStateSerializationBenchmark {
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	/**
+	 * concepts of the state besides development, management and exploitation
+	 */
+	@Param({ "0", "30" })
+	private int extraConcepts;
+
+	private PlayerState state;
+
+	@Setup
+	public void setup() {
+		state = new PlayerState("process-game", "player");
+		state.getState().add(new PointConcept("development"));
+		state.getState().add(new PointConcept("management"));
+		state.getState().add(new PointConcept("exploitation"));
+		for (int i = 0; i < extraConcepts; i++) {
+			state.getState().add(new PointConcept("concept" + i));
+		}
+	}
+
+	@Benchmark
+	public byte[] dto() throws JsonProcessingException {
+		return mapper.writeValueAsBytes(ControllerUtils.convertPlayerState(state));
+	}
+
+	@Benchmark
+	public byte[] serializer() throws JsonProcessingException {
+		return mapper.writeValueAsBytes(new PlayerStateView(state));
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(PlayerStateSerializationBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class).build()).run();
+	}
+
+}
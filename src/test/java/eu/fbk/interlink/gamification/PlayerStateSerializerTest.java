@@ -0,0 +1,71 @@
+package eu.fbk.interlink.gamification;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import eu.fbk.interlink.gamification.domain.PlayerStateView;
+import eu.fbk.interlink.gamification.util.ControllerUtils;
+import eu.trentorise.game.model.PlayerState;
+import eu.trentorise.game.model.PointConcept;
+
+public class PlayerStateSerializerTest {
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	@Test
+	public void sameJsonOfTheDto() throws Exception {
+		PlayerState state = new PlayerState("process-game", "player");
+		state.getState().add(new PointConcept("development"));
+		state.getState().add(new PointConcept("management"));
+		state.getState().add(new PointConcept("exploitation"));
+
+		assertSameJson(state);
+	}
+
+	@Test
+	public void emptyState() throws Exception {
+		PlayerState state = new PlayerState("process-game", "player");
+
+		assertSameJson(state);
+	}
+
+	/**
+	 * The DTO groups the concepts in hash sets, so the concepts of a type are
+	 * compared regardless of their order
+	 */
+	private void assertSameJson(PlayerState state) throws Exception {
+		ObjectNode expected = (ObjectNode) mapper
+				.readTree(mapper.writeValueAsString(ControllerUtils.convertPlayerState(state)));
+		ObjectNode actual = (ObjectNode) mapper.readTree(mapper.writeValueAsString(new PlayerStateView(state)));
+		JsonNode expectedState = expected.remove("state");
+		JsonNode actualState = actual.remove("state");
+		Assert.assertEquals(expected, actual);
+		Assert.assertEquals(fieldNames(expectedState), fieldNames(actualState));
+		expectedState.fieldNames().forEachRemaining(type -> Assert.assertEquals(type, concepts(expectedState.get(type)),
+				concepts(actualState.get(type))));
+	}
+
+	private static Set<String> fieldNames(JsonNode node) {
+		Set<String> names = new HashSet<String>();
+		node.fieldNames().forEachRemaining(names::add);
+		return names;
+	}
+
+	private static List<JsonNode> concepts(JsonNode array) {
+		List<JsonNode> concepts = new ArrayList<JsonNode>();
+		array.forEach(concepts::add);
+		concepts.sort(Comparator.comparing(JsonNode::toString));
+		return concepts;
+	}
+
+}
@@ -0,0 +1,77 @@
+package eu.fbk.interlink.gamification;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import eu.fbk.interlink.gamification.domain.PlayerScore;
+import eu.fbk.interlink.gamification.util.RankTree;
+
+public class RankTreeTest {
+
+	private static final Comparator<PlayerScore> ORDER = Comparator
+			.comparing(PlayerScore::getScore, Comparator.reverseOrder()).thenComparing(PlayerScore::getPlayerId);
+
+	private static PlayerScore score(double score, String playerId) {
+		PlayerScore ps = new PlayerScore();
+		ps.setScore(score);
+		ps.setPlayerId(playerId);
+		return ps;
+	}
+
+	@Test
+	public void rankAndVisit() {
+		RankTree tree = new RankTree(2);
+		tree.add(10, "b");
+		tree.add(30, "c");
+		tree.add(10, "a");
+		tree.add(20, "d");
+
+		Assert.assertEquals(4, tree.size());
+		Assert.assertEquals(0, tree.rank(30, "c"));
+		Assert.assertEquals(2, tree.rank(10, "a"));
+		Assert.assertEquals(3, tree.rank(10, "b"));
+		Assert.assertEquals(2, tree.countHigher(10));
+
+		List<String> players = new ArrayList<String>();
+		tree.visit(1, 2, (rank, score, playerId) -> players.add(playerId));
+		Assert.assertEquals(List.of("d", "a"), players);
+
+		Assert.assertTrue(tree.remove(20, "d"));
+		Assert.assertFalse(tree.remove(20, "d"));
+		Assert.assertEquals(1, tree.rank(10, "a"));
+	}
+
+	@Test
+	public void sameOrderOfSortedList() {
+		Random random = new Random(42);
+		RankTree tree = new RankTree();
+		List<PlayerScore> expected = new ArrayList<PlayerScore>();
+		for (int i = 0; i < 5000; i++) {
+			if (!expected.isEmpty() && random.nextInt(3) == 0) {
+				PlayerScore removed = expected.remove(random.nextInt(expected.size()));
+				Assert.assertTrue(tree.remove(removed.getScore(), removed.getPlayerId()));
+			} else {
+				PlayerScore added = score(random.nextInt(50), "p" + i);
+				expected.add(added);
+				tree.add(added.getScore(), added.getPlayerId());
+			}
+		}
+		expected.sort(ORDER);
+		Assert.assertEquals(expected.size(), tree.size());
+		for (int i = 0; i < expected.size(); i += 97) {
+			PlayerScore ps = expected.get(i);
+			Assert.assertEquals(i, tree.rank(ps.getScore(), ps.getPlayerId()));
+		}
+		List<PlayerScore> visited = new ArrayList<PlayerScore>();
+		tree.visit(0, expected.size(), (rank, score, playerId) -> visited.add(score(score, playerId)));
+		for (int i = 0; i < expected.size(); i++) {
+			Assert.assertEquals(expected.get(i).getPlayerId(), visited.get(i).getPlayerId());
+		}
+	}
+
+}
@@ -0,0 +1,140 @@
+package eu.fbk.interlink.gamification;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.AnnotationConfigContextLoader;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import eu.fbk.interlink.gamification.component.TaskStorageComponent;
+import eu.fbk.interlink.gamification.domain.InterlinkGame;
+import eu.fbk.interlink.gamification.domain.InterlinkTask;
+import eu.fbk.interlink.gamification.domain.InterlinkPlayer;
+import eu.fbk.interlink.gamification.domain.InterlinkTaskDocument;
+import eu.trentorise.game.config.AppConfig;
+import eu.trentorise.game.config.MongoConfig;
+import eu.trentorise.game.core.config.TestCoreConfiguration;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = { AppConfig.class, MongoConfig.class, TestCoreConfiguration.class,
+		TaskStorageComponent.class }, loader = AnnotationConfigContextLoader.class)
+@TestPropertySource(properties = "game.task-storage=collection")
+public class TaskStorageComponentTest {
+
+	@Autowired
+	private TaskStorageComponent taskStorage;
+
+	@Autowired
+	private MongoTemplate mongo;
+
+	@Before
+	public void cleanDB() {
+		mongo.dropCollection(InterlinkGame.class);
+		mongo.dropCollection(InterlinkTaskDocument.class);
+	}
+
+	private InterlinkGame defineGame() {
+		InterlinkGame game = new InterlinkGame();
+		game.setName("game");
+		game.setProcessId("process");
+		game.setActive(true);
+		InterlinkTask one = new InterlinkTask("one");
+		one.addSubtask(new InterlinkTask("sub"));
+		game.addTask(one);
+		game.addTask(new InterlinkTask("two"));
+		game.addTask(new InterlinkTask("three"));
+		return game;
+	}
+
+	private InterlinkGame reload(String gameId) {
+		return taskStorage.attach(mongo.findById(gameId, InterlinkGame.class));
+	}
+
+	private static List<String> taskIds(List<InterlinkTask> tasks) {
+		return tasks.stream().map(InterlinkTask::getId).collect(Collectors.toList());
+	}
+
+	@Test
+	public void replacedTaskListDropsMissingTasks() {
+		String gameId = taskStorage.save(defineGame()).getId();
+
+		// as the game update does, the task list is replaced without being read
+		InterlinkGame game = reload(gameId);
+		List<InterlinkTask> tasks = new ArrayList<InterlinkTask>();
+		tasks.add(new InterlinkTask("one"));
+		game.setTaskList(tasks);
+		taskStorage.save(game);
+
+		InterlinkGame saved = reload(gameId);
+		Assert.assertEquals(List.of("one"), taskIds(saved.getTaskList()));
+		Assert.assertTrue(saved.findTask("one").get().getSubtaskList().isEmpty());
+		Assert.assertEquals(1, mongo.findAll(InterlinkTaskDocument.class).size());
+	}
+
+	@Test
+	public void versionIncreasedOnceTasksWritten() {
+		InterlinkGame game = taskStorage.save(defineGame());
+		long version = game.getVersion();
+
+		InterlinkGame copy = reload(game.getId());
+		copy.findTask("two").get().setCompleted(true);
+		taskStorage.save(copy);
+
+		InterlinkGame saved = reload(game.getId());
+		Assert.assertEquals(version + 1, saved.getVersion().longValue());
+		Assert.assertTrue(saved.findTask("two").get().isCompleted());
+	}
+
+	/**
+	 * The version is the ETag of the game, a reader must not see a new version
+	 * before the tasks it stands for
+	 */
+	@Test
+	public void versionNotVisibleBeforeTasks() {
+		InterlinkGame game = taskStorage.save(defineGame());
+		long version = game.getVersion();
+
+		List<Long> versionsWhileWriting = new ArrayList<Long>();
+		MongoTemplate spy = Mockito.spy(mongo);
+		Mockito.doAnswer(invocation -> {
+			versionsWhileWriting.add(mongo.findById(game.getId(), InterlinkGame.class).getVersion());
+			return invocation.callRealMethod();
+		}).when(spy).updateFirst(Mockito.any(Query.class), Mockito.any(UpdateDefinition.class),
+				Mockito.eq(InterlinkTaskDocument.class));
+		Mockito.doAnswer(invocation -> {
+			versionsWhileWriting.add(mongo.findById(game.getId(), InterlinkGame.class).getVersion());
+			return invocation.callRealMethod();
+		}).when(spy).upsert(Mockito.any(Query.class), Mockito.any(UpdateDefinition.class),
+				Mockito.eq(InterlinkTaskDocument.class));
+		ReflectionTestUtils.setField(taskStorage, "mongoTemplate", spy);
+		try {
+			InterlinkGame copy = reload(game.getId());
+			copy.findTask("three").get().setCompleted(true);
+			taskStorage.save(copy);
+			Assert.assertTrue(
+					taskStorage.addPlayer(game.getId(), null, "two", new InterlinkPlayer("p1", "p1", 0, 0, 0)));
+		} finally {
+			ReflectionTestUtils.setField(taskStorage, "mongoTemplate", mongo);
+		}
+
+		Assert.assertEquals(List.of(version, version + 1), versionsWhileWriting);
+		InterlinkGame saved = reload(game.getId());
+		Assert.assertEquals(version + 2, saved.getVersion().longValue());
+		Assert.assertTrue(saved.findTask("three").get().isCompleted());
+		Assert.assertEquals("p1", saved.findTask("two").get().getPlayers().get(0).getId());
+	}
+
+}